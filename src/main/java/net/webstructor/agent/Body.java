@@ -45,6 +45,7 @@ import net.webstructor.core.Updater;
 import net.webstructor.core.Storager;
 import net.webstructor.core.Thing;
 import net.webstructor.data.GraphCacher;
+import net.webstructor.data.WordIndex;
 import net.webstructor.data.CacherHolder;
 import net.webstructor.data.Translator;
 import net.webstructor.main.Logger;
@@ -205,9 +206,11 @@ public abstract class Body extends Anything implements Environment, Updater
 	private Matcher matcher = null;
 	private Publisher publisher = null;
 	private Logger logger = null;
+	private net.webstructor.self.Streamer streamer = null;
 	
 	public net.webstructor.self.Cacher filecacher = null;
 	public GraphCacher sitecacher = null;
+	public WordIndex siteindex = null;
 	public CacherHolder cacheholder = null;
 	protected HashMap actioners = new HashMap();
 	protected HashMap<String,Serper> searchers = new HashMap<String,Serper>();
@@ -318,6 +321,17 @@ public abstract class Body extends Anything implements Environment, Updater
 		return matcher;
 	}
 	
+	/**
+	 * Creates or returns Streamer instance to save and load the storager, 
+	 * the only one per body as it owns the journal of changes and the log bound to the snapshot
+	 * @return Streamer instance
+	 */
+	public synchronized net.webstructor.self.Streamer getStreamer(){
+		if (streamer == null)
+			streamer = new net.webstructor.self.Streamer(this); 
+		return streamer;
+	}
+	
 	/**
 	 * Creates or returns Publisher instance to do the content publishing
 	 * @return Publisher instance
@@ -61,6 +61,7 @@ import net.webstructor.core.Anything;
 import net.webstructor.core.Thing;
 import net.webstructor.core.Scheduler;
 import net.webstructor.data.GraphCacher;
+import net.webstructor.data.WordIndex;
 import net.webstructor.data.ReputationSystem;
 import net.webstructor.peer.Conversationer;
 import net.webstructor.peer.Peer;
@@ -144,6 +145,7 @@ public class Farm extends Body {
 
 		filecacher = new net.webstructor.self.Cacher("pages",this,storager);
 		sitecacher = new GraphCacher("www", this);
+		siteindex = new WordIndex("www", this);
 		this.register("update", getPublisher().getUpdater());
 		
 		for (Serper s : Serper.getDefaultSerpers(this))
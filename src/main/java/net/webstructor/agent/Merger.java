@@ -137,7 +137,7 @@ public class Merger {
 					Thing twin = (Thing)things[j];
 					Thing lucky = (Thing)twinthings.get(twin);
 					if (lucky != null) { //if there is a translation needed
-						HashSet victims = (HashSet)storager.get(name,twin);//mapmap.getObject(name, twin, false);
+						Collection victims = storager.get(name,twin);//mapmap.getObject(name, twin, false);
 						if (!AL.empty(victims)) {
 							victims = new HashSet( victims ); // copy to avoid concurrency
 							for (Iterator it = victims.iterator(); it.hasNext();) {
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javafx.util.Pair;
@@ -369,8 +370,49 @@ public class Reader extends AL {
 	}
 
 	public static Set pat(Storager storager, Thing owner, String pattern) {
+		return (Set)bind(compiled(pats,storager,pattern),owner);
+	}
+	
+	//patterns compiled without owner by pattern text, to be bound to owner on every use, so cached sets are never shared
+	private static final int MAX_COMPILED_PATTERNS = 10000;
+	private static final ConcurrentHashMap pats = new ConcurrentHashMap();//pattern -> Compiled by pat
+	private static final ConcurrentHashMap sets = new ConcurrentHashMap();//pattern -> Compiled by patterns
+	
+	private static class Compiled {
+		final Storager storager;
+		final long schema;
+		final Set set;
+		Compiled(Storager storager, long schema, Set set) {
+			this.storager = storager;
+			this.schema = schema;
+			this.set = set;
+		}
+	}
+	
+	private static Set compiled(ConcurrentHashMap cache, Storager storager, String pattern) {
+		long schema = storager == null ? 0 : storager.getSchema();
+		Compiled compiled = (Compiled)cache.get(pattern);
+		if (compiled != null && compiled.storager == storager && compiled.schema == schema)
+			return compiled.set;
 		Parser parser = new Parser(pattern);
-		return pat(storager,owner,parser,null);
+		Set set = cache == pats ? pat(storager,null,parser,null) : patterns(storager,null,parser,-1);
+		if (cache.size() >= MAX_COMPILED_PATTERNS)
+			cache.clear();//keep the cache bounded, hot patterns get compiled back
+		cache.put(pattern, new Compiled(storager,schema,set));
+		return set;
+	}
+	
+	//copy compiled set with its variables bound to the owner
+	private static Object bind(Object term, Anything owner) {
+		if (term instanceof Property)
+			return ((Property)term).bind(owner);
+		if (!(term instanceof Set))
+			return term;
+		Set set = (Set)term;
+		Object[] terms = new Object[set.size()];
+		for (int i = 0; i < terms.length; i++)
+			terms[i] = bind(set.get(i),owner);
+		return set instanceof Any ? new Any(((Any)set).max,terms) : set instanceof All ? new All(terms) : new Seq(terms);
 	}
 
 	//TODO: real AL parsing into real statement with all these {}[]()
@@ -405,8 +447,7 @@ public class Reader extends AL {
 	
 	//New: real AL parsing into real statement with all these {}()[] : 0-Any,1-All,2-Seq
 	public static Set patterns(Storager storager, Thing owner, String pattern) {
-		Parser parser = new Parser(pattern);
-		return patterns(storager,owner,parser,-1);
+		return (Set)bind(compiled(sets,storager,pattern),owner);
 	}
 	
 	public static Set patterns(Storager storager, Thing owner, Parser parser, int settype) {
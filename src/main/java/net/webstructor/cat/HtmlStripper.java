@@ -23,10 +23,16 @@
  */
 package net.webstructor.cat;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -81,6 +87,7 @@ import net.webstructor.util.Str;
         private static final String[] etokens = {"&times;","&quot;","&ndash;","&mdash;", "&minus;", "&amp;","&lt;","&gt;","&nbsp;","&nbsp","&euro;","&cent;","&pound;","&yen;","&copy;","&#169;","&reg;","&#174;","&deg;","&#8482;","&#39;","&#039;","&rarr;","&sbquo;","&laquo;"  ,"&raquo;"  ,"&lsquo;"  ,"&rsquo;"  ,"&ldquo;"  ,"&rdquo;"  ,"&bdquo;","&ldquor;", "&#x3D;","‘" ,"’" ,"“" ,"”" ,"&hellip;"};
         private static char[] echars =          {'*',		'\"',    '–',	    '—',	   '−',		  '&',	'<'   ,'>'   ,' '     ,' '    ,'€'	   ,'¢'     ,'£'      ,'¥'    ,'©'     ,'©'     ,'®'    ,'®'     ,'°'    ,'™'	,	'\'',	'\'', 	'→'      ,'‚'      ,'\"'/*'«'*/,'\"'/*'»'*/,'\''/*'‘'*/,'\''/*'’'*/,'\"'/*'“'*/,'\"'/*'”'*/,'„' 	 ,'„'       , '='     ,'\'','\'','\"','\"','…'};
         private static String[] charmappings = {"«»“”‘’","\"\"\"\"\'\'"};
+        private static char[] equotes = {'‘','’','“','”'};//etokens not starting with '&'
         
         public static String cleanHtmlRegExp(String text)
         {
@@ -110,8 +117,8 @@ import net.webstructor.util.Str;
         public static String attribute(String source, int pos, String name, String baseHref){
 //TODO: lowercase
             int till = 1024;
-            int begpos = Array.indexOf(source,pos+1,name+"=",till);
-            int tagendpos = Array.indexOf(source,pos+1,">",till);
+            int tagendpos = indexOf(source,GT,pos+1,Math.min(source.length(),pos+1+till));
+            int begpos = tagendpos == -1 ? -1 : indexOf(source,name,'=',pos+1,tagendpos);
             if (begpos != -1 && begpos < tagendpos) {//if attribute is found in scope of tag
             	begpos = Array.indexOf(source,begpos+name.length()+1,quotes);
             	if (begpos != -1) {
@@ -152,13 +159,10 @@ import net.webstructor.util.Str;
                 return "" ;
             }
             StringBuilder buf = new StringBuilder(source.length()/2) ;
+            StringBuilder chunk = new StringBuilder();//reused for every piece of text between tags
             int startOfText = 0 ;
             int pos = 0;
             
-            // jump to title tag
-            pos=look4Tag(source,pos,TITLE);
-            if(pos == -1)
-                pos = 0;
             String title = extractTitle(source);
             if (titles != null && !AL.empty(title))
             	titles.put(new Integer(0), title);
@@ -187,14 +191,13 @@ import net.webstructor.util.Str;
                 if(pos < 0) break;
                 if(pos>startOfText && startOfText != -1)
                 {
-                	StringBuilder chunk = new StringBuilder(); 
-                    addText(chunk,source.substring(startOfText,pos));
-                    String chunkStr = chunk.toString();
-                    addText(buf,chunkStr);//suppress spaces that way!?
+                	chunk.setLength(0);
+                    addText(chunk,source,startOfText,pos);
+                    addText(buf,chunk,0,chunk.length());//suppress spaces that way!?
                     if (currentLinkBuf != null)
-                    	currentLinkBuf.append(chunkStr);
+                    	currentLinkBuf.append(chunk);
                     if (headerContentBuf != null)
-                    	headerContentBuf.append(chunkStr);
+                    	headerContentBuf.append(chunk);
                     startOfText = -1;
                 }
                 pos++;
@@ -299,9 +302,9 @@ import net.webstructor.util.Str;
                     		*/
                         	//TODO: intelligent phrase breaking
                     		boolean closing = source.charAt(oldpos) == '/';
-                    		String name = source.substring(oldpos + (closing ? 1 : 0), pos);
-                        	if (Array.startsWith(name,blocktags) != null) {//TODO case insensitive
-                        		if (!closing && !Array.contains(unclosed_tags, name.toLowerCase()))//<p> & <br> do not need closing
+                    		int nameBeg = oldpos + (closing ? 1 : 0);
+                        	if (startsWith(source,nameBeg,pos,blocktags)) {//TODO case insensitive
+                        		if (!closing && !equalsIgnoreCase(source,nameBeg,pos,unclosed_tags))//<p> & <br> do not need closing
                         			tagStarts.push(new Integer(pos));
                         		else {
                         			int start = tagStarts.isEmpty() ? 0 : ((Integer)tagStarts.pop()).intValue();
@@ -317,9 +320,9 @@ import net.webstructor.util.Str;
                 startOfText = pos;
             }
             if(pos>startOfText && startOfText != -1)
-                addText(buf,source.substring(startOfText,pos));
+                addText(buf,source,startOfText,pos);
             if(pos < 0 && startOfText != -1)
-                addText(buf,source.substring(startOfText));
+                addText(buf,source,startOfText,source.length());
 //TODO:if unspace, account for index of images
             //return unspace(buf);
             return buf.toString().trim();
@@ -356,14 +359,26 @@ import net.webstructor.util.Str;
         {		
             if (AL.empty(str))
         		return;
+            addText(buf, str, 0, str.length());
+        }
+        
+        //append text in the range of the source without copying it
+        static void addText(StringBuilder buf, CharSequence str, int from, int to)
+        {		
+            if (from >= to)
+        		return;
                                  char c=0;
                                  int len = buf.length();
-                                 if(len > 0 && WS.indexOf(str.charAt(0)) == -1 && WS.indexOf(buf.charAt(len - 1)) == -1)
+                                 if(len > 0 && WS.indexOf(str.charAt(from)) == -1 && WS.indexOf(buf.charAt(len - 1)) == -1)
                                      buf.append(' ');
-                                 for(int i=0;i<str.length();i++)
+                                 for(int i=from;i<to;i++)
                                  {
                                 	 int ci;
                                      c = str.charAt(i);
+                                     if (c > ' ' && c < 128 && c != '&') {//plain latin, nothing to decode or unify
+                                    	 buf.append(c);
+                                    	 continue;
+                                     }
                                      if(c == '&')
                                      for (;;) {//repeatedly handle continious encodings like &amp;#x200B;
                                     	 //handle stuff like &#8212 and &#x2019 '’'
@@ -371,10 +386,10 @@ import net.webstructor.util.Str;
                                     	 int ihash = i + 1, iend, ilen, ihex;
                                     	 String shex;
                                     	 boolean hex;
-                                    	 if (ihash < str.length() && str.charAt(ihash) == '#' &&
-                                    		(iend = str.indexOf(';', ihash))!= -1  && 
+                                    	 if (ihash < to && str.charAt(ihash) == '#' &&
+                                    		(iend = indexOf(str, ';', ihash, to))!= -1  && 
                                             (ilen = iend - ihash) > 0 && 
-                                    		(shex = str.substring(ihash+1+((hex = str.charAt(ihash+1) == 'x') ? 1 : 0),iend)) != null &&
+                                    		(shex = str.subSequence(ihash+1+((hex = str.charAt(ihash+1) == 'x') ? 1 : 0),iend).toString()) != null &&
                                     		(ihex = StringUtil.toIntOrZero(shex,hex ? 16 : 10)) != 0) {
                                     		c = (char) ihex;
                                     		i += ilen + 1;
@@ -382,7 +397,7 @@ import net.webstructor.util.Str;
                                     	 }
                                     	 else
                                     	 for (int j = 0; j < etokens.length; j++)
-                                    		 if (str.regionMatches(i, etokens[j], 0, etokens[j].length())) {
+                                    		 if (regionMatches(str, i, to, etokens[j])) {
                                     			 i += (etokens[j].length() - 1);
                                     			 c = echars[j];
                                     			 handled = true; 
@@ -404,6 +419,49 @@ import net.webstructor.util.Str;
                                     	 buf.append(c);
                                  }
         }
+        //position of name followed by the char, in the range
+        static int indexOf(String source, String name, char c, int from, int to) {
+        	int len = name.length();
+        	char first = name.charAt(0);
+        	for (int i = from; i + len < to; i++)
+        		if (source.charAt(i) == first && source.charAt(i + len) == c && source.startsWith(name, i))
+        			return i;
+        	return -1;
+        }
+        
+        static int indexOf(CharSequence str, char c, int from, int to) {
+        	for (int i = from; i < to; i++)
+        		if (str.charAt(i) == c)
+        			return i;
+        	return -1;
+        }
+        
+        static boolean regionMatches(CharSequence str, int from, int to, String token) {
+        	int len = token.length();
+        	if (from < 0 || from + len > to)
+        		return false;
+        	for (int i = 0; i < len; i++)
+        		if (str.charAt(from + i) != token.charAt(i))
+        			return false;
+        	return true;
+        }
+        
+        //if text in the range starts with any of the tags, case sensitive
+        static boolean startsWith(String source, int from, int to, String[] tags) {
+        	for (int i = 0; i < tags.length; i++)
+        		if (from + tags[i].length() <= to && source.startsWith(tags[i], from))
+        			return true;
+        	return false;
+        }
+        
+        //if text in the range is equal to any of the tags, case insensitive
+        static boolean equalsIgnoreCase(String source, int from, int to, String[] tags) {
+        	for (int i = 0; i < tags.length; i++)
+        		if (to - from == tags[i].length() && source.regionMatches(true, from, tags[i], 0, tags[i].length()))
+        			return true;
+        	return false;
+        }
+        
         static boolean isComment(String source, int pos)
                                      {
                                          //return String.Compare(source,pos,"!--",0,3)==0;
@@ -421,9 +479,15 @@ import net.webstructor.util.Str;
         static String whichTag(String source, int pos, String[] tags, boolean closingToo) {
         	if (closingToo && source.charAt(pos) == '/') 
         		pos++;
-        	for (int i=0; i<tags.length; i++)
-        		if (source.regionMatches(true,pos,tags[i],0,tags[i].length()))
+        	if (pos >= source.length())
+        		return null;
+        	//check first char the same way as regionMatches does ignoring case, for tags starting with lowercase latin letter 
+        	char c = source.charAt(pos), u = Character.toUpperCase(c), l = Character.toLowerCase(u);
+        	for (int i=0; i<tags.length; i++) {
+        		char t = tags[i].charAt(0);
+        		if ((c == t || u == Character.toUpperCase(t) || l == t) && source.regionMatches(true,pos,tags[i],0,tags[i].length()))
         			return tags[i];
+        	}
         	return null;
         }
         
@@ -478,6 +542,11 @@ import net.webstructor.util.Str;
          * @return string containing the content of the first tag found. If no tag found, return null
         */
         static ArrayList<String> getTagContent(String source, String tag) {
+        	return getTagContent(source, tag, 0);
+        }
+        
+        //get up to limit contents, all if limit is 0
+        static ArrayList<String> getTagContent(String source, String tag, int limit) {
             ArrayList<String> tagCont = new ArrayList<String>();
             String ftagr = "<\\s*" + tag + "[^>]*>(.*?)<\\s*/\\s*" + tag + ">";
             String exttagr = "<\\s*[a-z]+[^>]*>(.*?)<\\s*/\\s*[a-z]+>";
@@ -485,7 +554,7 @@ import net.webstructor.util.Str;
             String etagr = "<\\s*/\\s*" + tag + ">";
             Pattern ftagc = Pattern.compile(ftagr);
             Matcher ftagcm = ftagc.matcher(source);
-            while(ftagcm.find()) {
+            while((limit <= 0 || tagCont.size() < limit) && ftagcm.find()) {
 				String fin = ftagcm.group().replaceAll(btagr, "").replaceAll(etagr, "").replaceAll(exttagr, "");
 				tagCont.add(fin);
             }
@@ -493,12 +562,16 @@ import net.webstructor.util.Str;
         }
 
         static ArrayList<String> getMetaContByProp(String source, String property) {
+        	return getMetaContByProp(source, property, 0);
+        }
+        
+        static ArrayList<String> getMetaContByProp(String source, String property, int limit) {
             ArrayList<String> mCont = new ArrayList<String>();
             String ptoken = "property=\"";
             String ctoken = "content=\"";
             int mbpos = source.indexOf(LT+META);
             int mepos = source.indexOf(GT, mbpos);
-            while(mbpos != -1 && mepos != -1) {
+            while(mbpos != -1 && mepos != -1 && (limit <= 0 || mCont.size() < limit)) {
                 String fmc = source.substring(mbpos, mepos);
                 int mpbpos = fmc.indexOf(ptoken);
                 int mpepos = fmc.indexOf("\"", mpbpos+ptoken.length());
@@ -522,8 +595,8 @@ import net.webstructor.util.Str;
         */
         static String extractTitle(String source) {
             StringBuilder sb = new StringBuilder();
-            ArrayList<String> tTagC = getTagContent(source, "title");
-            ArrayList<String> mTitle = getMetaContByProp(source, "og:title");
+            ArrayList<String> tTagC = getTagContent(source, "title", 1);
+            ArrayList<String> mTitle = getMetaContByProp(source, "og:title", 1);
             String tit = "", mtit = "";
             if (mTitle.size() != 0)
                 mtit = mTitle.get(0);
@@ -585,6 +658,8 @@ import net.webstructor.util.Str;
         //TODO:unescape HTML code - make this more efficient, using code from addText above
         //http://stackoverflow.com/questions/994331/java-how-to-decode-html-character-entities-in-java-like-httputility-htmldecode
         public static String decodeHTML(String str) {
+        	if (str.indexOf('&') == -1 && Array.indexOf(str, equotes) == -1)//nothing to decode
+        		return str;
         	return Array.replace(str, etokens, echars);
         }
 
@@ -668,7 +743,38 @@ import net.webstructor.util.Str;
     		return sb != null ? sb.toString() : md;
     	}
 
-    	public static void main(String args[]) {
+    	//convert pages in the file or directory, concatenated up to given size, given number of times 
+    	static void benchmark(String path, int size, int times) throws IOException {
+    		File[] files = new File(path).isDirectory() ? new File(path).listFiles() : new File[]{new File(path)};
+    		StringBuilder sb = new StringBuilder();
+    		for (int i = 0; i < files.length; i++) {
+    			if (!files[i].isFile() || !files[i].getName().matches(".*\\.html?$"))
+    				continue;
+    			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(files[i]), "UTF-8"));
+    			for (String line; (line = br.readLine()) != null;)
+    				sb.append(line).append(' ');//the same way HttpFileReader does
+    			br.close();
+    		}
+    		String page = sb.toString();
+    		if (page.length() == 0)
+    			return;
+    		while (page.length() < size)
+    			page = page + page;
+    		for (int i = 0; i < times; i++) {
+    			ArrayList links = new ArrayList();
+    			long start = System.nanoTime();
+    			String text = convert(page,block_tags,block_breaker,links,new TreeMap(),new TreeMap(),new TreeMap(),"http://localhost/");
+    			long micros = (System.nanoTime() - start) / 1000;
+    			System.out.println("HtmlStripper benchmark chars "+page.length()+" text "+text.length()+" links "+links.size()
+    				+" took "+micros/1000+" ms, "+(micros == 0 ? 0 : page.length() / micros)+" Mchars/s");
+    		}
+    	}
+    	
+    	public static void main(String args[]) throws IOException {
+    		if (args != null && args.length > 0 && "benchmark".equalsIgnoreCase(args[0])) {
+    			benchmark(Str.arg(args, "path", "./html"), Integer.parseInt(Str.arg(args, "size", "4000000")), Integer.parseInt(Str.arg(args, "times", "10")));
+    			return;
+    		}
     		String md = "a[b](http://x)c![d](http://y)e[ f ](http://z)g";
     		ArrayList links = new ArrayList();
     		System.out.println(convertMD(md,links,null));
@@ -23,17 +23,24 @@
  */
 package net.webstructor.cat;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Map;
 
 //TODO: eliminate if not needed
-public class HttpFileContext {
+public class HttpFileContext implements Serializable {
+	private static final long serialVersionUID = 8121094583560262727L;
 	protected String content_type = null;
 	protected String content_encoding = null;
 	protected String charset = null;
+	//validators of the document version, as returned by the server
+	public String etag = null;
+	public String modified = null;
+	public String hash = null;//content hash of the data
+	public transient int code = 0;//HTTP response code
 	//TODO: nicer API?
-	public String data = null;
+	public transient String data = null;//not serialized, kept content-addressed by hash
 	public String text = null;
 	public Date time = null;
 	public ArrayList links = null;
@@ -45,6 +52,9 @@ public class HttpFileContext {
 		content_type = null;
 		content_encoding = null;
 		charset = null;
+		etag = null;
+		modified = null;
+		hash = null;
 		data = null;
 		text = null;
 		time = null;
@@ -23,7 +23,9 @@
  */
 package net.webstructor.cat;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -33,9 +35,11 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -61,6 +65,9 @@ public class HttpFileReader implements Reader
 		//protected String charset = null;
 		HttpFileContext defaultContext = new HttpFileContext();
 		private HashMap robotsMaps = new HashMap();//map of all sites being read into respective arrays of those robots.txt files
+		private HashMap robotsTimes = new HashMap();//map of all sites to times their robots.txt files were read
+		public long robots_ttl = 24 * 60 * 60 * 1000L;//time to keep robots.txt files
+		private long requests = 0, bytes = 0;//requests made and bytes received by readDoc
 		private HashMap crawlTimes = new HashMap();//map of all times visiting the particular site
 //TODO: debug hangup on unrecogized RSS content type
 		//https://stackoverflow.com/questions/595616/what-is-the-correct-mime-type-to-use-for-an-rss-feed
@@ -135,6 +142,8 @@ public class HttpFileReader implements Reader
                     	return false;
                     //https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Content-Encoding
                     context.content_encoding = conn.getContentEncoding();
+                    context.etag = conn.getHeaderField("ETag");
+                    context.modified = conn.getHeaderField("Last-Modified");
                    
                     String setcookies = getCookies(conn);
                     if (!AL.empty(setcookies))
@@ -177,13 +186,19 @@ public class HttpFileReader implements Reader
         private ArrayList robotsLines(URL url) {
         	URLConnection conn = null;
         	ArrayList lines = null;
+    	    String site = null;
     	    try {
     			//http://docs.oracle.com/javase/tutorial/networking/urls/urlInfo.html
-    			String site = new URL(url.getProtocol(), url.getHost(), url.getPort(), "/").toString();
-    			lines = (ArrayList) robotsMaps.get(site);
-    			if (lines != null)
-    				return lines;
-                robotsMaps.put(site,lines = new ArrayList());
+    			site = new URL(url.getProtocol(), url.getHost(), url.getPort(), "/").toString();
+    			synchronized (robotsMaps) {
+    				lines = (ArrayList) robotsMaps.get(site);
+    				Long time = (Long) robotsTimes.get(site);
+    				if (lines != null && time != null && time.longValue() + robots_ttl > System.currentTimeMillis())
+    					return lines;
+    				robotsMaps.put(site,new ArrayList());//allow everything while being read
+    				robotsTimes.put(site,new Long(System.currentTimeMillis()));
+    			}
+    			lines = new ArrayList();
     			url = new URL(url.getProtocol(), url.getHost(), url.getPort(), "/robots.txt");
     			//http://ru.wikipedia.org/wiki/%D0%A1%D1%82%D0%B0%D0%BD%D0%B4%D0%B0%D1%80%D1%82_%D0%B8%D1%81%D0%BA%D0%BB%D1%8E%D1%87%D0%B5%D0%BD%D0%B8%D0%B9_%D0%B4%D0%BB%D1%8F_%D1%80%D0%BE%D0%B1%D0%BE%D1%82%D0%BE%D0%B2
                 conn = url.openConnection();
@@ -196,9 +211,11 @@ public class HttpFileReader implements Reader
     				line = line.toLowerCase().trim();
     				lines.add(line);
     			}
-    			br.close();
+    			br.close();//keep connection alive to be reused for the site
+    			synchronized (robotsMaps) {
+    				robotsMaps.put(site,lines);
+    			}
     	    } catch (Exception e) { //no robots.txt? no problem then!  	    	
-    	    } finally {
     	    	//http://stackoverflow.com/questions/9150200/closing-urlconnection-and-inputstream-correctly
     			if (conn instanceof HttpURLConnection)
     				((HttpURLConnection)conn).disconnect();
@@ -303,6 +320,11 @@ public class HttpFileReader implements Reader
         }
         
         HttpURLConnection open(String docName) throws IOException{
+        	return open(docName,null);
+        }
+        
+        //if context is given, accept compressed data and make request conditional on validators of the version read earlier, if any
+        HttpURLConnection open(String docName, HttpFileContext context) throws IOException{
             URL url = new URL(encode(docName));
             HttpURLConnection conn = (HttpURLConnection)url.openConnection();
             conn.setConnectTimeout(TIMEOUT_MILLIS);
@@ -311,6 +333,13 @@ public class HttpFileReader implements Reader
             	conn.setRequestProperty("Cookie", cookies);
             if (userAgent != null)
             	conn.setRequestProperty("User-Agent", userAgent);
+            if (context != null) {
+            	conn.setRequestProperty("Accept-Encoding", "gzip");
+            	if (!AL.empty(context.etag))
+            		conn.setRequestProperty("If-None-Match", context.etag);
+            	if (!AL.empty(context.modified))
+            		conn.setRequestProperty("If-Modified-Since", context.modified);
+            }
             conn.setRequestMethod("GET");
             conn.connect();
         	return conn;
@@ -335,7 +364,11 @@ public class HttpFileReader implements Reader
         //301/302 redirect 
         //http://stackoverflow.com/questions/18701167/problems-handling-http-302-in-java-with-httpurlconnection
         HttpURLConnection openWithRedirect(String docName) throws IOException{
-			HttpURLConnection conn = open(docName);
+        	return openWithRedirect(docName,null);
+        }
+        
+        HttpURLConnection openWithRedirect(String docName, HttpFileContext context) throws IOException{
+			HttpURLConnection conn = open(docName,context);
             String setcookies = getCookies(conn);//get cookies for just opened connection
             if (!AL.empty(setcookies))
             	cookies = setcookies;
@@ -358,7 +391,7 @@ public class HttpFileReader implements Reader
 **/            	
                 if (debug && env != null)
                 	env.debug("Redirecting URL code "+code+" "+docName+" set cookies:\n"+(cookies != null ? cookies : ""));
-            	conn = open(docName);          	
+            	conn = open(docName,context);          	
                 setcookies = getCookies(conn);
                 if (!AL.empty(setcookies))
                 	cookies = setcookies;
@@ -369,38 +402,28 @@ public class HttpFileReader implements Reader
         	return conn;
         }
         
-        public String readDocData(String docName, String eol) throws IOException {
-        	return readDocData(docName, eol, defaultContext); 
-        }
-        
-        public String readDocData(String docName, String eol, HttpFileContext context) throws IOException {
-        	HttpURLConnection conn = null;
-            BufferedReader br = null;
-    		try {
-    			conn = openWithRedirect(docName);
-    			//try to read pdf
-    			if (!AL.empty(context.content_type) && context.content_type.endsWith("pdf")){
-    				boolean pdfable = false;
-    				InputStream is = null;
-    				String text = "";
-    				synchronized (pdfLoaded) {
-    					if (pdfLoaded == 1)
-    						pdfable = true;
-    					else if (pdfLoaded.equals(0)) try {
+        //read text of pdf document from the stream, opening it if not given
+        private String readPdf(String docName, HttpURLConnection conn, InputStream is) {
+    			boolean pdfable = false;
+    			String text = "";
+    			synchronized (pdfLoaded) {
+    				if (pdfLoaded == 1)
+    					pdfable = true;
+    				else if (pdfLoaded.equals(0)) try {
         					Class.forName("org.apache.pdfbox.pdmodel.PDDocument");
-    						pdfable = true;
+    					pdfable = true;
         					pdfLoaded = 1;
-    					} catch (ClassNotFoundException e) {
+    				} catch (ClassNotFoundException e) {
         					env.error("HttpFileReader PDF missed "+docName,e);
         					pdfLoaded = -1;
-    					}
-    				}
-    				if (pdfable) try { 
-    					is = conn.getInputStream();
-    				} catch (IOException e) {
-    					env.error("HttpFileReader PDF no input "+docName,e);
     				}
-    				if (is != null) try {
+    			}
+    			if (pdfable && is == null) try { 
+    				is = conn.getInputStream();
+    			} catch (IOException e) {
+    				env.error("HttpFileReader PDF no input "+docName,e);
+    			}
+    			if (pdfable && is != null) try {
         				PDDocument document = PDDocument.load(is);
         				if (!document.isEncrypted()) try {
         				    PDFTextStripper stripper = new PDFTextStripper();
@@ -414,11 +437,24 @@ public class HttpFileReader implements Reader
         					env.error("HttpFileReader PDF no read "+docName,e);
         				}
         				document.close();
-    				} catch( IOException e ) {
-    					env.error("HttpFileReader PDF no load "+docName,e);
+    			} catch( IOException e ) {
+    				env.error("HttpFileReader PDF no load "+docName,e);
      				}
-    				return text;
-    			}
+    			return text;
+        }
+        
+        public String readDocData(String docName, String eol) throws IOException {
+        	return readDocData(docName, eol, defaultContext); 
+        }
+        
+        public String readDocData(String docName, String eol, HttpFileContext context) throws IOException {
+        	HttpURLConnection conn = null;
+            BufferedReader br = null;
+    		try {
+    			conn = openWithRedirect(docName);
+    			//try to read pdf
+    			if (!AL.empty(context.content_type) && context.content_type.endsWith("pdf"))
+    				return readPdf(docName,conn,null);
     			//if not a pdf, try to read plain text or html
             	StringBuilder sb = new StringBuilder();
     			br = context.content_encoding == null ?
@@ -458,6 +494,137 @@ public class HttpFileReader implements Reader
     		return "";//TODO:null?
         }
 
+        /**
+         * Read document with single request, conditional on validators of the version read earlier, if present in the context,
+         * reusing keep-alive connection to the host and decompressing the data on the fly.
+         * @param docName - URL of the document
+         * @param eol - line separator to use
+         * @param context - validators of the earlier version if any, filled with properties of the document read
+         * @return document data or null if not read, having context.code == 304 if the document is not modified 
+         */
+        public String readDoc(String docName, String eol, HttpFileContext context) {
+        	HttpURLConnection conn = null;
+            BufferedReader br = null;
+    		try {
+    			conn = openWithRedirect(docName,context);
+    			context.code = conn.getResponseCode();
+    			synchronized (this) {
+    				requests++;
+    			}
+    			if (context.code != HttpURLConnection.HTTP_OK) {//including HTTP_NOT_MODIFIED
+    				release(conn);
+    				return null;
+    			}
+                String typeString = getContentType(docName,conn);
+                context.content_type = Array.prefix(contentTypes, typeString);
+                if (!AL.empty(typeString) && context.content_type == null) {//unsupported content type, don't download it
+                	conn.disconnect();
+                	return null;
+                }
+                context.content_encoding = conn.getContentEncoding();
+                context.etag = conn.getHeaderField("ETag");
+                context.modified = conn.getHeaderField("Last-Modified");
+                context.charset = null;
+                if (!AL.empty(context.content_type)) {
+                	int i = typeString.indexOf(charsetPrefix, context.content_type.length());
+                	if (i != -1)
+                		context.charset = typeString.substring(i+charsetPrefix.length());
+                }
+                InputStream is = new Counter(conn.getInputStream());
+                if ("gzip".equalsIgnoreCase(context.content_encoding))
+                	is = new GZIPInputStream(is);
+                else
+                if ("deflate".equalsIgnoreCase(context.content_encoding))
+                	is = new InflaterInputStream(is);
+    			if (!AL.empty(context.content_type) && context.content_type.endsWith("pdf")) {
+    				String text = readPdf(docName,conn,is);
+    				is.close();
+    				return text;
+    			}
+    			//look up charset in the head of the document, if not given in header 
+    			is = new BufferedInputStream(is, 8192);
+    			if (AL.empty(context.charset)) {
+    				is.mark(8192);
+    				byte[] head = new byte[8192];
+    				int length = 0;
+    				for (int n; length < head.length && (n = is.read(head, length, head.length - length)) > 0;)
+    					length += n;
+    				String str = new String(head, 0, length, "ISO-8859-1").toLowerCase();
+    				int i = str.indexOf(charsetMetaPrefix);
+    				if (i != -1) {
+    					i += charsetMetaPrefix.length();
+    					int j = str.indexOf('\"', i);
+    					if (j != -1)
+    						context.charset = str.substring(i, j);
+    				}
+    				is.reset();
+    			}
+    			String charset = context.charset == null ? null : context.charset.trim().replace("\"", "");
+    			br = new BufferedReader(!AL.empty(charset) && Charset.isSupported(charset) ?
+    				new InputStreamReader(is, charset) : new InputStreamReader(is));
+            	StringBuilder sb = new StringBuilder();
+        		String sCurrentLine;
+        		while ((sCurrentLine = br.readLine()) != null) {
+    				sb.append(sCurrentLine);
+    				if (eol != null)
+    					sb.append(eol);
+    			}
+    			br.close();//keep connection alive to be reused for the host
+    			br = null;
+        		return sb.toString();
+    		} catch (Throwable e) {
+    			if (env != null)
+    				env.error("HttpFileReader.readDoc reading path " + docName + ": "+e.toString(), null);
+    			if (br != null) try {
+    				br.close();
+    			} catch (IOException ex) {}
+    			if (conn != null)
+    				conn.disconnect();
+    		}
+    		return null;
+        }
+        
+        //read the rest of the response, so the connection can be reused
+        private static void release(HttpURLConnection conn) {
+        	try {
+        		InputStream is = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        		if (is != null) {
+        			byte[] buf = new byte[4096];
+        			while (is.read(buf) > 0);
+        			is.close();
+        		}
+        	} catch (IOException e) {
+        		conn.disconnect();
+        	}
+        }
+        
+        //count bytes received
+        private class Counter extends FilterInputStream {
+        	Counter(InputStream is) {
+        		super(is);
+        	}
+        	public int read() throws IOException {
+        		int b = super.read();
+        		if (b != -1)
+        			count(1);
+        		return b;
+        	}
+        	public int read(byte[] b, int off, int len) throws IOException {
+        		int n = super.read(b, off, len);
+        		if (n > 0)
+        			count(n);
+        		return n;
+        	}
+        }
+        
+        private synchronized void count(long n) {
+        	bytes += n;
+        }
+        
+        public synchronized String stats() {
+        	return "requests "+requests+" bytes "+bytes;
+        }
+        
         public static boolean isAbsoluteURL(String path) {
 			try {
 				URI uri = new URI(path);
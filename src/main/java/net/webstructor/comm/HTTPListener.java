@@ -46,7 +46,7 @@ public class HTTPListener extends TCPListener implements HTTPHandler {
 	protected String cookie_domain = "aigents.org";//http://en.wikipedia.org/wiki/HTTP_cookie
 	protected int http_timeout = 60000; //millis to wait for HTTP reply
 	protected String http_origin = "null";//needed for AJAX CORS, null for local, * for Safari, specific for Chrome/Firefox
-	protected int threads = 2;//2;//0 - synchronous single-threaded, > 0 - asynchronous multi-threaded;
+	protected int threads = 2;//2;//0 - synchronous single-threaded, > 0 - asynchronous multi-threaded, < 0 - non-blocking with -threads handling threads;
 	protected boolean http_secure = false;
 	
 	private HashMap cacheData = new HashMap();//store cached data
@@ -86,6 +86,18 @@ public class HTTPListener extends TCPListener implements HTTPHandler {
 	}
 	
 	public void run(  ) {
+		if (threads < 0 && http_secure) {
+			threads = -threads;
+			body.output("Non-blocking HTTPS is not supported, using "+threads+" threads.");
+		}
+		if (threads < 0) {
+			try {
+				new HTTPSelector(this, port, -threads, http_timeout).run();
+			} catch (IOException e) {
+				body.output("Could not start HTTP server (" + e.toString() + ").");
+			}
+			return;
+		}
 		try {
 			//create pool of threads
 			for (int i=0; i<threads; i++) {
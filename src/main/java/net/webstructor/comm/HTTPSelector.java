@@ -0,0 +1,389 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.comm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking front end of HTTPListener: single selector thread accepts connections, 
+ * reads requests and writes responses for all of them, keeping connections alive and 
+ * taking pipelined requests one at a time per connection, while each complete request 
+ * is handled by HTTPeer on a small pool of threads, with no thread held per socket 
+ * while the conversation reply is pending. 
+ * Chunked request content is decoded and passed to HTTPeer with Content-Length. 
+ * Connection is not read while its request is handled, so pipelined requests are buffered 
+ * no more than the socket does, and is closed once it buffers more than any request can take. 
+ */
+public class HTTPSelector {
+	protected static final int header_max = 65536;//max bytes of request header
+	protected static final int content_max = 1048576;//max bytes of request content
+	
+	protected HTTPListener listener;
+	protected int port;
+	protected int threads;
+	protected int http_timeout;
+	protected Selector selector;
+	protected ConcurrentLinkedQueue completed = new ConcurrentLinkedQueue();//connections with responses to write
+	
+	/**
+	 * Connection buffering bytes of pipelined requests and the response being written.
+	 */
+	public class Connection {
+		private SocketChannel channel;
+		private SelectionKey key;
+		private byte[] input = new byte[1024];
+		private int length = 0;
+		private LinkedList output = new LinkedList();//ByteBuffer
+		private boolean busy = false;//request is being handled
+		private boolean closing = false;//close when output is written
+		private long time = System.currentTimeMillis();//of last read or write
+		private byte[] response = null;//set by handling thread
+		private boolean keepalive = false;
+		
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+		
+		/**
+		 * Passes response to selector thread, to be called once per request from any thread.
+		 * @param response - bytes to write, null to close the connection
+		 * @param keepalive - keep the connection for next request 
+		 */
+		public void respond(byte[] response, boolean keepalive) {
+			synchronized (this) {
+				this.response = response;
+				this.keepalive = keepalive && response != null;
+			}
+			completed.add(this);
+			selector.wakeup();
+		}
+		
+		private void complete() throws IOException {
+			byte[] bytes;
+			synchronized (this) {
+				bytes = response;
+				response = null;
+				if (!keepalive)
+					closing = true;
+			}
+			busy = false;
+			if (bytes != null)
+				output.add(ByteBuffer.wrap(bytes));
+			write();
+		}
+		
+		private void read(ByteBuffer buffer) throws IOException {
+			for (;;) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				if (read == -1) {
+					closing = true;
+					if (!busy && output.isEmpty())
+						close();
+					return;
+				}
+				if (read == 0)
+					break;
+				if (length + read > header_max + content_max) {
+					close();//more than any request can take
+					return;
+				}
+				if (length + read > input.length) {
+					byte[] grown = new byte[Math.max(input.length * 2, length + read)];
+					System.arraycopy(input, 0, grown, 0, length);
+					input = grown;
+				}
+				buffer.flip();
+				buffer.get(input, length, read);
+				length += read;
+			}
+			time = System.currentTimeMillis();
+			next();
+		}
+		
+		private void write() throws IOException {
+			while (!output.isEmpty()) {
+				ByteBuffer buffer = (ByteBuffer)output.getFirst();
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				output.removeFirst();
+			}
+			time = System.currentTimeMillis();
+			if (closing && !busy)
+				close();
+			else {
+				key.interestOps(SelectionKey.OP_READ);
+				next();
+			}
+		}
+		
+		//start handling of the next complete request, if any, keeping order of pipelined requests
+		private void next() throws IOException {
+			if (busy || closing || !channel.isOpen())
+				return;
+			int end = end(input, length);
+			if (end == 0)
+				return;
+			if (end < 0) {
+				close();//malformed or oversized
+				return;
+			}
+			final byte[] request = dechunk(input, end);
+			System.arraycopy(input, end, input, 0, length - end);
+			length -= end;
+			busy = true;
+			time = System.currentTimeMillis();
+			key.interestOps(0);//stop reading pipelined requests till the response is written
+			executor.submit(new Runnable() {
+				public void run() {
+					new HTTPeer(listener,Connection.this,request).process();
+				}
+			});
+		}
+		
+		private void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {}
+		}
+	}
+	
+	protected ExecutorService executor;
+	
+	public HTTPSelector(HTTPListener listener, int port, int threads, int http_timeout) {
+		this.listener = listener;
+		this.port = port;
+		this.threads = threads;
+		this.http_timeout = http_timeout;
+	}
+	
+	//returns length of the first complete request, 0 if incomplete, -1 if malformed or too long  
+	static int end(byte[] input, int length) {
+		int header = header(input, length);
+		if (header == -1)
+			return length > header_max ? -1 : 0;
+		int content = 0;
+		String lines = new String(input, 0, header).toLowerCase();
+		if (chunked(lines))
+			return chunks(input, header, length, null);
+		int pos = lines.indexOf("\ncontent-length:");
+		if (pos != -1) {
+			int eol = lines.indexOf('\r', pos + 1);
+			try {
+				content = Integer.parseInt(lines.substring(pos + 16, eol).trim());
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			if (content < 0 || content > content_max)
+				return -1;
+		}
+		return header + content > length ? 0 : header + content;
+	}
+	
+	//returns length of request header with empty line ending it, -1 if incomplete
+	static int header(byte[] input, int length) {
+		for (int i = 3; i < length; i++)
+			if (input[i] == '\n' && input[i-1] == '\r' && input[i-2] == '\n' && input[i-3] == '\r')
+				return i + 1;
+		return -1;
+	}
+	
+	static boolean chunked(String lines) {
+		int pos = lines.indexOf("\ntransfer-encoding:");
+		if (pos == -1)
+			return false;
+		int eol = lines.indexOf('\r', pos + 1);
+		return eol != -1 && lines.substring(pos + 19, eol).indexOf("chunked") != -1;
+	}
+	
+	//returns length of chunked request ending after the header, 0 if incomplete, -1 if malformed or too long, 
+	//appending the content of chunks to the given stream, if any
+	static int chunks(byte[] input, int pos, int length, ByteArrayOutputStream content) {
+		int total = 0;
+		for (;;) {
+			int eol = eol(input, pos, length);
+			if (eol == -1)
+				return length - pos > header_max ? -1 : 0;
+			String line = new String(input, pos, eol - pos);
+			int ext = line.indexOf(';');
+			int size;
+			try {
+				size = Integer.parseInt((ext == -1 ? line : line.substring(0, ext)).trim(), 16);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			if (size < 0 || (total += size) > content_max)
+				return -1;
+			pos = eol + 2;
+			if (size == 0) {
+				//skip trailer lines till the empty one
+				for (;;) {
+					eol = eol(input, pos, length);
+					if (eol == -1)
+						return length - pos > header_max ? -1 : 0;
+					if (eol == pos)
+						return eol + 2;
+					pos = eol + 2;
+				}
+			}
+			if (pos + size + 2 > length)
+				return 0;
+			if (input[pos + size] != '\r' || input[pos + size + 1] != '\n')
+				return -1;
+			if (content != null)
+				content.write(input, pos, size);
+			pos += size + 2;
+		}
+	}
+	
+	//returns position of the next \r\n from given position or -1 if none
+	private static int eol(byte[] input, int from, int length) {
+		for (int i = from; i + 1 < length; i++)
+			if (input[i] == '\r' && input[i+1] == '\n')
+				return i;
+		return -1;
+	}
+	
+	//returns copy of complete request of given length, with chunked content decoded and its header 
+	//replaced with Content-Length one  
+	static byte[] dechunk(byte[] input, int end) {
+		int header = header(input, end);
+		String lines = new String(input, 0, header);
+		if (!chunked(lines.toLowerCase())) {
+			byte[] request = new byte[end];
+			System.arraycopy(input, 0, request, 0, end);
+			return request;
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		chunks(input, header, end, content);
+		StringBuilder b = new StringBuilder();
+		String[] split = lines.split("\r\n");
+		for (int i = 0; i < split.length; i++) {
+			String lower = split[i].toLowerCase();
+			if (split[i].length() > 0 && !lower.startsWith("transfer-encoding:") && !lower.startsWith("content-length:"))
+				b.append(split[i]).append("\r\n");
+		}
+		b.append("Content-Length: ").append(content.size()).append("\r\n\r\n");
+		ByteArrayOutputStream request = new ByteArrayOutputStream(b.length() + content.size());
+		byte[] bytes = b.toString().getBytes();
+		request.write(bytes, 0, bytes.length);
+		byte[] data = content.toByteArray();
+		request.write(data, 0, data.length);
+		return request.toByteArray();
+	}
+	
+	//HTTP/1.1 keeps connection unless asked to close, HTTP/1.0 closes it unless asked to keep
+	static boolean keepalive(String header) {
+		if (header == null)
+			return false;
+		int eol = header.indexOf('\r');
+		String first = eol == -1 ? header : header.substring(0, eol);
+		String lines = header.toLowerCase();
+		if (first.endsWith("HTTP/1.1"))
+			return lines.indexOf("\nconnection: close") == -1;
+		return lines.indexOf("\nconnection: keep-alive") != -1;
+	}
+	
+	public void run() throws IOException {
+		selector = Selector.open();
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().bind(new InetSocketAddress(port), 1024);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		executor = Executors.newFixedThreadPool(threads);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16384);
+		listener.body.reply("Started HTTP at " + server.socket().getLocalPort() + " with " + threads + " threads.");
+		long sweep_time = System.currentTimeMillis();
+		try {
+			while (listener.alive()) {
+				selector.select(1000);
+				Connection completing;
+				while ((completing = (Connection)completed.poll()) != null)
+					if (completing.channel.isOpen())
+						try {
+							completing.complete();
+						} catch (IOException e) {
+							completing.close();
+						}
+				for (Iterator it = selector.selectedKeys().iterator(); it.hasNext();) {
+					SelectionKey key = (SelectionKey)it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						SocketChannel channel = server.accept();
+						if (channel != null) {
+							channel.configureBlocking(false);
+							Connection connection = new Connection(channel);
+							connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+						}
+						continue;
+					}
+					Connection connection = (Connection)key.attachment();
+					try {
+						if (key.isReadable())
+							connection.read(buffer);
+						else
+						if (key.isWritable())
+							connection.write();
+					} catch (IOException e) {
+						connection.close();
+					}
+				}
+				//drop connections idle or waiting for response for too long
+				long now = System.currentTimeMillis();
+				if (now - sweep_time > 1000) {
+					sweep_time = now;
+					for (Iterator it = selector.keys().iterator(); it.hasNext();) {
+						SelectionKey key = (SelectionKey)it.next();
+						Connection connection = (Connection)key.attachment();
+						if (connection != null && now - connection.time > http_timeout)
+							connection.close();
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			server.close();
+			selector.close();
+			listener.body.output("Releasing port "+ port +".");
+		}
+	}
+}
@@ -25,6 +25,8 @@ package net.webstructor.comm;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -55,19 +57,33 @@ public class HTTPeer extends Communicator
 	BufferedInputStream in;
 	int contentLength = 0;//for POST requests
 	
+	private boolean selected = false;//if served by selector instead of socket
+	private HTTPSelector.Connection connection = null;//until the response is passed to it
+	private ByteArrayOutputStream response = null;//buffered for the connection 
+	private boolean keepalive = false;
+	
 	public HTTPeer(HTTPListener parent,Socket socket) {
 		super(parent.body);
 		this.socket = socket;
 		this.parent = parent; 
 	}
 	
+	HTTPeer(HTTPListener parent,HTTPSelector.Connection connection,byte[] request) {
+		super(parent.body);
+		this.parent = parent;
+		this.connection = connection;
+		selected = true;
+		in = new BufferedInputStream(new ByteArrayInputStream(request));
+		out = new BufferedOutputStream(response = new ByteArrayOutputStream());
+	}
+	
 	public HTTPListener parent(){
 		return parent;
 	}
 	
 	byte[] buildHeader(int contentLength,String content_type) throws IOException {
 		StringBuilder header = new StringBuilder(256);
-		header.append("HTTP/1.0 200 OK\r\n")
+		header.append(version()).append("200 OK\r\n")
 			.append("Server: Aigents "+Body.VERSION+"\r\n")
 			.append("Content-length: ").append(contentLength).append("\r\n")
 			.append("Content-type: ").append(content_type).append("; charset=utf-8\r\n")
@@ -79,16 +95,49 @@ public class HTTPeer extends Communicator
 			.append("Set-Cookie: ").append(parent.cookie_name).append('=').append(cookieString)
 				.append("; Domain=").append(parent.cookie_domain)
 				.append("\r\n")
+			.append(connectionHeader("\r\n"))
 			.append("\r\n");
 		return header.toString().getBytes("ASCII");
 	}
 
 	byte[] buildError() throws IOException {
 		StringBuilder header = new StringBuilder(256);
-		header.append("HTTP/1.0 404 Not Found\r\n\r\n");
+		header.append(version()).append("404 Not Found\r\n");
+		if (selected)
+			header.append("Content-length: 0\r\n").append(connectionHeader("\r\n"));
+		header.append("\r\n");
 		return header.toString().getBytes("ASCII");
 	}
 	
+	//connection is kept by selector for HTTP/1.1 clients or HTTP/1.0 ones asking for it, so it is kept with HTTP/1.1 response
+	private String version() {
+		return selected && keepalive ? "HTTP/1.1 " : "HTTP/1.0 ";
+	}
+	
+	//tell client if the connection is kept for next request, when served by selector
+	private String connectionHeader(String eol) {
+		return !selected ? "" : (keepalive ? "Connection: keep-alive" : "Connection: close") + eol;
+	}
+	
+	private synchronized HTTPSelector.Connection release() {
+		HTTPSelector.Connection connection = this.connection;
+		this.connection = null;
+		return connection;
+	}
+	
+	//complete the response closing the socket or passing the response to the selector, only once
+	private void close() throws IOException {
+		if (!selected) {
+			socket.close();
+			return;
+		}
+		HTTPSelector.Connection connection = release();
+		if (connection != null) {
+			out.flush();
+			connection.respond(response.toByteArray(), keepalive);
+		}
+	}
+	
 	//http://stackoverflow.com/questions/10687358/java-socket-inputstream-read-returns-1-always-just-before-end
 	private String inputHeader(StringBuilder request) throws Exception {
 	      boolean end = false;
@@ -239,8 +288,7 @@ public class HTTPeer extends Communicator
 	    }
 
 	    out.flush();
-	    //TODO:keep-alive
-	    socket.close();
+	    close();
 	    
 	    synchronized (this) {
 	    	waiting = false;
@@ -258,24 +306,30 @@ public class HTTPeer extends Communicator
 		respond(response,"200 Ok","text/plain");
 	}
 	
+	//writes complete response, passing it to the selector at once, so the client gets it before the request is handled further
 	public void respond(String response, String code, String type) throws IOException {
-    	OutputStream os = socket.getOutputStream();
+    	OutputStream os = !selected ? socket.getOutputStream() : out;
     	BufferedOutputStream bos = new BufferedOutputStream(os);
     	byte[] bytes = response.getBytes("UTF-8");
-    	String hdrStr = "HTTP/1.0 "+code+"\nContent-Type: "+type+"\nContent-Length: "+bytes.length+"\n\n";
+    	String hdrStr = version()+code+"\nContent-Type: "+type+"\nContent-Length: "+bytes.length+"\n"+connectionHeader("\n")+"\n";
     	bos.write(hdrStr.getBytes("UTF-8"));
     	bos.write(bytes);
 	    bos.flush();
 	    os.flush();
+	    if (selected)
+	    	close();
 	}
 	
-	private void process() {
+	void process() {
 		String request = null;
 		String url_header_request[] = {null,null,null,null};
 		try {
-			in = new BufferedInputStream(socket.getInputStream());
-			out = new BufferedOutputStream(socket.getOutputStream());
+			if (!selected) {
+				in = new BufferedInputStream(socket.getInputStream());
+				out = new BufferedOutputStream(socket.getOutputStream());
+			}
 			input(url_header_request); // read HTTP request
+			keepalive = selected && HTTPSelector.keepalive(url_header_request[1]);
 			
 			request = url_header_request[2];
 			//body.reply("H1:"+url_header_request[0]+":"+url_header_request[1]+":"+request);
@@ -285,8 +339,11 @@ public class HTTPeer extends Communicator
 			}
 					
 		    //TODO: if found filter/handler for url_header_request, pass that to the one
-		    if (parent.handleHTTP(this,url_header_request[0],url_header_request[1],url_header_request[2],cookieString))
+		    if (parent.handleHTTP(this,url_header_request[0],url_header_request[1],url_header_request[2],cookieString)) {
+		    	if (selected)
+		    		close();
 		    	return;
+		    }
 
 			if (request == null) {//if no data for Aigents core handling
 				output(null,null);//return 404,TODO:better idea?
@@ -301,19 +358,21 @@ public class HTTPeer extends Communicator
 		    	if (r != -1)//get rid of POST tail //TODO: peoperly
 		    		request = request.substring(0,r);
 		    	//request = request.trim().replaceAll(" ","%20");//TODO: properly
-		    	OutputStream os = socket.getOutputStream();
+		    	OutputStream os = !selected ? socket.getOutputStream() : out;
 		    	BufferedOutputStream bos = new BufferedOutputStream(os);
+		    	keepalive = false;//length of proxied content is not known
 				HTTP.simpleGetBin(request, bos, true);
 			    bos.flush();
 			    os.flush();
-			    //TODO:keep-alive???
-			    socket.close();
+			    close();
 		    	return;
 		    }
 		    
 		    waiting = true;
 		    Session session = body.sessioner.getSession(this,cookieString);
 		    body.conversationer.handle(this, session, request);
+		    if (selected)
+		    	return;//output completes the response without holding the thread
 
 		    synchronized (this) {
 		    	while (waiting)
@@ -322,6 +381,9 @@ public class HTTPeer extends Communicator
 
 		} catch (Exception e) {		
 			body.error("HTTP error (" + (AL.empty(request)? e.toString() : request) + ").",e);
+			HTTPSelector.Connection connection = release();
+			if (connection != null)
+				connection.respond(null, false);
 		}
 	}
 	
@@ -162,7 +162,7 @@ body.debug(Writer.capitalize(name)+" channel name_id "+name_id+" group_name "+gr
 				MapMap thingPaths = new MapMap();//collector
 				Date today = Time.today(0);
 				Iter parse = new Iter(Parser.parse(text));
-				if (!AL.empty(t)) for (Iterator tit = t.iterator(); tit.hasNext();)
+				if (!AL.empty(t)) for (Iterator tit = matcher.candidates(t,parse).iterator(); tit.hasNext();)
 					matcher.match(parse, null, (Thing)tit.next(), today, full_group_name, null, thingPaths, null, null, null);
 				//8) send update if topic is matched
 //TODO: exclude sender in the news update
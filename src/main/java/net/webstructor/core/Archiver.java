@@ -34,11 +34,15 @@ import net.webstructor.util.Array;
 public class Archiver {
 	Environment env;
 	Filer filer;
+	Segmenter texts;//texts of sources in daily segments, in place of "is-text" files per source kept for the earlier texts
 	public Archiver(Environment env){
+		this.env = env;
 		filer = new Filer(env);
+		texts = new Segmenter(env,"is-texts");
 	}
 	//TODO: given configured long-term retention period
 	public void clear(Date till){
+		texts.clear(till);
 		filer.del("is-text",till);
 		filer.del("is-instances",till);
 	}
@@ -46,13 +50,12 @@ public class Archiver {
 		clear(null);
 	}
 	public void put(String source, String text){
-		try {
-			filer.put(new String[]{"is-text",URLEncoder.encode(source,"UTF8")},text,null);
-		} catch (UnsupportedEncodingException e) {
-			env.error("Archiver encoding "+source, e);
-		}
+		texts.put(source,text);
 	}
 	public String get(String source){
+		String text = texts.get(source);
+		if (text != null)
+			return text;
 		try {
 			return filer.get(new String[]{"is-text",URLEncoder.encode(source,"UTF8")},true);
 		} catch (UnsupportedEncodingException e) {
@@ -27,8 +27,8 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Currency;
-import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -78,6 +78,19 @@ public class Property extends Anything {
 		compile();//needs storager and owner to be present
 	}
 	
+	/**
+	 * Creates the same property for another owner, without compiling it again.
+	 * @param owner - owner of the new property
+	 * @return new property
+	 */
+	public Property bind(Anything owner) {
+		Property p = new Property(owner,name);
+		p.storager = storager;
+		p.hasPatterns = hasPatterns;
+		p.limit = limit;
+		return p;
+	}
+	
 	public String getString() {
 		return owner == null ? null : owner.getString(this.name);//TODO:make it impossible to have no owner?
 	}
@@ -259,20 +272,20 @@ System.out.println(name+" "+value+" "+ps+" FAILED");
 	//	int len = reg.length();
 	//	return len > 3 && reg.charAt(0) == '/' && reg.charAt(len-1) == '/';
 	//}
-	private static HashMap<String,Pattern> compiledPatterns = new HashMap<String,Pattern>();
+	private static final int MAX_COMPILED_PATTERNS = 10000;
+	private static final ConcurrentHashMap<String,Pattern> compiledPatterns = new ConcurrentHashMap<String,Pattern>();
 	public static Pattern regexpPattern(String reg) {
 		int len = reg.length();
 		if (!(len > 3 && reg.charAt(0) == '/' && reg.charAt(len-1) == '/'))
 			return null;
-		synchronized (compiledPatterns) {
-			if (compiledPatterns.containsKey(reg))
-				return compiledPatterns.get(reg);
-		}
-		Pattern p = Pattern.compile(reg.substring(1,reg.length()-1));
-		synchronized (compiledPatterns) {
-			compiledPatterns.put(reg,p);
-		}
-		return p;
+		Pattern p = compiledPatterns.get(reg);
+		if (p != null)
+			return p;
+		p = Pattern.compile(reg.substring(1,reg.length()-1));
+		if (compiledPatterns.size() >= MAX_COMPILED_PATTERNS)
+			compiledPatterns.clear();//keep the cache bounded, hot patterns get compiled back
+		Pattern present = compiledPatterns.putIfAbsent(reg,p);
+		return present != null ? present : p;
 	}
 	
 	//TODO: pre-compile regexp expressions in the map
@@ -0,0 +1,384 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.webstructor.al.AL;
+import net.webstructor.al.Time;
+import net.webstructor.main.Mainer;
+import net.webstructor.util.Str;
+
+/**
+ * Log-structured store of texts by their sources in daily segments, used by Archiver in place of file per source.
+ * Every segment is a file of compressed records appended on the day of the segment, 
+ * so the texts put again go to the latest segment and retention drops segments of the earlier days as a whole.
+ * Index from the sources to segments and offsets of their latest records is kept in memory, 
+ * built from the headers of the records on first use.
+ * Segment layout (big-endian): signature, version, then records of length of UTF-8 source, the source, 
+ * length of deflated UTF-8 text and the deflated text.
+ */
+class Segmenter {
+	public static final String EXT = "txz";
+	
+	static final int SIGNATURE = 0x41545831;//"ATX1"
+	static final int VERSION = 1;
+	
+	private static final int HEADER = 8;
+	private static final int CHUNK = 1 << 16;
+	private static final int OFFSET_BITS = 40;//up to 1T per segment
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+	
+	private Environment env;
+	private String pathDir;
+	private ArrayList days = new ArrayList();//segment -> day or null if dropped
+	private ArrayList files = new ArrayList();//segment -> RandomAccessFile if open
+	private HashMap index = null;//source -> Long of segment and offset of its latest record, loaded lazily
+	private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private Inflater inflater = new Inflater();
+	
+	Segmenter(Environment env, String pathDir){
+		this.env = env;
+		this.pathDir = pathDir;
+	}
+	
+	/**
+	 * Appends the text of the source to the segment of the day, so it replaces the text put earlier.
+	 * @param source source of the text
+	 * @param text the text
+	 */
+	synchronized void put(String source, String text){
+		if (index == null)
+			load();
+		try {
+			byte[] key = source.getBytes("UTF-8");
+			if (key.length > 0xFFFF)
+				throw new IOException("source too long");
+			byte[] data = deflate(AL.empty(text) ? new byte[0] : text.getBytes("UTF-8"));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 + key.length + 4 + data.length);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeShort(key.length);
+			out.write(key);
+			out.writeInt(data.length);
+			out.write(data);
+			int segment = today();
+			RandomAccessFile file = open(segment);
+			long offset = file.length();
+			file.seek(offset);
+			file.write(bytes.toByteArray());
+			index.put(source, new Long(((long)segment << OFFSET_BITS) | offset));
+		} catch (IOException e) {
+			env.error("Segmenter can not put "+source, e);
+		}
+	}
+	
+	/**
+	 * Gets the latest text of the source.
+	 * @param source source of the text
+	 * @return the text or null if not present
+	 */
+	synchronized String get(String source){
+		if (index == null)
+			load();
+		Long at = (Long)index.get(source);
+		if (at == null)
+			return null;
+		int segment = (int)(at.longValue() >>> OFFSET_BITS);
+		try {
+			RandomAccessFile file = open(segment);
+			file.seek((at.longValue() & OFFSET_MASK) + 2 + source.getBytes("UTF-8").length);
+			byte[] data = new byte[file.readInt()];
+			file.readFully(data);
+			return new String(inflate(data),"UTF-8");
+		} catch (Exception e) {
+			env.error("Segmenter can not get "+source+" from "+path(segment), e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Drops segments of the days before the given one.
+	 * @param till first day to keep, null to drop all
+	 */
+	synchronized void clear(Date till){
+		if (index == null)
+			load();
+		String still = till == null ? null : Time.day(till,false);
+		boolean dropped = false;
+		for (int segment = 0; segment < days.size(); segment++){
+			String day = (String)days.get(segment);
+			if (day != null && (still == null || day.compareTo(still) < 0)){
+				close(segment);
+				env.getFile(path(segment)).delete();
+				days.set(segment, null);
+				dropped = true;
+			}
+		}
+		if (dropped)
+			for (Iterator it = index.values().iterator(); it.hasNext();)
+				if (days.get((int)(((Long)it.next()).longValue() >>> OFFSET_BITS)) == null)
+					it.remove();
+	}
+	
+	/**
+	 * Closes the files of the segments.
+	 */
+	synchronized void close(){
+		for (int segment = 0; segment < files.size(); segment++)
+			close(segment);
+	}
+	
+	private String path(int segment){
+		return pathDir+"/"+days.get(segment)+"."+EXT;
+	}
+	
+	//segment of the day, created if needed
+	private int today() throws IOException {
+		String day = Time.day(new Date(),false);
+		int last = days.size() - 1;
+		if (last >= 0 && day.equals(days.get(last)))
+			return last;
+		days.add(day);
+		files.add(null);
+		last = days.size() - 1;
+		File file = env.getFile(path(last));
+		file.getParentFile().mkdirs();
+		RandomAccessFile raf = new RandomAccessFile(file,"rw");
+		files.set(last, raf);
+		if (raf.length() < HEADER){
+			raf.setLength(0);
+			raf.writeInt(SIGNATURE);
+			raf.writeInt(VERSION);
+		}
+		return last;
+	}
+	
+	private RandomAccessFile open(int segment) throws IOException {
+		RandomAccessFile file = (RandomAccessFile)files.get(segment);
+		if (file == null)
+			files.set(segment, file = new RandomAccessFile(env.getFile(path(segment)),"rw"));
+		return file;
+	}
+	
+	private void close(int segment){
+		RandomAccessFile file = (RandomAccessFile)files.get(segment);
+		if (file != null){
+			try {
+				file.close();
+			} catch (IOException e) {}//ignore
+			files.set(segment, null);
+		}
+	}
+	
+	//build the index from headers of the records of the segments in the order of days, so the latest records win 
+	private void load(){
+		index = new HashMap();
+		File dir = env.getFile(pathDir);
+		String[] names = dir.isDirectory() ? dir.list() : null;
+		if (names == null)
+			return;
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++)
+			if (names[i].endsWith("."+EXT)){
+				days.add(names[i].substring(0, names[i].length() - EXT.length() - 1));
+				files.add(null);
+				scan(days.size() - 1);
+			}
+	}
+	
+	private void scan(int segment){
+		String path = path(segment);
+		File file = env.getFile(path);
+		long offset = HEADER;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),CHUNK));
+			if (in.readInt() != SIGNATURE || in.readInt() != VERSION)
+				throw new IOException("unsupported format");
+			for (;;){
+				int n;
+				try {
+					n = in.readUnsignedShort();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] key = new byte[n];
+				in.readFully(key);
+				int length = in.readInt();
+				if (in.skipBytes(length) < length)
+					throw new EOFException();
+				index.put(new String(key,"UTF-8"), new Long(((long)segment << OFFSET_BITS) | offset));
+				offset += 2 + n + 4 + length;
+			}
+		} catch (EOFException e) {//the last record is not complete, so it is dropped
+			env.error("Segmenter truncates "+path+" at "+offset, null);
+			try {
+				in.close();
+				in = null;
+				open(segment).setLength(offset);
+			} catch (IOException e1) {
+				env.error("Segmenter can not truncate "+path, e1);
+			}
+		} catch (IOException e) {
+			env.error("Segmenter can not read "+path, e);
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {}//ignore
+		}
+	}
+	
+	private byte[] deflate(byte[] data){
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+		byte[] buf = new byte[8192];
+		while (!deflater.finished())
+			out.write(buf, 0, deflater.deflate(buf));
+		return out.toByteArray();
+	}
+	
+	private byte[] inflate(byte[] data) throws DataFormatException {
+		inflater.reset();
+		inflater.setInput(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4 + 64);
+		byte[] buf = new byte[8192];
+		while (!inflater.finished()){
+			int n = inflater.inflate(buf);
+			if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				throw new DataFormatException("incomplete data");
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Puts and gets random texts both with file per source in Filer and with Segmenter, 
+	 * comparing timings, sizes and results.
+	 */
+	static void benchmark(Environment env, int count, int length, String dir){
+		Random random = new Random(1);
+		String[] vocabulary = new String[20000];
+		for (int i = 0; i < vocabulary.length; i++)
+			vocabulary[i] = Integer.toString(i * 7919, 36);
+		String[] sources = new String[count];
+		String[] texts = new String[count];
+		for (int i = 0; i < count; i++){
+			sources[i] = "https://site"+(i % 500)+".com/news/"+i+"/article.html";
+			StringBuilder sb = new StringBuilder();
+			for (int w = 0, l = length / 2 + random.nextInt(length); w < l; w++)
+				sb.append(vocabulary[(int)Math.min(vocabulary.length - 1, Math.floor(Math.pow(vocabulary.length + 1, random.nextDouble())) - 1)]).append(w % 12 == 11 ? ". " : " ");
+			texts[i] = sb.toString();
+		}
+		String filesDir = dir+"/benchmark-is-text", segmentsDir = dir+"/benchmark-is-texts";
+		Filer filer = new Filer(env);
+		filer.del(filesDir);
+		Segmenter segmenter = new Segmenter(env, segmentsDir);
+		segmenter.clear(null);
+		
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < count; i++)
+				filer.put(new String[]{filesDir,java.net.URLEncoder.encode(sources[i],"UTF8")},texts[i],null);
+		} catch (java.io.UnsupportedEncodingException e) {}
+		long filesPut = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			segmenter.put(sources[i], texts[i]);
+		long segmentsPut = System.nanoTime() - start;
+		segmenter.close();
+		
+		long filesBytes = 0, segmentsBytes = 0;
+		File[] files = env.getFile(filesDir).listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			filesBytes += files[i].length();
+		files = env.getFile(segmentsDir).listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			segmentsBytes += files[i].length();
+		
+		start = System.nanoTime();
+		segmenter = new Segmenter(env, segmentsDir);
+		segmenter.get("");//loads the index
+		long segmentsLoad = System.nanoTime() - start;
+		
+		int gets = Math.min(count, 10000), mismatches = 0;
+		int[] order = new int[gets];
+		for (int i = 0; i < gets; i++)
+			order[i] = random.nextInt(count);
+		start = System.nanoTime();
+		try {
+			for (int i = 0; i < gets; i++)
+				if (!(texts[order[i]]+"\n").equals(filer.get(new String[]{filesDir,java.net.URLEncoder.encode(sources[order[i]],"UTF8")},true)))//read by lines
+					mismatches++;
+		} catch (java.io.UnsupportedEncodingException e) {}
+		long filesGet = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < gets; i++)
+			if (!texts[order[i]].equals(segmenter.get(sources[order[i]])))
+				mismatches++;
+		long segmentsGet = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		filer.del(filesDir);
+		long filesDel = System.nanoTime() - start;
+		start = System.nanoTime();
+		segmenter.clear(null);
+		long segmentsDel = System.nanoTime() - start;
+		env.debug("Segmenter benchmark texts "+count+" words "+length+" files: put "+filesPut/1000000+" ms, "+filesBytes+" bytes, "
+			+gets+" gets "+filesGet/1000000+" ms, delete "+filesDel/1000000+" ms; segments: put "+segmentsPut/1000000+" ms, "+segmentsBytes+" bytes, "
+			+"index "+segmentsLoad/1000000+" ms, "+gets+" gets "+segmentsGet/1000000+" ms, delete "+segmentsDel/1000000+" ms; mismatches "+mismatches);
+		segmenter.close();
+		env.getFile(filesDir).delete();
+		env.getFile(segmentsDir).delete();
+	}
+	
+	public static void main(String[] args) {
+		Mainer env = new Mainer();
+		if (args == null || args.length < 1){
+			env.debug("Options: benchmark [texts <count>] [words <count>] [path <dir>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0]))
+			benchmark(env, Integer.parseInt(Str.arg(args, "texts", "20000")), Integer.parseInt(Str.arg(args, "words", "500")), Str.arg(args, "path", "."));
+	}
+}
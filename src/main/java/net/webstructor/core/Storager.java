@@ -24,11 +24,20 @@
 package net.webstructor.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import net.webstructor.agent.Schema;
 import net.webstructor.al.AL;
@@ -38,9 +47,11 @@ import net.webstructor.al.Seq;
 import net.webstructor.al.Set;
 import net.webstructor.al.Time;
 import net.webstructor.al.Writer;
+import net.webstructor.main.Mainer;
 import net.webstructor.peer.Peer;
 import net.webstructor.util.Array;
 import net.webstructor.util.MapMap;
+import net.webstructor.util.Str;
 
 public class Storager {
 
@@ -48,12 +59,19 @@ public class Storager {
 	
 	private Environment env;
 	private MapMap mapmap = new MapMap();
+	private ConcurrentHashMap cardinalities = new ConcurrentHashMap();//property name -> [count of postings, count of values]
+	private ConcurrentHashMap timelines = new ConcurrentHashMap();//time property name -> sorted map of Date -> set of things
+	private ConcurrentHashMap untimed = new ConcurrentHashMap();//time property name -> map of values other than Date -> set of things
+	private final Object[] stripes = new Object[64];//locks for updates of property values, striped by name and value 
+	private volatile Queue journal = null;//if set, changes of property values are appended as {Boolean added, name, value, thing}
 
 	public Storager(Environment env){
 		this.env = env;
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Object();
 	}
 	
-	private long update_time = 0;
+	private volatile long update_time = 0;
 	public long getUpdate() {
 		return update_time;
 	}
@@ -61,6 +79,16 @@ public class Storager {
 		update_time = System.currentTimeMillis();
 	}
 
+	//changed when names, patterns or named classes of things change, so patterns compiled with properties are recompiled 
+	private final AtomicLong schema_version = new AtomicLong();
+	public long getSchema() {
+		return schema_version.get();
+	}
+	private void schema(String name,Thing thing) {
+		if (name.equals(AL.patterns) || name.equals(AL.name) || (name.equals(AL.is) && thing.getName() != null))
+			schema_version.incrementAndGet();
+	}
+
     //TODO: make Storager implementor of Anything?
 	public Object get(String name) {
 		if (name.equals(things_count))
@@ -71,16 +99,47 @@ public class Storager {
 		return null;
 	} 
 	
+	/**
+	 * Starts or stops capturing changes of property values made by put and del.
+	 * Deleted thing is captured with null name and value after the changes of its properties.
+	 * @param journal - queue getting Object[]{Boolean added, String name, Object value, Thing thing} per change, null to stop
+	 */
+	public void setJournal(Queue journal) {
+		this.journal = journal;
+	}
+	
+	//changes of the same value are captured under the same stripe so their order is kept in the journal
+	private void journal(boolean added, String name, Object value, Thing thing) {
+		Queue journal = this.journal;
+		if (journal != null)
+			journal.add(new Object[]{Boolean.valueOf(added),name,value,thing});
+	}
+	
+	//posting sets are updated under lock of the stripe but read and iterated without locking 
+	private Object stripe(String name,Object value) {
+		int h = name.hashCode() * 31 + value.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+	}
+	
 	protected Thing put(String name,Object value,Thing thing) {
 		setUpdate();
 		if (isTime(name) && value instanceof String)
 			value = Time.day((String)value);
-		HashSet set = (HashSet)mapmap.getObject(name, value, true);
-		if (set == null) {
-			set = new HashSet();
-			mapmap.putObject(name, value, set);
+		synchronized (stripe(name, value)) {
+			java.util.Set set = (java.util.Set)mapmap.getObject(name, value, true);
+			boolean added = set == null;
+			if (added) {
+				set = Collections.newSetFromMap(new ConcurrentHashMap());
+				mapmap.putObject(name, value, set);
+				if (isTime(name))
+					timeline(name, value, true).put(value, set);
+			}
+			if (set.add(thing)) {
+				count(name, 1, added ? 1 : 0);
+				journal(true, name, value, thing);
+			}
 		}
-		set.add(thing);
+		schema(name,thing);
 		return thing;
 	}
 	
@@ -88,19 +147,82 @@ public class Storager {
 		setUpdate();
 		if (isTime(name) && value instanceof String)
 			value = Time.day((String)value);
-		HashSet set = (HashSet)mapmap.getObject(name, value, false);
-		if (set != null) {
+		synchronized (stripe(name, value)) {
+			java.util.Set set = (java.util.Set)mapmap.getObject(name, value, false);
+			if (set != null) {
 //TODO: remove hanging links pointing to this thing from index
-			set.remove(thing);
-			if (set.size() == 0)
-				mapmap.delKey(name, value);
+				boolean removed = set.remove(thing);
+				boolean emptied = set.size() == 0;
+				if (emptied) {
+					mapmap.delKey(name, value);
+					Map timeline = timeline(name, value, false);
+					if (timeline != null)
+						timeline.remove(value);
+				}
+				if (removed) {
+					count(name, -1, emptied ? -1 : 0);
+					journal(false, name, value, thing);
+				}
+			}
 		}
+		schema(name,thing);
+	}
+	
+	private void count(String name, int postings, int values) {
+		AtomicLongArray counts = (AtomicLongArray)cardinalities.get(name);
+		if (counts == null) {
+			counts = new AtomicLongArray(2);
+			AtomicLongArray present = (AtomicLongArray)cardinalities.putIfAbsent(name, counts);
+			if (present != null)
+				counts = present;
+		}
+		counts.addAndGet(0, postings);
+		counts.addAndGet(1, values);
+	}
+	
+	/**
+	 * @param name - property name
+	 * @return array of count of postings (thing-value pairs) and count of distinct values for the property
+	 */
+	public long[] getCardinality(String name) {
+		AtomicLongArray counts = (AtomicLongArray)cardinalities.get(name);
+		return counts == null ? new long[2] : new long[]{counts.get(0),counts.get(1)};
+	}
+	
+	//expected size of set of things having given value of the property
+	protected long estimate(String name) {
+		long[] counts = getCardinality(name);
+		return counts[1] == 0 ? 0 : counts[0] / counts[1];
+	}
+	
+	//sorted map of Date values of time property or map of the other values of it, which can not be placed on timeline
+	private Map timeline(String name, Object value, boolean lazyAdd) {
+		if (value instanceof Date)
+			return timeline(name, lazyAdd);
+		Map other = (Map)untimed.get(name);
+		if (other == null && lazyAdd) {
+			other = new ConcurrentHashMap();
+			Map present = (Map)untimed.putIfAbsent(name, other);
+			if (present != null)
+				other = present;
+		}
+		return other;
+	}
+	
+	private ConcurrentSkipListMap timeline(String name, boolean lazyAdd) {
+		ConcurrentSkipListMap timeline = (ConcurrentSkipListMap)timelines.get(name);
+		if (timeline == null && lazyAdd) {
+			timeline = new ConcurrentSkipListMap();
+			ConcurrentSkipListMap present = (ConcurrentSkipListMap)timelines.putIfAbsent(name, timeline);
+			if (present != null)
+				timeline = present;
+		}
+		return timeline;
 	}
 	
 	//TODO: get rid of in favor of getByName !!!???
 	public java.util.Set get(String type,Object name) {
-		HashSet set = (HashSet)mapmap.getObject(type,name,false);
-		return set;
+		return (java.util.Set)mapmap.getObject(type,name,false);
 	}
 	
 	//checks if there is a thing that has thing with given name as property of given type
@@ -108,7 +230,7 @@ public class Storager {
 		Collection things = getNamed(name);
 		if (!AL.empty(things))
 			for (Iterator it = things.iterator(); it.hasNext();) {
-				java.util.Set set = (HashSet)mapmap.getObject(type,it.next(),false);
+				java.util.Set set = (java.util.Set)mapmap.getObject(type,it.next(),false);
 				if (!AL.empty(set))
 					return true;
 			}
@@ -129,9 +251,11 @@ public class Storager {
 		Collection things = getNamed(name);
 		if (!AL.empty(things)) {
 			for (Iterator it = things.iterator(); it.hasNext();) {
-				HashSet nextset = (HashSet)mapmap.getObject(type,it.next(),false);
+				java.util.Set nextset = (java.util.Set)mapmap.getObject(type,it.next(),false);
+				if (nextset == null)
+					continue;
 				if (set == null)
-					set = nextset;
+					set = new HashSet(nextset);//don't modify the index
 				else
 					set.addAll(nextset);
 			}
@@ -150,6 +274,31 @@ public class Storager {
 		return union;
 	}
 	
+	//get union of value sets for time property values in range of days from-to inclusive, or out of it, by rule,  
+	//values which are not dates are out of any range, same as they are not equal to any of days given as options 
+	public Collection get(String type,Date from,Date to,boolean rule) {
+		ArrayList union = new ArrayList();
+		ConcurrentSkipListMap timeline = timeline(type, false);
+		if (timeline != null) {
+			Date till = Time.date(to, +1);//till the end of the last day 
+			if (rule)
+				addAll(union, timeline.subMap(from, till).values());
+			else {
+				addAll(union, timeline.headMap(from).values());
+				addAll(union, timeline.tailMap(till).values());
+			}
+		}
+		Map other = (Map)untimed.get(type);
+		if (other != null && !rule)
+			addAll(union, other.values());
+		return union;
+	}
+	
+	private static void addAll(Collection union, Collection sets) {
+		for (Iterator it = sets.iterator(); it.hasNext();)
+			union.addAll((Collection)it.next());
+	}
+	
 	//get matching things by pattern
 	public Collection get(Thing pattern) {
 		return get(pattern,null);
@@ -158,7 +307,7 @@ public class Storager {
 	//get matching things by pattern's keys
 	public Collection get(Thing pattern, String[] keys) {
 		String[] names = pattern.getNamesAvailable();
-		HashSet res = null;
+		ArrayList sets = new ArrayList();
 		for (int i=0;i<names.length;i++) {
 			String name = (String)names[i];
 			if (!AL.empty(keys) && !Array.contains(keys,name))
@@ -168,29 +317,52 @@ public class Storager {
 				if (value instanceof Collection) {
 					for (Iterator it = ((Collection)value).iterator(); it.hasNext();) {
 						Object arg = it.next();
-						HashSet set = (HashSet)mapmap.getObject(name,arg,false);
-						if (set == null)
+						java.util.Set set = (java.util.Set)mapmap.getObject(name,arg,false);
+						if (AL.empty(set))
 							return null;
-						if (res == null)
-							res = (HashSet)set.clone();
-						else
-							res.retainAll(set);
+						sets.add(set);
 					}
 				} else {
 					if (isTime(name) && value instanceof String)
 						value = Time.day((String)value);
-					HashSet set = (HashSet)mapmap.getObject(name,value,false);
-					if (set == null)
+					java.util.Set set = (java.util.Set)mapmap.getObject(name,value,false);
+					if (AL.empty(set))
 						return null;
-					if (res == null)
-						res = (HashSet)set.clone();
-					else
-						res.retainAll(set);
+					sets.add(set);
 				}
-				if (res.size() == 0)
-					return null;
 			}
 		}
+		HashSet res = intersect(sets);
+		return AL.empty(res) ? null : res;
+	}
+	
+	private static final Comparator bySize = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			int s1 = ((Collection)o1).size();
+			int s2 = ((Collection)o2).size();
+			return s1 < s2 ? -1 : s1 > s2 ? 1 : 0;
+		}
+	};
+	
+	/**
+	 * Intersects sets starting from the smallest one, probing the larger ones without cloning them
+	 * @param sets - list of sets, to be sorted by size 
+	 * @return new set of common elements or null if no sets given
+	 */
+	static HashSet intersect(ArrayList sets) {
+		if (sets.isEmpty())
+			return null;
+		Collections.sort(sets, bySize);
+		Collection smallest = (Collection)sets.get(0);
+		HashSet res = new HashSet(smallest.size() * 2);
+		for (Iterator it = smallest.iterator(); it.hasNext();) {
+			Object o = it.next();
+			boolean common = true;
+			for (int i = 1; common && i < sets.size(); i++)
+				common = ((Collection)sets.get(i)).contains(o);
+			if (common)
+				res.add(o);
+		}
 		return res;
 	}
 
@@ -298,7 +470,7 @@ public class Storager {
 		if (!AL.empty(any)) {
 			for (int i=0;i<any.size();i++) {
 				Object one = any.get(i);
-				HashSet set = (HashSet) (
+				Collection set = (Collection) (
 					one instanceof All ? get((All)one,(Thing)null) : //TODO:getter?
 					one instanceof Any ? get((Any)one,(Thing)null) : //TODO:getter?
 					one instanceof Seq ? get((Seq)one,(Thing)null) : //TODO:getter?
@@ -310,7 +482,7 @@ public class Storager {
 				if (AL.empty(set))
 					continue;
 				if (res == null)
-					res = (HashSet)set.clone();
+					res = new HashSet(set);
 				else
 					res.addAll(set);
 			}
@@ -318,28 +490,50 @@ public class Storager {
 		return res;
 	}
 
-	//TODO:intelligent query execution plan builder with accoutn to cardinalities
+	//evaluate the most selective terms first, based on cardinalities of their properties, 
+	//so the empty result is found as early as possible, then intersect from the smallest set 
 	public Collection get(All all,Thing getter) throws Exception {
-		HashSet res = null;
-		if (!AL.empty(all)) {
-			for (int i=0;i<all.size();i++) {
-				Object one = all.get(i);
-				if (one instanceof Set) {
-					HashSet set = (HashSet)get((Set)one,getter);
-					if (AL.empty(set))
-						return null;
-					if (res == null)
-						res = (HashSet)set.clone();
-					else
-						res.retainAll(set);
-				}
-				else
-					;//TODO:what else?				
-				if (res.size() == 0)
+		if (AL.empty(all))
+			return null;
+		Object[] terms = new Object[all.size()];
+		final long[] estimates = new long[terms.length];
+		Integer[] order = new Integer[terms.length];
+		for (int i=0;i<terms.length;i++) {
+			terms[i] = all.get(i);
+			estimates[i] = cost(terms[i]);
+			order[i] = new Integer(i);
+		}
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long e1 = estimates[((Integer)o1).intValue()];
+				long e2 = estimates[((Integer)o2).intValue()];
+				return e1 < e2 ? -1 : e1 > e2 ? 1 : 0;
+			}
+		});
+		ArrayList sets = new ArrayList(terms.length);
+		for (int i=0;i<order.length;i++) {
+			Object one = terms[order[i].intValue()];
+			if (one instanceof Set) {
+				Collection set = get((Set)one,getter);
+				if (AL.empty(set))
 					return null;
+				sets.add(set);
 			}
+			else
+				;//TODO:what else?				
 		}
-		return res;
+		HashSet res = intersect(sets);
+		return AL.empty(res) ? null : res;
+	}
+	
+	//expected size of result of the term, unknown terms go last
+	private long cost(Object term) {
+		if (term instanceof Seq && ((Seq)term).size() == 2 && ((Seq)term).get(0) instanceof String) {
+			String name = (String)((Seq)term).get(0);
+			if (Schema.reverse(name) == null)
+				return estimate(name);
+		}
+		return Long.MAX_VALUE;
 	}
 
 	public Collection get(Set set,Thing getter) throws Exception {
@@ -458,6 +652,7 @@ public class Storager {
 				}
 			}
 		}
+		journal(false, null, null, thing);
 	}
 	
 	//put thing as is
@@ -492,13 +687,13 @@ public class Storager {
 	//TODO:never use!
 	//careful - may be very slow
 	public Collection getThings() {return getThings(null);}
-	synchronized public Collection getThings(java.util.Set debug) {
+	public Collection getThings(java.util.Set debug) {
 		//if (!all_ok) {
 			HashSet all_set = new HashSet();
 			Collection sets = mapmap.getObjects(null,debug);
 			Iterator it = sets.iterator();
 			while (it.hasNext()) {
-				HashSet set = (HashSet)(it.next());
+				Collection set = (Collection)(it.next());
 				Iterator i = set.iterator();			
 				while (i.hasNext()) {
 					Object obj = i.next();
@@ -645,4 +840,78 @@ public class Storager {
 		return mapmap.getSubKeySet(property);
 	}
 
+	//concurrent pattern and time range reads mixed with updates of values, each thread updating its own things
+	static void benchmark(final Environment env, int maxThreads, final int count, long millis) throws InterruptedException {
+		final int colors = 100;
+		final int days = 30;
+		final Storager storager = new Storager(env);
+		final Thing[] things = new Thing[count];
+		for (int i = 0; i < count; i++) {
+			things[i] = new Thing("thing"+i).store(storager);
+			things[i].setString("color", "color"+(i % colors));
+			things[i].set(AL.times, Time.today(-(i % days)));
+		}
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final long till = System.currentTimeMillis() + millis;
+			final long[] reads = new long[threads];
+			final long[] writes = new long[threads];
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				final int step = threads;
+				workers[t] = new Thread() {
+					public void run() {
+						Random random = new Random(id);
+						while (System.currentTimeMillis() < till) {
+							int op = random.nextInt(10);
+							if (op < 7) {
+								Thing pattern = new Thing();
+								pattern.setString("color", "color"+random.nextInt(colors));
+								pattern.set(AL.times, Time.today(-random.nextInt(days)));
+								storager.get(pattern);
+								reads[id]++;
+							} else
+							if (op < 8) {
+								Date day = Time.today(-random.nextInt(days));
+								storager.get(AL.times, day, day, true);
+								reads[id]++;
+							} else {
+								int i = id + step * random.nextInt((count - id + step - 1) / step);
+								things[i].setString("color", "color"+random.nextInt(colors));
+								writes[id]++;
+							}
+						}
+					}
+				};
+			}
+			for (int t = 0; t < threads; t++)
+				workers[t].start();
+			for (int t = 0; t < threads; t++)
+				workers[t].join();
+			long read = 0, write = 0, postings = 0;
+			for (int t = 0; t < threads; t++) {
+				read += reads[t];
+				write += writes[t];
+			}
+			for (int c = 0; c < colors; c++) {
+				Collection set = storager.get("color", (Object)("color"+c));
+				postings += set == null ? 0 : set.size();
+			}
+			env.debug("Storager benchmark threads "+threads+" things "+count+
+				" reads "+(read * 1000 / millis)+" per second, writes "+(write * 1000 / millis)+" per second,"+
+				" postings "+postings+" counted "+storager.getCardinality("color")[0]+(postings == count ? "" : " MISMATCH"));
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Mainer env = new Mainer();
+		if (args == null || args.length < 1){
+			env.debug("Options: benchmark [threads <count>] [things <count>] [seconds <count>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0]))
+			benchmark(env, Integer.parseInt(Str.arg(args, "threads", "8")), 
+				Integer.parseInt(Str.arg(args, "things", "100000")),
+				Integer.parseInt(Str.arg(args, "seconds", "5")) * 1000L);
+	}
 }
@@ -0,0 +1,342 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import net.webstructor.main.Mainer;
+import net.webstructor.util.ArrayPositionComparator;
+import net.webstructor.util.Str;
+
+/**
+ * Linker accumulating double values in flat arrays, used in place of Summator and Counter 
+ * on hot paths counting large numbers of values per key, such as reputation builds and feature counts.
+ * Every key is interned once into a slot of open-addressing hash table, 
+ * so that counting to existing key does not allocate any objects.
+ * Keys are kept in order of addition and can not be removed, only cleared all at once. 
+ * Complex values are counted by their scalar value as of ComplexNumber.toNumber.
+ */
+public class Accumulator implements Linker {
+	private Object[] keys;
+	private double[] values;
+	private int[] slots;//key index + 1 per hash slot, 0 for empty slot 
+	private int size;
+
+	public Accumulator(){
+		this(16);
+	}
+	
+	public Accumulator(int capacity){
+		int slotCount = 16;
+		while (slotCount < capacity * 2)
+			slotCount <<= 1;
+		keys = new Object[Math.max(capacity, 8)];
+		values = new double[keys.length];
+		slots = new int[slotCount];
+	}
+	
+	private static int hash(Object key){
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * @return index of key slot or -1 if key is not present 
+	 */
+	public int index(Object key){
+		int mask = slots.length - 1;
+		for (int s = hash(key) & mask;; s = (s + 1) & mask){
+			int i = slots[s];
+			if (i == 0)
+				return -1;
+			if (keys[i - 1].equals(key))
+				return i - 1;
+		}
+	}
+	
+	/**
+	 * @return index of key slot, adding the key with zero value if it is not present
+	 */
+	public int intern(Object key){
+		int mask = slots.length - 1;
+		int s = hash(key) & mask;
+		for (;; s = (s + 1) & mask){
+			int i = slots[s];
+			if (i == 0)
+				break;
+			if (keys[i - 1].equals(key))
+				return i - 1;
+		}
+		if (size == keys.length){
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		keys[size] = key;
+		values[size] = 0;
+		slots[s] = ++size;
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return size - 1;
+	}
+	
+	private void rehash(int slotCount){
+		slots = new int[slotCount];
+		int mask = slotCount - 1;
+		for (int i = 0; i < size; i++){
+			int s = hash(keys[i]) & mask;
+			while (slots[s] != 0)
+				s = (s + 1) & mask;
+			slots[s] = i + 1;
+		}
+	}
+	
+	public Object key(int index){
+		return keys[index];
+	}
+	
+	public double get(int index){
+		return values[index];
+	}
+	
+	public boolean containsKey(Object key){
+		return index(key) != -1;
+	}
+	
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	public void clear(){
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(slots, 0);
+		size = 0;
+	}
+	
+	public void put(Object key, double value){
+		int i = intern(key);
+		values[i] = value;
+	}
+	
+	public void count(Object key, double value, double def){
+		int i = index(key);
+		if (i == -1){
+			i = intern(key);
+			values[i] = def;
+		}
+		values[i] += value;
+	}
+	
+	public void count(Object key, double value){
+		int i = intern(key);
+		values[i] += value;
+	}
+	
+	public void count(Object key, int count){
+		int i = intern(key);
+		values[i] += count;
+	}
+	
+	public void count(Object key){
+		int i = intern(key);
+		values[i] += 1;
+	}
+	
+	public void count(Object key, ComplexNumber[] cn){
+		int i = intern(key);
+		values[i] += ComplexNumber.toNumber(cn).doubleValue();
+	}
+	
+	public Accumulator count(Accumulator other){
+		for (int j = 0; j < other.size; j++){
+			int i = intern(other.keys[j]);
+			values[i] += other.values[j];
+		}
+		return this;
+	}
+	
+	public void change(Object key, Number value){
+		put(key, value.doubleValue());
+	}
+	
+	public java.util.Set keys(){
+		return new AbstractSet(){
+			public Iterator iterator(){
+				return new Iterator(){
+					int i = 0;
+					public boolean hasNext(){
+						return i < size;
+					}
+					public Object next(){
+						if (i >= size)
+							throw new NoSuchElementException();
+						return keys[i++];
+					}
+					public void remove(){
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			public boolean contains(Object key){
+				return index(key) != -1;
+			}
+			public int size(){
+				return size;
+			}
+		};
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public Object get(Object key){
+		return value(key);
+	}
+	
+	public Number value(Object key){
+		int i = index(key);
+		return i == -1 ? null : new Double(values[i]);
+	}
+	
+	public Number value(Object key, int def){
+		int i = index(key);
+		return new Double(i == -1 ? def : values[i]);
+	}
+	
+	/**
+	 * @return array of key-value pairs with value as Integer in range 0..100, relative to local maximum
+	 */
+	public Object[][] toRanked(){
+		return toRanked(-1);
+	}
+	
+	//absolute normalization given external norm (global maximum),
+	//ranks of equal values are in the order Counter counted from scratch with the same keys would give, 
+	//as Counter iterates its keys in order of a hash map they are put into in order of first count, same as here 
+	public Object[][] toRanked(double max){
+		HashMap order = new HashMap(); 
+		for (int i = 0; i < size; i++)
+			order.put(keys[i], new Integer(i));
+		ArrayList a = new ArrayList();
+		double localMax = 0;
+		for (Iterator it = order.values().iterator(); it.hasNext();){
+			int i = ((Integer)it.next()).intValue();
+			if (values[i] > 0){
+				a.add(new Object[]{keys[i],new Double(values[i])});
+				if (localMax < values[i])
+					localMax = values[i];
+			}
+		}
+		if (max == -1)
+			max = localMax;
+		Object[][] v = (Object[][])a.toArray(new Object[][]{});
+		for (int i = 0; i < v.length; i++)
+			v[i][1] = new Integer( Math.round(((Double)v[i][1]).floatValue() * 100 / (float)max) );
+		Arrays.sort(v,new ArrayPositionComparator(1));
+		return v;
+	}
+	
+	public Object[][] toData(){
+		Object[][] v = new Object[size][];
+		for (int i = 0; i < size; i++)
+			v[i] = new Object[]{keys[i],new Double(values[i])};
+		return v;
+	}
+	
+	public String toString(){
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < size; i++){
+			if (i > 0)
+				sb.append(", ");
+			sb.append(keys[i]).append('=').append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+	
+	static void benchmark(Mainer env, int ratings, int accounts){
+		Object[] ids = new Object[accounts];
+		for (int i = 0; i < accounts; i++)
+			ids[i] = String.valueOf(i);
+		for (int pass = 0; pass < 3; pass++){
+			Random random = new Random(pass);
+			Summator summator = new Summator();
+			long[] s = measure();
+			for (int i = 0; i < ratings; i++)
+				summator.count(ids[random.nextInt(accounts)], random.nextDouble(), 0);
+			s = measure(s);
+			
+			random = new Random(pass);
+			Counter counter = new Counter();
+			long[] c = measure();
+			for (int i = 0; i < ratings; i++)
+				counter.count(ids[random.nextInt(accounts)], random.nextDouble());
+			c = measure(c);
+			
+			random = new Random(pass);
+			Accumulator accumulator = new Accumulator();
+			long[] a = measure();
+			for (int i = 0; i < ratings; i++)
+				accumulator.count(ids[random.nextInt(accounts)], random.nextDouble(), 0);
+			a = measure(a);
+			
+			if (accumulator.size() != summator.size() || accumulator.size() != counter.size())
+				env.error("Accumulator benchmark mismatch", null);
+			env.debug("Accumulator benchmark pass "+pass+" ratings "+ratings+" accounts "+accounts+
+				" Summator: "+s[0]/ratings+" ns, "+s[1]/ratings+" bytes per rating;"+
+				" Counter: "+c[0]/ratings+" ns, "+c[1]/ratings+" bytes per rating;"+
+				" Accumulator: "+a[0]/ratings+" ns, "+a[1]/ratings+" bytes per rating");
+		}
+	}
+	
+	//time in nanoseconds and bytes allocated by current thread, if supported by JVM 
+	private static long[] measure(){
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		long allocated = mx instanceof com.sun.management.ThreadMXBean ? 
+			((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+		return new long[]{System.nanoTime(),allocated};
+	}
+	
+	private static long[] measure(long[] start){
+		long[] end = measure();
+		return new long[]{end[0] - start[0],end[1] - start[1]};
+	}
+	
+	public static void main(String[] args) {
+		Mainer env = new Mainer();
+		if (args == null || args.length < 1){
+			env.debug("Options: benchmark [ratings <count>] [accounts <count>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0]))
+			benchmark(env, Integer.parseInt(Str.arg(args, "ratings", "10000000")), Integer.parseInt(Str.arg(args, "accounts", "100000")));
+	}
+}
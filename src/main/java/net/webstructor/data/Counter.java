@@ -54,6 +54,9 @@ public class Counter extends HashMap implements Linker {
 	
 	public Counter() {
 	}
+	public Counter(int capacity) {
+		super(capacity);
+	}
 	public Counter(Linker other) {
 		count(other);
 	}
@@ -56,6 +56,9 @@ public class Graph implements Serializable {
 	public boolean modified(){
 		return modified;
 	}
+	void setModified(boolean modified){
+		this.modified = modified;
+	}
 	public void clear(){
 		binders.clear();
 	}
@@ -78,8 +81,8 @@ public class Graph implements Serializable {
 	}
 	public HashMap getPropertyLinkers(Object property) {// p => ( a->p(x,y,...), b->p(x,y,...), ... )
 		HashMap linkers = new HashMap();
-		for (Object context : binders.keySet()) {
-			HashMap properties = (HashMap)binders.get(context);
+		for (Object context : getSources()) {
+			HashMap properties = getLinkers(context,false);
 			if (AL.empty(properties))//no properties at all
 				continue;
 			Linker targets = (Linker)properties.get(property);
@@ -92,6 +95,12 @@ public class Graph implements Serializable {
 	public Set getSources(){
 		return binders.keySet();
 	}
+	void putLinkers(Object context, HashMap linkers){//used by loaders filling blank graph
+		binders.put(context, linkers);
+	}
+	HashMap removeLinkers(Object context){
+		return (HashMap)binders.remove(context);
+	}
 	public Linker getLinker(Object context, Object target,boolean add) {// a,p => a->p->(x,y,...)
 		HashMap linkers = getLinkers(context,add);
 		if (linkers == null)
@@ -132,6 +141,15 @@ public class Graph implements Serializable {
 			modified = true;
 		}
 	}
+	public void setValues(Object context, Object property, Linker targetValues) {
+		Counter linker = new Counter();
+		for (Iterator it = targetValues.keys().iterator(); it.hasNext();){
+			String target = (String)it.next();
+			linker.count(target, targetValues.value(target).intValue());
+		}
+		getLinkers(context,true).put(property, linker);
+		modified = true;
+	}
 	public void countTargets(Set sources, String[] links, Counter targets){
 		if (!AL.empty(sources)){
 			for (Iterator it = sources.iterator(); it.hasNext();){
@@ -197,9 +215,9 @@ public class Graph implements Serializable {
 	public void normalize(){
 		int maxVal = 0;
 		//get max
-		for (Iterator it = binders.keySet().iterator(); it.hasNext();){
+		for (Iterator it = getSources().iterator(); it.hasNext();){
 			String source = (String)it.next();
-			HashMap linkers = (HashMap)binders.get(source);
+			HashMap linkers = getLinkers(source,false);
 			for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
 				String property = (String)lit.next();
 				Linker linker = (Linker)linkers.get(property);
@@ -212,9 +230,9 @@ public class Graph implements Serializable {
 			}
 		}
 		//normalize self
-		for (Iterator it = binders.keySet().iterator(); it.hasNext();){
+		for (Iterator it = getSources().iterator(); it.hasNext();){
 			String source = (String)it.next();
-			HashMap linkers = (HashMap)binders.get(source);
+			HashMap linkers = getLinkers(source,false);
 			for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
 				String property = (String)lit.next();
 				Linker linker = (Linker)linkers.get(property);
@@ -246,9 +264,9 @@ public class Graph implements Serializable {
 	
 	public void addSubgraphTo(Graph other,int threshold, String[] filter,boolean include){
 		Set set = toSet(filter);
-		for (Iterator it = binders.keySet().iterator(); it.hasNext();){
+		for (Iterator it = getSources().iterator(); it.hasNext();){
 			String source = (String)it.next();
-			HashMap linkers = (HashMap)binders.get(source);
+			HashMap linkers = getLinkers(source,false);
 			for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
 				String property = (String)lit.next();
 				if (set!= null)
@@ -267,9 +285,9 @@ public class Graph implements Serializable {
 
 	public void blend(Graph other, double otherFactor){
 		//iterate other, if no other value, leave this value unblended
-		for (Iterator it = other.binders.keySet().iterator(); it.hasNext();){
+		for (Iterator it = other.getSources().iterator(); it.hasNext();){
 			String source = (String)it.next();
-			HashMap linkers = (HashMap)other.binders.get(source);
+			HashMap linkers = other.getLinkers(source,false);
 			for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
 				String property = (String)lit.next();
 				Linker linker = (Linker)linkers.get(property);
@@ -296,9 +314,9 @@ public class Graph implements Serializable {
 		double stddev_prev = 0;
 		for (int pass = 0; pass < iterations; pass++){
 			Summator new_orders = new Summator();
-			for (Iterator it = binders.keySet().iterator(); it.hasNext();){
+			for (Iterator it = getSources().iterator(); it.hasNext();){
 				String source = (String)it.next();
-				HashMap linkers = (HashMap)binders.get(source);
+				HashMap linkers = getLinkers(source,false);
 				for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
 					String property = (String)lit.next();
 					if (AL.empty(links) || Array.contains(links, property)){//check link property
@@ -350,9 +368,9 @@ public class Graph implements Serializable {
 			for (int i = limit - seeds.size(); i < ranked.length; i++)
 				node_weights.remove(ranked[i][0]);
 			// select only the links involving top reputable nodes including selected nodes
-			for (Iterator it = binders.keySet().iterator(); it.hasNext();){
+			for (Iterator it = getSources().iterator(); it.hasNext();){
 				String source = (String)it.next();
-				HashMap linkers = (HashMap)binders.get(source);
+				HashMap linkers = getLinkers(source,false);
 				for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
 					String property = (String)lit.next();
 					Linker linker = (Linker)linkers.get(property);
@@ -387,7 +405,7 @@ public class Graph implements Serializable {
 	public long[] size(){
 		long links = 0;
 		HashSet nodes = new HashSet();
-		Set contexts = binders.keySet(); 
+		Set contexts = getSources(); 
 		for (Iterator c = contexts.iterator(); c.hasNext();){
 			Object context = c.next();
 			nodes.add(context);
@@ -423,7 +441,7 @@ public class Graph implements Serializable {
 		final char termBreaker = ' ';
 		final String statementBreaker = ".\n";
 		StringBuilder sb = new StringBuilder();
-		Set contexts = binders.keySet();
+		Set contexts = getSources();
 		ArrayList<String> res = new ArrayList<String>();
 		for (Iterator c = contexts.iterator(); c.hasNext();){
 			Object context = c.next();
@@ -478,7 +496,7 @@ public class Graph implements Serializable {
 	public ArrayList toList(boolean expand,String[] filter,boolean include){
 		Set set = toSet(filter);
 		ArrayList list = new ArrayList(); 
-		Set contexts = binders.keySet(); 
+		Set contexts = getSources(); 
 		for (Iterator c = contexts.iterator(); c.hasNext();){
 			Object context = c.next();
 			HashMap linkers = getLinkers(context, false);
@@ -520,7 +538,7 @@ public class Graph implements Serializable {
 	public void to(PrintStream out){
 		final char termBreaker = ' ';
 		final String statementBreaker = ".\n";
-		Set contexts = binders.keySet(); 
+		Set contexts = getSources(); 
 		for (Iterator c = contexts.iterator(); c.hasNext();){
 			Object context = c.next();
 			HashMap linkers = getLinkers(context, false);
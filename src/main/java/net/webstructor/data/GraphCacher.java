@@ -122,6 +122,24 @@ public class GraphCacher implements Cacher {
 			System.gc();
 	}
 
+	//release clean pages of mapped graphs first, save and drop graphs only if it is not enough
+	private void relieveUnsync(Date except){
+		int released = 0;
+		for (Iterator it = graphs.values().iterator(); it.hasNext();){
+			Object graph = it.next();
+			if (graph instanceof MappedGraph)
+				synchronized (graph){//may be read by other threads
+					released += ((MappedGraph)graph).release();
+				}
+		}
+		if (released > 0){
+			env.debug(nameCapital+" graphs released "+released+" pages");
+			System.gc();
+		}
+		if (env.checkMemory() > MEMORY_THRESHOLD)
+			clearUnsync(except);
+	}
+
 	//save all unsaved graphs
 	public void saveGraphs(){
 		synchronized (graphs){
@@ -139,9 +157,7 @@ public class GraphCacher implements Cacher {
 				if (graph.modified()){
 					if (graph.getAge() < this.age){
 						graph.setAge(this.age);
-						String path = pathPrefix+Time.day(date,false)+".ser";
-						env.debug(nameCapital+" graphs saving "+path);
-						graph.save(filer, path);
+						save(date, graph);
 					}
 				}
 				}
@@ -149,6 +165,24 @@ public class GraphCacher implements Cacher {
 		}
 	}
 
+	private String path(Date date, String ext){
+		return pathPrefix+Time.day(date,false)+"."+ext;
+	}
+	
+	//save in binary format, if possible, keeping the other format removed to have the only version on disk
+	private void save(Date date, Graph graph){
+		String path = path(date, GraphSnapshot.EXT);
+		String legacy = path(date, GraphSnapshot.LEGACY_EXT);
+		env.debug(nameCapital+" graphs saving "+path);
+		if (GraphSnapshot.save(env, graph, path))
+			filer.del(legacy);
+		else {
+			env.debug(nameCapital+" graphs saving "+legacy);
+			graph.save(filer, legacy);
+			filer.del(path);
+		}
+	}
+
 	public void updateGraph(Date date, long age){
 		updateGraph(date, getGraph(date), age);
 	}
@@ -157,15 +191,13 @@ public class GraphCacher implements Cacher {
 		synchronized (graphs){
 			env.debug(nameCapital+" graph save for "+date+" memory "+env.checkMemory());
 			if (env.checkMemory() > MEMORY_THRESHOLD)
-				clearUnsync(date);
+				relieveUnsync(date);
 			synchronized (graph){//TODO: if this is really needed, not an overkill?
 			if (graph.modified()){
 				graph.setAge(age);
 				if (this.age < age)
 					this.age = age;
-				String path = pathPrefix+Time.day(date,false)+".ser";
-				env.debug(nameCapital+" graphs saving "+path);
-				graph.save(filer, path);
+				save(date, graph);
 			}
 			}
 			env.debug(nameCapital+" graphs saved for "+date+" memory "+env.checkMemory());
@@ -178,10 +210,12 @@ public class GraphCacher implements Cacher {
 			Graph graph = (Graph)graphs.get(date);
 			if (graph == null){
 				if (env.checkMemory() > MEMORY_THRESHOLD)
-					clearUnsync(null);
-				String path = pathPrefix+Time.day(date,false)+".ser";
+					relieveUnsync(null);
+				String path = path(date, GraphSnapshot.EXT);
 				try {
-					graph = (Graph)filer.load(path);
+					graph = GraphSnapshot.open(env, path);//mapped, paging contexts in lazily
+					if (graph == null)//fallback to legacy format
+						graph = (Graph)filer.load(path = path(date, GraphSnapshot.LEGACY_EXT));
 				} catch (java.lang.OutOfMemoryError e) {
 					env.error("GraphCacher can not load "+path+" memory "+env.checkMemory(), e);
 					//on graph memory error, just start over from the scratch!
@@ -190,7 +224,7 @@ public class GraphCacher implements Cacher {
 					graph = new Graph();
 				graphs.put(date, graph);
 				if (env.checkMemory() > MEMORY_THRESHOLD)
-					clearUnsync(date);
+					relieveUnsync(date);
 			}
 			env.debug(nameCapital+" graphs got for "+date+" memory "+env.checkMemory());
 			return graph;
@@ -273,8 +307,8 @@ public class GraphCacher implements Cacher {
 	
 	public static void main(String[] args) {
 		if (args.length > 0) {
-			Filer filer = new Filer(new Mainer());
-			Graph graph = (Graph)filer.load(args[0]);
+			Mainer env = new Mainer();
+			Graph graph = args[0].endsWith("."+GraphSnapshot.EXT) ? GraphSnapshot.open(env, args[0]) : (Graph)new Filer(env).load(args[0]);
 			long timestamp = graph.getAge();
 			Date date = new Date((long)timestamp);
 			System.out.println(timestamp+"\t"+date);
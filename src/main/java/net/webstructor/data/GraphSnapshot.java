@@ -0,0 +1,640 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+import net.webstructor.al.AL;
+import net.webstructor.core.Environment;
+import net.webstructor.core.Filer;
+import net.webstructor.main.Mainer;
+import net.webstructor.util.Str;
+
+/**
+ * Compact binary columnar snapshot of a Graph, used by GraphCacher in place of Java serialization.
+ * Layout (big-endian):
+ * header - signature, version, age and counts of nodes, string bytes, contexts, linkers, edges, complex values and complex items;
+ * dictionary - node string offsets followed by UTF-8 string heap, so every node is stored once;
+ * contexts - context node ids and offsets of their linkers;
+ * linkers - property node ids and offsets of their edges;
+ * edges - target node ids, value kinds and primitive values (int, long, double bits or complex value index);
+ * complex values - offsets of items followed by item flags and a/b parts.
+ * Graphs with nodes other than strings or values other than Integer, Long, Double or ComplexNumber[] 
+ * are not supported and have to be saved with Java serialization.
+ */
+public class GraphSnapshot {
+	public static final String EXT = "bin";
+	public static final String LEGACY_EXT = "ser";
+
+	static final int SIGNATURE = 0x41475331;//"AGS1"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 4 + 4 + 8 + 7 * 4;
+	
+	static final byte KIND_INT = 0;
+	static final byte KIND_LONG = 1;
+	static final byte KIND_DOUBLE = 2;
+	static final byte KIND_COMPLEX = 3;
+	
+	static final byte HAS_A = 1;
+	static final byte HAS_B = 2;
+	static final byte DECIMAL_A = 4;
+	static final byte DECIMAL_B = 8;
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final int CHUNK = 1 << 16;
+
+	/**
+	 * Saves graph to the file on the path, resetting its modification flag on success. 
+	 * @return false if graph can not be represented in the binary format or can not be written
+	 */
+	public static boolean save(Environment env, Graph graph, String path){
+		File file = env.getFile(path);
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+		File tmp = new File(file.getPath()+".tmp");
+		DataOutputStream out = null;
+		boolean written = false;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),CHUNK));
+			written = write(graph, out);
+			out.close();
+			out = null;
+			if (written){
+				if (file.exists())
+					file.delete();
+				written = tmp.renameTo(file);
+			}
+		} catch (IOException e) {
+			env.error("GraphSnapshot can not write "+path, e);
+			written = false;
+		} finally {
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e) {}//ignore
+			if (tmp.exists())
+				tmp.delete();
+		}
+		if (written){
+			graph.setModified(false);
+			if (graph instanceof MappedGraph)
+				try {
+					((MappedGraph)graph).remap(file);//unpin pages saved
+				} catch (IOException e) {
+					env.error("GraphSnapshot can not map "+path, e);
+				}
+		}
+		return written;
+	}
+	
+	/**
+	 * Loads graph from the file on the path.
+	 * @return graph or null if there is no file or it can not be read
+	 */
+	public static Graph load(Environment env, String path){
+		File file = env.getFile(path);
+		if (!file.exists() || file.isDirectory())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),CHUNK));
+			return read(in);
+		} catch (IOException e) {
+			env.error("GraphSnapshot can not read "+path, e);
+			return null;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {}//ignore
+		}
+	}
+	
+	/**
+	 * Opens graph from the file on the path as MappedGraph, paging its contexts in lazily,
+	 * or loads it entirely if it can not be mapped.
+	 * @return graph or null if there is no file or it can not be read
+	 */
+	public static Graph open(Environment env, String path){
+		try {
+			return MappedGraph.open(env.getFile(path));
+		} catch (IOException e) {
+			env.error("GraphSnapshot can not map "+path, e);
+			return load(env, path);
+		}
+	}
+	
+	static boolean write(Graph graph, DataOutputStream out) throws IOException {
+		HashMap dictionary = new HashMap();
+		IntColumn nodeOffsets = new IntColumn();
+		ByteArrayOutputStream heap = new ByteArrayOutputStream();
+		IntColumn contextNodes = new IntColumn();
+		IntColumn contextLinkers = new IntColumn();
+		IntColumn linkerProperties = new IntColumn();
+		IntColumn linkerEdges = new IntColumn();
+		IntColumn edgeTargets = new IntColumn();
+		ByteColumn edgeKinds = new ByteColumn();
+		LongColumn edgeValues = new LongColumn();
+		IntColumn complexItems = new IntColumn();
+		ByteColumn itemFlags = new ByteColumn();
+		LongColumn itemA = new LongColumn();
+		LongColumn itemB = new LongColumn();
+		
+		nodeOffsets.add(0);
+		contextLinkers.add(0);
+		linkerEdges.add(0);
+		complexItems.add(0);
+		for (Iterator it = graph.getSources().iterator(); it.hasNext();){
+			Object context = it.next();
+			if (!(context instanceof String))
+				return false;
+			HashMap linkers = graph.getLinkers(context, false);
+			if (AL.empty(linkers))
+				continue;
+			contextNodes.add(node(dictionary,nodeOffsets,heap,(String)context));
+			for (Iterator lit = linkers.keySet().iterator(); lit.hasNext();){
+				Object property = lit.next();
+				Object linker = linkers.get(property);
+				if (!(property instanceof String) || linker == null || linker.getClass() != Counter.class)
+					return false;
+				Counter counter = (Counter)linker;
+				linkerProperties.add(node(dictionary,nodeOffsets,heap,(String)property));
+				for (Iterator tit = counter.keySet().iterator(); tit.hasNext();){
+					Object target = tit.next();
+					if (!(target instanceof String))
+						return false;
+					Object value = counter.get(target);
+					if (value instanceof Integer){
+						edgeKinds.add(KIND_INT);
+						edgeValues.add(((Integer)value).intValue());
+					} else if (value instanceof Long){
+						edgeKinds.add(KIND_LONG);
+						edgeValues.add(((Long)value).longValue());
+					} else if (value instanceof Double){
+						edgeKinds.add(KIND_DOUBLE);
+						edgeValues.add(Double.doubleToLongBits(((Double)value).doubleValue()));
+					} else if (value instanceof ComplexNumber[]){
+						ComplexNumber[] cn = (ComplexNumber[])value;
+						edgeKinds.add(KIND_COMPLEX);
+						edgeValues.add(complexItems.size() - 1);
+						for (int i = 0; i < cn.length; i++){
+							byte flags = 0;
+							long a = 0, b = 0;
+							if (cn[i].a != null){
+								flags |= HAS_A;
+								if (cn[i].a instanceof BigDecimal)
+									flags |= DECIMAL_A;
+								else if (!(cn[i].a instanceof Double))
+									return false;
+								if ((a = bits(cn[i].a)) == -1)
+									return false;
+							}
+							if (cn[i].b != null){
+								flags |= HAS_B;
+								if (cn[i].b instanceof BigDecimal)
+									flags |= DECIMAL_B;
+								else if (!(cn[i].b instanceof Double))
+									return false;
+								if ((b = bits(cn[i].b)) == -1)
+									return false;
+							}
+							itemFlags.add(flags);
+							itemA.add(a);
+							itemB.add(b);
+						}
+						complexItems.add(itemFlags.size());
+					} else
+						return false;
+					edgeTargets.add(node(dictionary,nodeOffsets,heap,(String)target));
+				}
+				linkerEdges.add(edgeTargets.size());
+			}
+			contextLinkers.add(linkerProperties.size());
+		}
+		
+		out.writeInt(SIGNATURE);
+		out.writeInt(VERSION);
+		out.writeLong(graph.getAge());
+		out.writeInt(nodeOffsets.size() - 1);
+		out.writeInt(heap.size());
+		out.writeInt(contextNodes.size());
+		out.writeInt(linkerProperties.size());
+		out.writeInt(edgeTargets.size());
+		out.writeInt(complexItems.size() - 1);
+		out.writeInt(itemFlags.size());
+		nodeOffsets.write(out);
+		heap.writeTo(out);
+		contextNodes.write(out);
+		contextLinkers.write(out);
+		linkerProperties.write(out);
+		linkerEdges.write(out);
+		edgeTargets.write(out);
+		edgeKinds.write(out);
+		edgeValues.write(out);
+		complexItems.write(out);
+		itemFlags.write(out);
+		itemA.write(out);
+		itemB.write(out);
+		return true;
+	}
+	
+	static Graph read(DataInputStream in) throws IOException {
+		if (in.readInt() != SIGNATURE)
+			throw new IOException("Invalid graph snapshot signature");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported graph snapshot version "+version);
+		long age = in.readLong();
+		int nodeCount = in.readInt();
+		int heapSize = in.readInt();
+		int contextCount = in.readInt();
+		int linkerCount = in.readInt();
+		int edgeCount = in.readInt();
+		int complexCount = in.readInt();
+		int itemCount = in.readInt();
+		
+		int[] nodeOffsets = readInts(in, nodeCount + 1);
+		byte[] heap = new byte[heapSize];
+		in.readFully(heap);
+		String[] nodes = new String[nodeCount];
+		for (int i = 0; i < nodeCount; i++)
+			nodes[i] = new String(heap, nodeOffsets[i], nodeOffsets[i + 1] - nodeOffsets[i], UTF8);
+		heap = null;
+		nodeOffsets = null;
+		
+		int[] contextNodes = readInts(in, contextCount);
+		int[] contextLinkers = readInts(in, contextCount + 1);
+		int[] linkerProperties = readInts(in, linkerCount);
+		int[] linkerEdges = readInts(in, linkerCount + 1);
+		int[] edgeTargets = readInts(in, edgeCount);
+		byte[] edgeKinds = new byte[edgeCount];
+		in.readFully(edgeKinds);
+		long[] edgeValues = readLongs(in, edgeCount);
+		int[] complexItems = readInts(in, complexCount + 1);
+		byte[] itemFlags = new byte[itemCount];
+		in.readFully(itemFlags);
+		long[] itemA = readLongs(in, itemCount);
+		long[] itemB = readLongs(in, itemCount);
+		
+		Graph graph = new Graph();
+		for (int c = 0; c < contextCount; c++){
+			int from = contextLinkers[c], to = contextLinkers[c + 1];
+			HashMap linkers = new HashMap(capacity(to - from));
+			for (int l = from; l < to; l++){
+				int edgeFrom = linkerEdges[l], edgeTo = linkerEdges[l + 1];
+				Counter counter = new Counter(capacity(edgeTo - edgeFrom));
+				for (int e = edgeFrom; e < edgeTo; e++)
+					counter.put(nodes[edgeTargets[e]], value(edgeKinds[e], edgeValues[e], complexItems, itemFlags, itemA, itemB));
+				linkers.put(nodes[linkerProperties[l]], counter);
+			}
+			graph.putLinkers(nodes[contextNodes[c]], linkers);
+		}
+		graph.setAge(age);
+		graph.setModified(false);
+		return graph;
+	}
+
+	static Object value(byte kind, long value, int[] complexItems, byte[] itemFlags, long[] itemA, long[] itemB){
+		if (kind != KIND_COMPLEX)
+			return number(kind, value);
+		int from = complexItems[(int)value], to = complexItems[(int)value + 1];
+		ComplexNumber[] cn = new ComplexNumber[to - from];
+		for (int i = from; i < to; i++)
+			cn[i - from] = complex(itemFlags[i], itemA[i], itemB[i]);
+		return cn;
+	}
+	
+	static Number number(byte kind, long value){
+		switch (kind){
+		case KIND_INT:
+			return Integer.valueOf((int)value);
+		case KIND_LONG:
+			return Long.valueOf(value);
+		case KIND_DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(value));
+		}
+		return null;
+	}
+	
+	static ComplexNumber complex(byte flags, long a, long b){
+		return new ComplexNumber(part(flags, HAS_A, DECIMAL_A, a), part(flags, HAS_B, DECIMAL_B, b));
+	}
+
+	private static Number part(int flags, int has, int decimal, long bits){
+		if ((flags & has) == 0)
+			return null;
+		double d = Double.longBitsToDouble(bits);
+		return (flags & decimal) != 0 ? (Number)new BigDecimal(d) : (Number)Double.valueOf(d);
+	}
+	
+	//returns bits of the double or -1 if the number can not be restored exactly 
+	private static long bits(Number n){
+		double d = n.doubleValue();
+		if (n instanceof BigDecimal && !new BigDecimal(d).equals(n))
+			return -1;
+		return Double.doubleToLongBits(d);//never -1 as NaN-s are collapsed 
+	}
+	
+	private static int node(HashMap dictionary, IntColumn offsets, ByteArrayOutputStream heap, String node){
+		Integer id = (Integer)dictionary.get(node);
+		if (id == null){
+			id = Integer.valueOf(dictionary.size());
+			dictionary.put(node, id);
+			byte[] bytes = node.getBytes(UTF8);
+			heap.write(bytes, 0, bytes.length);
+			offsets.add(heap.size());
+		}
+		return id.intValue();
+	}
+	
+	static int capacity(int size){
+		return Math.max(4, (int)(size / 0.75f) + 1);
+	}
+
+	static int[] readInts(DataInputStream in, int count) throws IOException {
+		int[] a = new int[count];
+		byte[] b = new byte[Math.min(CHUNK, count * 4)];
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		for (int done = 0; done < count;){
+			int n = Math.min(count - done, b.length / 4);
+			in.readFully(b, 0, n * 4);
+			bb.clear();
+			bb.asIntBuffer().get(a, done, n);
+			done += n;
+		}
+		return a;
+	}
+	
+	static long[] readLongs(DataInputStream in, int count) throws IOException {
+		long[] a = new long[count];
+		byte[] b = new byte[Math.min(CHUNK, count * 8)];
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		for (int done = 0; done < count;){
+			int n = Math.min(count - done, b.length / 8);
+			in.readFully(b, 0, n * 8);
+			bb.clear();
+			bb.asLongBuffer().get(a, done, n);
+			done += n;
+		}
+		return a;
+	}
+	
+	static class IntColumn {
+		int[] data;
+		int size = 0;
+		IntColumn(){
+			this(1024);
+		}
+		IntColumn(int capacity){
+			data = new int[capacity];
+		}
+		void add(int value){
+			if (size == data.length){
+				int[] grown = new int[size * 2];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			data[size++] = value;
+		}
+		int size(){
+			return size;
+		}
+		void write(DataOutputStream out) throws IOException {
+			byte[] b = new byte[CHUNK];
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			for (int done = 0; done < size;){
+				int n = Math.min(size - done, b.length / 4);
+				bb.clear();
+				bb.asIntBuffer().put(data, done, n);
+				out.write(b, 0, n * 4);
+				done += n;
+			}
+		}
+	}
+	
+	static class LongColumn {
+		long[] data = new long[1024];
+		int size = 0;
+		void add(long value){
+			if (size == data.length){
+				long[] grown = new long[size * 2];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			data[size++] = value;
+		}
+		int size(){
+			return size;
+		}
+		void write(DataOutputStream out) throws IOException {
+			byte[] b = new byte[CHUNK];
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			for (int done = 0; done < size;){
+				int n = Math.min(size - done, b.length / 8);
+				bb.clear();
+				bb.asLongBuffer().put(data, done, n);
+				out.write(b, 0, n * 8);
+				done += n;
+			}
+		}
+	}
+	
+	static class ByteColumn {
+		byte[] data = new byte[1024];
+		int size = 0;
+		void add(byte value){
+			if (size == data.length){
+				byte[] grown = new byte[size * 2];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			data[size++] = value;
+		}
+		int size(){
+			return size;
+		}
+		void write(DataOutputStream out) throws IOException {
+			out.write(data, 0, size);
+		}
+	}
+	
+	/**
+	 * Converts all legacy Java-serialized graphs in the directory to binary snapshots.
+	 * @param env
+	 * @param dir - directory of GraphCacher like "www" or "ethereum"
+	 * @param delete - whether to delete legacy files once converted and verified
+	 * @return number of converted files
+	 */
+	public static int convert(Environment env, String dir, boolean delete){
+		File folder = env.getFile(dir);
+		if (!folder.isDirectory())
+			return 0;
+		Filer filer = new Filer(env);
+		String[] files = folder.list();
+		int converted = 0;
+		for (int i = 0; i < files.length; i++){
+			if (!files[i].endsWith("."+LEGACY_EXT))
+				continue;
+			String legacy = new File(folder, files[i]).getPath();
+			String path = Filer.ext(legacy, EXT);
+			Object o = filer.load(legacy);
+			if (!(o instanceof Graph)){
+				env.error("GraphSnapshot can not convert "+legacy, null);
+				continue;
+			}
+			Graph graph = (Graph)o;
+			if (!save(env, graph, path)){
+				env.error("GraphSnapshot can not represent "+legacy, null);
+				continue;
+			}
+			Graph loaded = load(env, path);
+			long[] expected = graph.size(), actual = loaded == null ? null : loaded.size();
+			if (actual == null || expected[0] != actual[0] || expected[1] != actual[1] || graph.getAge() != loaded.getAge()){
+				env.error("GraphSnapshot can not verify "+path, null);
+				File file = env.getFile(path);
+				if (file.exists() && !file.delete())
+					env.error("GraphSnapshot can not delete unverified "+path, null);
+				continue;
+			}
+			if (delete)
+				filer.del(new File(legacy), null);
+			converted++;
+			env.debug("GraphSnapshot converted "+legacy+" to "+path+" nodes "+expected[0]+" links "+expected[1]);
+		}
+		return converted;
+	}
+	
+	static Graph generate(int edges, int fanout){
+		final String[] properties = new String[]{"rate-s","rate-d","pays-s","pays-d"};
+		int nodes = Math.max(2, edges / fanout);
+		Random random = new Random(edges);
+		Graph graph = new Graph();
+		for (int e = 0; e < edges; e++){
+			String from = String.valueOf(random.nextInt(nodes));
+			String to = String.valueOf(random.nextInt(nodes));
+			String property = properties[e % properties.length];
+			if (e % 2 == 0)
+				graph.addValue(from, to, property, 1 + random.nextInt(100));
+			else
+				graph.addValue(from, to, property, new ComplexNumber[]{new ComplexNumber(random.nextInt(100),random.nextDouble())});
+		}
+		graph.setAge(System.currentTimeMillis());
+		return graph;
+	}
+	
+	static void benchmark(Environment env, int edges, String dir){
+		Filer filer = new Filer(env);
+		String ser = dir+"/benchmark."+LEGACY_EXT;
+		String bin = dir+"/benchmark."+EXT;
+		Graph graph = generate(edges, 10);
+		long[] size = graph.size();
+		env.debug("GraphSnapshot benchmark nodes "+size[0]+" links "+size[1]);
+		
+		long start = System.nanoTime();
+		filer.save(ser, graph);
+		long serSave = System.nanoTime() - start;
+		start = System.nanoTime();
+		save(env, graph, bin);
+		long binSave = System.nanoTime() - start;
+		graph = null;
+		
+		for (int pass = 0; pass < 3; pass++){
+			System.gc();
+			long before = usedMemory();
+			start = System.nanoTime();
+			Graph serGraph = (Graph)filer.load(ser);
+			long serLoad = System.nanoTime() - start;
+			long serMemory = usedMemory() - before;
+			serGraph = null;
+			System.gc();
+			before = usedMemory();
+			start = System.nanoTime();
+			Graph binGraph = load(env, bin);
+			long binLoad = System.nanoTime() - start;
+			long binMemory = usedMemory() - before;
+			if (binGraph.size()[1] != size[1])
+				env.error("GraphSnapshot benchmark mismatch", null);
+			binGraph = null;
+			System.gc();
+			before = usedMemory();
+			start = System.nanoTime();
+			Graph mapped = open(env, bin);
+			long mapOpen = System.nanoTime() - start;
+			start = System.nanoTime();
+			HashSet targets = new HashSet();
+			Random random = new Random(pass);
+			for (int i = 0; i < 1000; i++){
+				HashSet ids = new HashSet();
+				ids.add(String.valueOf(random.nextInt(edges / 10)));
+				mapped.getSubgraphTargets(ids, new HashSet(), null, null, new Graph(), targets, null);
+			}
+			long mapQuery = System.nanoTime() - start;
+			long mapMemory = usedMemory() - before;
+			env.debug("GraphSnapshot benchmark pass "+pass+
+				" ser: "+env.getFile(ser).length()+" bytes, save "+serSave/1000000+" ms, load "+serLoad/1000000+" ms, heap "+serMemory/1024+" KB;"+
+				" bin: "+env.getFile(bin).length()+" bytes, save "+binSave/1000000+" ms, load "+binLoad/1000000+" ms, heap "+binMemory/1024+" KB;"+
+				" mapped: open "+mapOpen/1000000+" ms, 1000 subgraph lookups "+mapQuery/1000000+" ms, "+targets.size()+" targets, heap "+mapMemory/1024+" KB");
+			mapped = null;
+		}
+		env.getFile(ser).delete();
+		env.getFile(bin).delete();
+	}
+	
+	private static long usedMemory(){
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+	
+	public static void main(String[] args) {
+		Mainer env = new Mainer();
+		if (args == null || args.length < 1){
+			env.debug("Options: convert <dir> [delete] | benchmark [edges <count>] [path <dir>]");
+			return;
+		}
+		if ("convert".equalsIgnoreCase(args[0]) && args.length > 1){
+			int converted = convert(env, args[1], Str.has(args, "delete"));
+			env.debug("GraphSnapshot converted "+converted+" graphs at "+new Date());
+		} else
+		if ("benchmark".equalsIgnoreCase(args[0]))
+			benchmark(env, Integer.parseInt(Str.arg(args, "edges", "2000000")), Str.arg(args, "path", "."));
+	}
+}
@@ -24,6 +24,10 @@
 package net.webstructor.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
 
 import net.webstructor.al.AL;
 import net.webstructor.al.Parser;
@@ -31,6 +35,7 @@ import net.webstructor.al.Seq;
 import net.webstructor.core.Environment;
 import net.webstructor.main.Mainer;
 import net.webstructor.util.Array;
+import net.webstructor.util.Str;
 
 /**
  * Counts:
@@ -42,6 +47,8 @@ public class LangPack {
 	private Counter words = null; 
 	private Counter positives = null; 
 	private Counter negatives = null; 
+	private TokenTrie sentiments = new TokenTrie();//positives and negatives compiled for sentiment
+	private HashSet scrubs = new HashSet();
 	
 	public LangPack(Environment env){
 		
@@ -75,6 +82,9 @@ public class LangPack {
 					"no", "yes", "own", "may", "mine", "me", "each", "can", "could", "would", "should", "had", "has",
 					"when", "out", "also", "only", "about", "us", "via", "then", "who", "which"
 					})};
+		for (int l = 0; l < langs.length; l++)
+			for (int i = 0; i < langs[l].scrubs.length; i++)
+				scrubs.add(langs[l].scrubs[i]);
 		loadLexicon(env);
 	}
 	//TODO: unify '-' and '&' as either scrub, special and splitters!!!
@@ -126,6 +136,9 @@ public class LangPack {
 			positives = loadCounter(env, positives, "lexicon_positive", langs[l].name);
 			negatives = loadCounter(env, negatives, "lexicon_negative", langs[l].name);
 		}
+		//positives take precedence over negatives, as they are looked up first
+		sentiments.put(positives, 1);
+		sentiments.put(negatives, -1);
 	}
 	
 	//TODO: to other place 
@@ -154,11 +167,7 @@ public class LangPack {
 		//TODO: move dash check to parser or replace dashes with scrubsymbols?
 		if (Array.containsOnly(s, AL.dashes))
 			return true;
-//TODO: hashtable
-		for (int l = 0; l < langs.length; l++)
-			if (Array.contains(langs[l].scrubs,s))
-				return true;
-		return false;
+		return scrubs.contains(s);
 	}
 	
 	//TODO: to Array/Str utils
@@ -217,47 +226,66 @@ public class LangPack {
 	}
 	boolean sentiment_logarithmic = false;
 	boolean sentiment_maximized = true;
+	/**
+	 * Scores text against lexicon of positive and negative phrases up to 3 words,
+	 * matching longer phrases first, so each word counts once at most.
+	 * @param input text to score
+	 * @param pc list to collect positive phrases or null
+	 * @param nc list to collect negative phrases or null
+	 * @return array of positive, negative and overall sentiment
+	 */
 	public int[] sentiment(String input, ArrayList pc, ArrayList nc) {
-		Seq seq = Parser.parse(input);
+		return sentiment(parse(input), pc, nc);
+	}
+	
+	/**
+	 * Tokenizes text to be scored for sentiment, same way for single texts and ones scored in batches by TextScorer.
+	 * @param input text to tokenize
+	 * @return lowercase tokens with urls kept whole and quoted text joined
+	 */
+	public Seq parse(String input) {
+		return Parser.parse(input);
+	}
+	
+	/**
+	 * Scores parsed text, see sentiment(String,ArrayList,ArrayList).
+	 * @param seq lowercase tokens of the text, consumed by matched phrases
+	 */
+	public int[] sentiment(Seq seq, ArrayList pc, ArrayList nc) {
 		double p = 0;
 		double n = 0;
-		//double c = 0;
 		for (int N = 3; N >=1; N--) {//iterate N of N-grams
-			Seq seqNgrams = buildNGrams(seq, N);
-			if (!AL.empty(seqNgrams)) for (int i = 0; i < seqNgrams.size();) {
-				String w = (String)seqNgrams.get(i);//some may be null seing consumed earlier
-				if (w == null || scrub(w)) {
+			for (int i = 0, size = seq.size() - N + 1; i < size;) {
+				TokenTrie w = sentiments.get(seq, i, N);//null if not in lexicon or some word is consumed earlier
+				//lexicon phrases are trimmed, so only single words may be scrubs
+				if (w == null || (N == 1 && scrub(seq.get(i).toString()))) {
 					i++;
 					continue;
 				}
-				//c += N;//weighted
-				boolean found = false; 
-				if (positives.get(w) != null) {
+				if (w.value() > 0) {
 					p += N;//weighted
 					if (pc != null)
-						pc.add(w);
-					found = true;
-				} else
-				if (negatives.get(w) != null) {
+						pc.add(w.key());
+				} else {
 					n += N;//weighted
 					if (nc != null)
-						nc.add(w);
-					found = true;
+						nc.add(w.key());
 				}
-				if (found) {
-					for (int Ni = 0; Ni < N; Ni++)
-						seq.set(i + Ni, null);
-					i += N;
-				} else
-					i++;
+				for (int Ni = 0; Ni < N; Ni++)
+					seq.set(i + Ni, null);
+				i += N;
 			}
 		}
+		return sentiment(p, n, seq.size());
+	}
+	
+	private int[] sentiment(double p, double n, int size) {
 		if (sentiment_logarithmic) {
-			p = Math.log10(1 + 100 * p / seq.size())/2;
-			n = Math.log10(1 + 100 * n / seq.size())/2;
+			p = Math.log10(1 + 100 * p / size)/2;
+			n = Math.log10(1 + 100 * n / size)/2;
 		}else {
-			p = p / seq.size();
-			n = n / seq.size();
+			p = p / size;
+			n = n / size;
 		}
 		if (sentiment_maximized) {
 			double max = Math.max(p, n);
@@ -288,7 +316,108 @@ public class LangPack {
 		System.out.format("%s %s %s %s %s %s\n",s[2],s[0],s[1],text,p,n);
 	}
 
+	//random texts made of words and phrases of the lexicons, for benchmarks
+	static String[] texts(LangPack lp, int count, int length) {
+		Object[] words = lp.words.keySet().toArray();
+		Object[] phrases = new Object[lp.positives.size() + lp.negatives.size()];
+		int k = 0;
+		for (Iterator it = lp.positives.keySet().iterator(); it.hasNext();)
+			phrases[k++] = it.next();
+		for (Iterator it = lp.negatives.keySet().iterator(); it.hasNext();)
+			phrases[k++] = it.next();
+		Random random = new Random(1);
+		String[] texts = new String[count];
+		for (int i = 0; i < count; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < length; j++) {
+				if (j > 0)
+					sb.append(j % 15 == 0 ? ". " : " ");
+				sb.append(random.nextInt(10) == 0 ? phrases[random.nextInt(phrases.length)] : words[random.nextInt(words.length)]);
+			}
+			texts[i] = sb.toString();
+		}
+		return texts;
+	}
+	
+	//former lookup of n-gram strings, as the reference for the benchmark to verify the compiled lexicon against
+	private static int[] sentimentNGrams(LangPack lp, String input, ArrayList pc, ArrayList nc) {
+		Seq seq = Parser.parse(input);
+		double p = 0;
+		double n = 0;
+		//double c = 0;
+		for (int N = 3; N >=1; N--) {//iterate N of N-grams
+			Seq seqNgrams = lp.buildNGrams(seq, N);
+			if (!AL.empty(seqNgrams)) for (int i = 0; i < seqNgrams.size();) {
+				String w = (String)seqNgrams.get(i);//some may be null seing consumed earlier
+				if (w == null || lp.scrub(w)) {
+					i++;
+					continue;
+				}
+				//c += N;//weighted
+				boolean found = false; 
+				if (lp.positives.get(w) != null) {
+					p += N;//weighted
+					if (pc != null)
+						pc.add(w);
+					found = true;
+				} else
+				if (lp.negatives.get(w) != null) {
+					n += N;//weighted
+					if (nc != null)
+						nc.add(w);
+					found = true;
+				}
+				if (found) {
+					for (int Ni = 0; Ni < N; Ni++)
+						seq.set(i + Ni, null);
+					i += N;
+				} else
+					i++;
+			}
+		}
+		return lp.sentiment(p, n, seq.size());
+	}
+	
+	/**
+	 * Scores random texts made of words and phrases of the bundled lexicons
+	 * with both compiled and n-gram string lookups, verifying the results are the same.
+	 */
+	private static void benchmark(Environment env, int count, int length, int times) {
+		long start = System.currentTimeMillis();
+		LangPack lp = new LangPack(env);
+		env.debug("LangPack benchmark lexicon "+lp.words.size()+" sentiments "+lp.sentiments.size()+" loaded "+(System.currentTimeMillis() - start)+" ms");
+		String[] texts = texts(lp, count, length);
+		long chars = 0;
+		for (int i = 0; i < count; i++)
+			chars += texts[i].length();
+		for (int i = 0; i < count; i++) {
+			ArrayList p1 = new ArrayList(), n1 = new ArrayList(), p2 = new ArrayList(), n2 = new ArrayList();
+			int[] s1 = lp.sentiment(texts[i], p1, n1);
+			int[] s2 = sentimentNGrams(lp, texts[i], p2, n2);
+			if (!Arrays.equals(s1, s2) || !p1.equals(p2) || !n1.equals(n2)) {
+				env.debug("LangPack benchmark mismatch on "+texts[i]+" "+p1+" "+n1+" vs "+p2+" "+n2);
+				return;
+			}
+		}
+		for (int t = 0; t < times; t++) {
+			for (int pass = 0; pass < 2; pass++) {
+				long sum = 0;
+				start = System.currentTimeMillis();
+				for (int i = 0; i < count; i++)
+					sum += (pass == 0 ? sentimentNGrams(lp, texts[i], null, null) : lp.sentiment(texts[i]))[0];
+				long took = Math.max(1, System.currentTimeMillis() - start);
+				env.debug("LangPack benchmark "+(pass == 0 ? "ngrams" : "compiled")+" texts "+count+" chars "+chars
+					+" positive "+sum+" took "+took+" ms, "+(chars / took / 1000)+" Mchars/s");
+			}
+		}
+	}
+	
 	public static void main(String args[]){
+		if (args != null && args.length > 0 && "benchmark".equalsIgnoreCase(args[0])) {
+			benchmark(new Mainer(), Integer.parseInt(Str.arg(args, "texts", "10000")),
+				Integer.parseInt(Str.arg(args, "words", "200")), Integer.parseInt(Str.arg(args, "times", "3")));
+			return;
+		}
 		LangPack lp = new LangPack(new Mainer()); 
 
 		for (int i = 0; i < 4; i++) {
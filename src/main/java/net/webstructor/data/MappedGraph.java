@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Graph backed by memory-mapped binary snapshot written by GraphSnapshot.
+ * Only index of contexts is kept on heap when opened, while linkers of each context are paged in 
+ * from the mapped file on first access. Pages obtained for reading may be released back under memory pressure, 
+ * pages obtained for adding are pinned in memory till the graph is saved and mapped again.
+ * Access to the pages is synchronized on the graph, as GraphCacher does when releasing and saving them.
+ */
+public class MappedGraph extends Graph {
+	private static final long serialVersionUID = -1577049839151416417L;
+
+	transient private ByteBuffer buffer;
+	transient private HashMap index;//context name -> context position in snapshot 
+	transient private String[] nodes;//lazily decoded dictionary
+	transient private HashSet pinned = new HashSet();
+	transient private int contextCount, linkerCount, edgeCount, complexCount, itemCount;
+	transient private int nodeOffsets, heap, contextNodes, contextLinkers, linkerProperties, linkerEdges;
+	transient private int edgeTargets, edgeKinds, edgeValues, complexItems, itemFlags, itemA, itemB;
+	
+	/**
+	 * Opens snapshot file as mapped graph.
+	 * @return graph or null if the file does not exist
+	 * @throws IOException if file is not a valid snapshot or can not be mapped 
+	 */
+	public static MappedGraph open(File file) throws IOException {
+		if (!file.exists() || file.isDirectory())
+			return null;
+		return new MappedGraph(map(file));
+	}
+	
+	private static ByteBuffer map(File file) throws IOException {
+		if (file.length() > Integer.MAX_VALUE)
+			throw new IOException("Graph snapshot is too large to map "+file.getPath());
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();//mapping stays valid after the channel is closed
+		}
+	}
+	
+	MappedGraph(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.limit() < GraphSnapshot.HEADER_BYTES || buffer.getInt(0) != GraphSnapshot.SIGNATURE)
+			throw new IOException("Invalid graph snapshot signature");
+		int version = buffer.getInt(4);
+		if (version != GraphSnapshot.VERSION)
+			throw new IOException("Unsupported graph snapshot version "+version);
+		long age = buffer.getLong(8);
+		int nodeCount = buffer.getInt(16);
+		int heapSize = buffer.getInt(20);
+		contextCount = buffer.getInt(24);
+		linkerCount = buffer.getInt(28);
+		edgeCount = buffer.getInt(32);
+		complexCount = buffer.getInt(36);
+		itemCount = buffer.getInt(40);
+		long pos = GraphSnapshot.HEADER_BYTES;
+		nodeOffsets = (int)pos; pos += (nodeCount + 1) * 4L;
+		heap = (int)pos; pos += heapSize;
+		contextNodes = (int)pos; pos += contextCount * 4L;
+		contextLinkers = (int)pos; pos += (contextCount + 1) * 4L;
+		linkerProperties = (int)pos; pos += linkerCount * 4L;
+		linkerEdges = (int)pos; pos += (linkerCount + 1) * 4L;
+		edgeTargets = (int)pos; pos += edgeCount * 4L;
+		edgeKinds = (int)pos; pos += edgeCount;
+		edgeValues = (int)pos; pos += edgeCount * 8L;
+		complexItems = (int)pos; pos += (complexCount + 1) * 4L;
+		itemFlags = (int)pos; pos += itemCount;
+		itemA = (int)pos; pos += itemCount * 8L;
+		itemB = (int)pos; pos += itemCount * 8L;
+		if (pos != buffer.limit())
+			throw new IOException("Invalid graph snapshot length "+buffer.limit()+" expected "+pos);
+		nodes = new String[nodeCount];
+		index = new HashMap(GraphSnapshot.capacity(contextCount));
+		for (int c = 0; c < contextCount; c++)
+			index.put(node(buffer.getInt(contextNodes + c * 4)), Integer.valueOf(c));
+		setAge(age);
+		setModified(false);
+	}
+	
+	/**
+	 * Maps the snapshot just saved from this graph, so the pages in memory match the mapped ones 
+	 * and all of them may be released again.
+	 */
+	synchronized void remap(File file) throws IOException {
+		MappedGraph saved = new MappedGraph(map(file));
+		buffer = saved.buffer;
+		index = saved.index;
+		nodes = saved.nodes;
+		contextCount = saved.contextCount; linkerCount = saved.linkerCount; edgeCount = saved.edgeCount;
+		complexCount = saved.complexCount; itemCount = saved.itemCount;
+		nodeOffsets = saved.nodeOffsets; heap = saved.heap; contextNodes = saved.contextNodes; 
+		contextLinkers = saved.contextLinkers; linkerProperties = saved.linkerProperties; linkerEdges = saved.linkerEdges;
+		edgeTargets = saved.edgeTargets; edgeKinds = saved.edgeKinds; edgeValues = saved.edgeValues;
+		complexItems = saved.complexItems; itemFlags = saved.itemFlags; itemA = saved.itemA; itemB = saved.itemB;
+		pinned.clear();
+	}
+	
+	private String node(int id){
+		String node = nodes[id];
+		if (node == null){
+			int from = buffer.getInt(nodeOffsets + id * 4), to = buffer.getInt(nodeOffsets + id * 4 + 4);
+			byte[] bytes = new byte[to - from];
+			ByteBuffer b = buffer.duplicate();
+			b.position(heap + from);
+			b.get(bytes);
+			nodes[id] = node = new String(bytes, GraphSnapshot.UTF8);
+		}
+		return node;
+	}
+
+	//read all linkers of the context from the mapped file 
+	private HashMap page(int c){
+		int from = buffer.getInt(contextLinkers + c * 4), to = buffer.getInt(contextLinkers + c * 4 + 4);
+		HashMap linkers = new HashMap(GraphSnapshot.capacity(to - from));
+		for (int l = from; l < to; l++){
+			int edgeFrom = buffer.getInt(linkerEdges + l * 4), edgeTo = buffer.getInt(linkerEdges + l * 4 + 4);
+			Counter counter = new Counter(GraphSnapshot.capacity(edgeTo - edgeFrom));
+			for (int e = edgeFrom; e < edgeTo; e++){
+				byte kind = buffer.get(edgeKinds + e);
+				long value = buffer.getLong(edgeValues + e * 8);
+				Object o;
+				if (kind == GraphSnapshot.KIND_COMPLEX){
+					int itemFrom = buffer.getInt(complexItems + (int)value * 4), itemTo = buffer.getInt(complexItems + (int)value * 4 + 4);
+					ComplexNumber[] cn = new ComplexNumber[itemTo - itemFrom];
+					for (int i = itemFrom; i < itemTo; i++)
+						cn[i - itemFrom] = GraphSnapshot.complex(buffer.get(itemFlags + i), buffer.getLong(itemA + i * 8), buffer.getLong(itemB + i * 8));
+					o = cn;
+				} else
+					o = GraphSnapshot.number(kind, value);
+				counter.put(node(buffer.getInt(edgeTargets + e * 4)), o);
+			}
+			linkers.put(node(buffer.getInt(linkerProperties + l * 4)), counter);
+		}
+		return linkers;
+	}
+	
+	public synchronized Set getSources(){
+		HashSet sources = new HashSet(index.keySet());
+		sources.addAll(super.getSources());//ones added on top of snapshot
+		return sources;
+	}
+
+	/**
+	 * Pages obtained with add=false are meant for reading, changes made to them are only kept 
+	 * if they are found by release, which pins changed pages instead of dropping them.
+	 */
+	public synchronized HashMap getLinkers(Object context,boolean add) {
+		HashMap linkers = super.getLinkers(context, false);//paged or added earlier
+		if (linkers == null){
+			Integer c = (Integer)index.get(context);
+			if (c != null)
+				putLinkers(context, linkers = page(c.intValue()));
+		}
+		if (add){
+			if (linkers == null)
+				linkers = super.getLinkers(context, true);
+			pinned.add(context);
+		}
+		return linkers;
+	}
+	
+	public synchronized void normalize(){
+		pin();
+		super.normalize();
+	}
+
+	public synchronized void clear(){
+		super.clear();
+		index.clear();
+		pinned.clear();
+	}
+	
+	//pin all pages in memory so they are not released
+	private void pin(){
+		for (Iterator it = getSources().iterator(); it.hasNext();)
+			getLinkers(it.next(), true);
+	}
+	
+	/**
+	 * Releases pages which are not modified, so they are paged in again on next access.
+	 * Pages changed since they were paged in for reading get pinned instead. 
+	 * @return number of released pages
+	 */
+	public synchronized int release(){
+		int released = 0;
+		for (Iterator it = new HashSet(super.getSources()).iterator(); it.hasNext();){
+			Object context = it.next();
+			Integer c = (Integer)index.get(context);
+			if (c == null || pinned.contains(context))
+				continue;
+			if (same(page(c.intValue()), super.getLinkers(context, false))){
+				removeLinkers(context);
+				released++;
+			} else
+				pinned.add(context);
+		}
+		return released;
+	}
+	
+	//compare linkers by values, including arrays of complex numbers
+	private static boolean same(HashMap paged, HashMap linkers){
+		if (linkers == null || paged.size() != linkers.size())
+			return false;
+		for (Iterator it = paged.entrySet().iterator(); it.hasNext();){
+			Map.Entry e = (Map.Entry)it.next();
+			Object linker = linkers.get(e.getKey());
+			if (!(linker instanceof Counter) || ((Counter)linker).size() != ((Counter)e.getValue()).size())
+				return false;
+			for (Iterator vit = ((Counter)e.getValue()).entrySet().iterator(); vit.hasNext();){
+				Map.Entry v = (Map.Entry)vit.next();
+				Object value = ((Counter)linker).get(v.getKey());
+				if (!(v.getValue() instanceof ComplexNumber[] ? same((ComplexNumber[])v.getValue(), value) : v.getValue().equals(value)))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean same(ComplexNumber[] paged, Object value){
+		if (!(value instanceof ComplexNumber[]) || ((ComplexNumber[])value).length != paged.length)
+			return false;
+		for (int i = 0; i < paged.length; i++){
+			ComplexNumber cn = ((ComplexNumber[])value)[i];
+			if (!equal(paged[i].a, cn.a) || !equal(paged[i].b, cn.b))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean equal(Object a, Object b){
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	/**
+	 * @return number of contexts paged in memory
+	 */
+	public synchronized int paged(){
+		return super.getSources().size();
+	}
+	
+	//serialize as plain graph with all pages in memory
+	private synchronized Object writeReplace(){
+		Graph graph = new Graph();
+		for (Iterator it = getSources().iterator(); it.hasNext();){
+			Object context = it.next();
+			graph.putLinkers(context, getLinkers(context, false));
+		}
+		graph.setAge(getAge());
+		return graph;
+	}
+}
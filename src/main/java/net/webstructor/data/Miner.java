@@ -222,7 +222,7 @@ public class Miner {
 		HashMap allTargetSources = new HashMap();//all original features to be merged 
 		HashMap targetSources = new HashMap();//currently merged features
 		
-		Counter total = new Counter();
+		Accumulator total = new Accumulator();
 		for (Iterator sources = sourceTargets.keySet().iterator(); sources.hasNext();) {
 			Object source = sources.next(); 
 			Linker linker = (Linker)sourceTargets.get(source);
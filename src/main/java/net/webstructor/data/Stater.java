@@ -34,9 +34,9 @@ public interface Stater {
 	public boolean hasState(Object date, String[] domains);//TODO: domains/dimensions!?
 	public Map getLinkers(Object date);
 	public Map getLinkers(Object date, String[] domains);//TODO: domains/dimensions!?
-	//TODO: put
 	public void add(Object date, Object account, Object domain, Object dimension, int intvalue);
 	public void add(Object date, Object domain, Object dimension, Linker byaccount);
+	public void put(Object date, Object domain, Object dimension, Linker byaccount);//replacing values
 }
 
 
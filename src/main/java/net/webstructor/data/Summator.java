@@ -43,7 +43,7 @@ public class Summator extends HashMap implements Linker {
 	public Summator(Linker other) {
 		for (Iterator it = other.keys().iterator(); it.hasNext();){
 			Object key = it.next();
-			Number val = value(key);
+			Number val = other.value(key);
 			put(key,new Double(val.doubleValue()));
 		}
 	}
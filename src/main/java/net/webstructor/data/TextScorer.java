@@ -0,0 +1,290 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.webstructor.al.AL;
+import net.webstructor.al.Parser;
+import net.webstructor.al.Seq;
+import net.webstructor.core.Environment;
+import net.webstructor.main.Mainer;
+import net.webstructor.util.Str;
+
+/**
+ * Scores batches of texts at once, tokenizing each text once for all of the features
+ * and spreading texts across threads.
+ */
+public class TextScorer {
+	public static final int SENTIMENT = 1;
+	public static final int WORDS = 2;
+	public static final int NGRAMS = 4;
+	
+	static final int min_chunk = 16;//texts per thread not worth spreading below that
+	static final String delimiters = AL.commas+AL.periods;
+	
+	/**
+	 * Compact features of a single text.
+	 */
+	public static class Result {
+		public int[] sentiment = null;//positive, negative and overall sentiment, as of LangPack.sentiment
+		public String[] words = null;//words in order of their first appearance, as of SocialFeeder.countWords
+		public int[] counts = null;
+		public String[] ngrams = null;//space-delimited sequences of 2 or more adjacent words
+		public int[] ngramCounts = null;
+		
+		/**
+		 * Adds counts of words of the text to the counter.
+		 * @param counter to add word counts to
+		 * @return the counter
+		 */
+		public Counter count(Counter counter){
+			if (words != null)
+				for (int i = 0; i < words.length; i++)
+					counter.count(words[i],counts[i]);
+			return counter;
+		}
+	}
+	
+	private static ExecutorService executor = null;//shared by all scorers, with daemon threads not holding the process
+	
+	private static synchronized ExecutorService executor() {
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TextScorer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return executor;
+	}
+	
+	protected LangPack langPack;
+	protected int features;
+	protected int ngrams;
+	protected int threads;
+	
+	public TextScorer(LangPack langPack, int features){
+		this(langPack, features, 2, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param langPack language pack providing lexicons 
+	 * @param features combination of SENTIMENT, WORDS and NGRAMS
+	 * @param ngrams maximum length of n-grams counted with NGRAMS
+	 * @param threads number of threads of the shared pool to score in at once
+	 */
+	public TextScorer(LangPack langPack, int features, int ngrams, int threads){
+		this.langPack = langPack;
+		this.features = features;
+		this.ngrams = ngrams;
+		this.threads = Math.max(1, threads);
+	}
+	
+	public Result[] score(Collection texts){
+		return score((String[])texts.toArray(new String[texts.size()]));
+	}
+	
+	/**
+	 * @param texts texts to score, with null or empty texts having empty results
+	 * @return results in order of the texts
+	 */
+	public Result[] score(final String[] texts){
+		final Result[] results = new Result[texts.length];
+		int threads = Math.min(this.threads, texts.length / min_chunk);
+		if (threads < 2) {
+			for (int i = 0; i < texts.length; i++)
+				results[i] = score(texts[i]);
+			return results;
+		}
+		ExecutorService executor = executor();
+		try {
+			ArrayList futures = new ArrayList(threads);
+			int chunk = (texts.length + threads - 1) / threads;
+			for (int from = 0; from < texts.length; from += chunk) {
+				final int begin = from, end = Math.min(from + chunk, texts.length);
+				futures.add(executor.submit(new Callable() {
+					public Object call() {
+						for (int i = begin; i < end; i++)
+							results[i] = score(texts[i]);
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++)
+				((Future)futures.get(i)).get();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+	
+	public Result score(String text){
+		Result result = new Result();
+		if (AL.empty(text))
+			return result;
+		Seq seq = null;
+		if ((features & (WORDS | NGRAMS)) != 0) {
+			//lowercase but urls, not quoting, as SocialFeeder.countWords does
+			seq = Parser.parse(text,null,false,true,false,true);
+			HashMap words = (features & WORDS) != 0 ? new HashMap() : null;
+			HashMap grams = (features & NGRAMS) != 0 ? new HashMap() : null;
+			String[] window = grams != null ? new String[ngrams] : null;
+			int windowed = 0;
+			for (int i = 0; i < seq.size(); i++) {
+				String token = (String)seq.get(i);
+				//split abbreviations, numbers and urls kept whole by parser, as SocialFeeder.countWords does
+				for (int from = 0, to; from < token.length(); from = to + 1) {
+					for (to = from; to < token.length(); to++) {
+						char c = token.charAt(to);
+						if (delimiters.indexOf(c) != -1 && !(AL.urls.indexOf(c) != -1 && AL.isURL(token.substring(from, to))))
+							break;
+					}
+					String word = from == 0 && to == token.length() ? token : token.substring(from, to);
+					if (AL.isURL(word)) {
+						windowed = 0;//n-grams do not span urls, punctuation and scrubs
+						continue;
+					}
+					if ((word = langPack.lowertrim(word)).length() == 0 || langPack.scrub(word)) {
+						windowed = 0;
+						continue;
+					}
+					if (words != null)
+						count(words, word);
+					if (grams != null) {
+						System.arraycopy(window, 1, window, 0, window.length - 1);
+						window[window.length - 1] = word;
+						if (windowed < window.length)
+							windowed++;
+						StringBuilder sb = new StringBuilder(word);
+						for (int n = 2; n <= windowed; n++)
+							count(grams, sb.insert(0, ' ').insert(0, window[window.length - n]).toString());
+					}
+				}
+			}
+			if (words != null) {
+				result.words = keys(words);
+				result.counts = counts(words, result.words);
+			}
+			if (grams != null) {
+				result.ngrams = keys(grams);
+				result.ngramCounts = counts(grams, result.ngrams);
+			}
+		}
+		//tokens of LangPack.parse differ from the ones above only by quoted text being joined, so those are reused if there are no quotes
+		if ((features & SENTIMENT) != 0)
+			result.sentiment = langPack.sentiment(seq == null || quoted(text) ? langPack.parse(text) : seq, null, null);//consumes the sequence, so goes last
+		return result;
+	}
+	
+	private static boolean quoted(String text){
+		for (int i = 0; i < AL.quotes.length(); i++)
+			if (text.indexOf(AL.quotes.charAt(i)) != -1)
+				return true;
+		return false;
+	}
+	
+	//values are kept as int[]{count, order of first appearance} to avoid boxing
+	private static void count(HashMap map, String key){
+		int[] c = (int[])map.get(key);
+		if (c == null)
+			map.put(key, new int[]{1, map.size()});
+		else
+			c[0]++;
+	}
+	
+	private static String[] keys(HashMap map){
+		String[] keys = new String[map.size()];
+		for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+			Map.Entry e = (Map.Entry)it.next();
+			keys[((int[])e.getValue())[1]] = (String)e.getKey();
+		}
+		return keys;
+	}
+	
+	private static int[] counts(HashMap map, String[] keys){
+		int[] counts = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			counts[i] = ((int[])map.get(keys[i]))[0];
+		return counts;
+	}
+	
+	private static void benchmark(Environment env, int count, int length, int threads) {
+		LangPack lp = new LangPack(env);
+		String[] texts = LangPack.texts(lp, count, length);
+		long chars = 0;
+		for (int i = 0; i < count; i++)
+			chars += texts[i].length();
+		TextScorer scorer = new TextScorer(lp, SENTIMENT | WORDS, 2, threads);
+		Counter[] counters = new Counter[count];
+		int[][] sentiments = new int[count][];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			sentiments[i] = lp.sentiment(texts[i]);
+			SocialFeeder.countWords(lp, texts[i], counters[i] = new Counter());
+		}
+		long took = Math.max(1, System.currentTimeMillis() - start);
+		env.debug("TextScorer benchmark single texts "+count+" chars "+chars+" took "+took+" ms, "+(chars / took / 1000)+" Mchars/s");
+		start = System.currentTimeMillis();
+		Result[] results = scorer.score(texts);
+		took = Math.max(1, System.currentTimeMillis() - start);
+		env.debug("TextScorer benchmark batch texts "+count+" chars "+chars+" threads "+threads+" took "+took+" ms, "+(chars / took / 1000)+" Mchars/s");
+		int differentWords = 0, differentSentiments = 0;
+		for (int i = 0; i < count; i++) {
+			if (!counters[i].equals(results[i].count(new Counter())))
+				differentWords++;
+			if (!Arrays.equals(sentiments[i], results[i].sentiment))
+				differentSentiments++;
+		}
+		env.debug("TextScorer benchmark different words "+differentWords+" sentiments "+differentSentiments);
+		scorer = new TextScorer(lp, NGRAMS, 3, threads);
+		start = System.currentTimeMillis();
+		results = scorer.score(texts);
+		long ngrams = 0;
+		for (int i = 0; i < count; i++)
+			ngrams += results[i].ngrams.length;
+		env.debug("TextScorer benchmark ngrams "+ngrams+" took "+(System.currentTimeMillis() - start)+" ms");
+	}
+	
+	public static void main(String args[]){
+		if (args == null || args.length < 1){
+			System.out.println("Options: benchmark [texts <count>] [words <count>] [threads <count>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0]))
+			benchmark(new Mainer(), Integer.parseInt(Str.arg(args, "texts", "10000")), Integer.parseInt(Str.arg(args, "words", "200")),
+				Integer.parseInt(Str.arg(args, "threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+	}
+}
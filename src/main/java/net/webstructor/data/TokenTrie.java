@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import net.webstructor.al.Seq;
+
+/**
+ * Dictionary of space-delimited phrases compiled into a trie of tokens,
+ * so n-grams of a parsed sequence can be looked up in place,
+ * without building the n-gram strings.
+ */
+class TokenTrie {
+	private HashMap children = null;
+	private String key = null;//phrase ending at this node, if any
+	private int value = 0;
+
+	/**
+	 * Adds phrases of the counter, keeping the value of phrases added earlier.
+	 * @param counter phrases to add
+	 * @param value non-zero value to assign to the phrases
+	 */
+	void put(Counter counter, int value){
+		if (counter != null)
+			for (Iterator it = counter.keySet().iterator(); it.hasNext();)
+				put((String)it.next(), value);
+	}
+	
+	void put(String phrase, int value){
+		TokenTrie node = this;
+		for (int from = 0;;){
+			int to = phrase.indexOf(' ', from);
+			String token = phrase.substring(from, to == -1 ? phrase.length() : to);
+			if (node.children == null)
+				node.children = new HashMap();
+			TokenTrie child = (TokenTrie)node.children.get(token);
+			if (child == null)
+				node.children.put(token, child = new TokenTrie());
+			node = child;
+			if (to == -1)
+				break;
+			from = to + 1;
+		}
+		if (node.value == 0){
+			node.key = phrase;
+			node.value = value;
+		}
+	}
+	
+	private TokenTrie child(String token){
+		if (token.indexOf(' ') == -1)
+			return children == null ? null : (TokenTrie)children.get(token);
+		//quoted token may hold spaces itself
+		TokenTrie node = this;
+		for (int from = 0; node != null;){
+			int to = token.indexOf(' ', from);
+			node = node.children == null ? null : (TokenTrie)node.children.get(token.substring(from, to == -1 ? token.length() : to));
+			if (to == -1)
+				break;
+			from = to + 1;
+		}
+		return node;
+	}
+	
+	/**
+	 * @param seq sequence of tokens, with null in place of the consumed ones
+	 * @param pos position of the first token
+	 * @param n number of tokens
+	 * @return node of the phrase made of exactly n tokens if it is in the trie, null otherwise
+	 */
+	TokenTrie get(Seq seq, int pos, int n){
+		TokenTrie node = this;
+		for (int i = 0; i < n && node != null; i++){
+			Object token = seq.get(pos + i);
+			if (token == null)
+				return null;
+			node = node.child(token.toString());
+		}
+		return node == null || node.value == 0 ? null : node;
+	}
+	
+	String key(){
+		return key;
+	}
+	
+	int value(){
+		return value;
+	}
+	
+	int size(){
+		int size = value == 0 ? 0 : 1;
+		if (children != null)
+			for (Iterator it = children.values().iterator(); it.hasNext();)
+				size += ((TokenTrie)it.next()).size();
+		return size;
+	}
+}
@@ -0,0 +1,993 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import net.webstructor.al.AL;
+import net.webstructor.al.Time;
+import net.webstructor.core.Environment;
+import net.webstructor.core.Filer;
+import net.webstructor.main.Mainer;
+import net.webstructor.util.Str;
+
+/**
+ * Inverted index of words to pages in daily segments, used by Siter and Searcher 
+ * in place of "worded" links in daily graphs of GraphCacher.
+ * Pages are numbered once in the dictionary shared by all days, listing page paths line by line.
+ * Daily segment keeps postings of every word as ids of pages in ascending order along with counts of the word on the page, 
+ * delta and varint encoded both in memory and on disk.
+ * Pages indexed since the segment is loaded are kept apart and merged into the postings on query or save,
+ * replacing postings of the same pages indexed earlier the same day, so repeated reads are not counted twice.
+ * Pages are ranked for the words across days by BM25, with top-k pruning of pages which can not get in the top anymore.
+ * Once segments of past days are cleared, the dictionary is compacted on save, when pages left in no segment 
+ * take half of it, renumbering the pages in the segments left.
+ * Compaction writes renumbered segments and the dictionary aside and replaces the ones in use only once all are written,
+ * so compaction interrupted is either completed or discarded on load.
+ * Segment layout (big-endian): signature, version, count of pages followed by varint deltas of their ids,
+ * varint counts of words on the pages in the same order (since version 2),
+ * count of words followed by UTF word, length of its postings and the postings for every word.
+ */
+public class WordIndex implements Cacher {
+	public static final String EXT = "idx";
+	
+	static final int SIGNATURE = 0x41575831;//"AWX1"
+	static final int VERSION = 2;
+	
+	private static final int CHUNK = 1 << 16;
+	private static final String PAGES = "pages.txt";
+	private static final double K1 = 1.2;//BM25 saturation of counts of words
+	private static final double B = 0.75;//BM25 normalization by lengths of pages
+	private static final int COMPACTION_PERCENT = 50;//share of pages left in no segment to compact the dictionary
+	private static final String COMPACTED = ".compacted";//suffix of files written aside by compaction
+	
+	static class Segment {
+		HashMap words = new HashMap();//word -> postings
+		BitSet pages = new BitSet();//ids of pages in postings
+		HashMap added = new HashMap();//page id -> Counter of its words, not merged yet
+		int[] lengths = new int[0];//page id -> count of words on the page in postings
+		long length = 0;//total count of words on the pages in postings
+		boolean modified = false;
+	}
+	
+	private HashMap segments = new HashMap();//day -> Segment, keyed by string so any time of the day gets the same segment
+	private ArrayList pages = null;//page id -> path, loaded lazily
+	private HashMap pageIds = null;//path -> page id
+	private int savedPages = 0;//number of pages written to the dictionary
+	private boolean pruned = true;//if segments may have been deleted since the dictionary was compacted, so it is checked on save
+	private Environment env;
+	private String pathDir;
+	private double[] scores = new double[0];//page id -> score of the page on the day being searched
+	private double[] bests = new double[0];//page id -> best score of the page on the days searched
+	
+	public WordIndex(String name, Environment env, String path){
+		this.env = env;
+		this.pathDir = (AL.empty(path) ? "" : path + (path.endsWith("/") ? "" : "/")) + name + "_words";//"www_words"
+		env.register(name + "_words", this);
+	}
+
+	public WordIndex(String name, Environment env){
+		this(name, env, null);
+	}
+	
+	/**
+	 * Indexes words of the page for the day, replacing words of the page indexed earlier the same day.
+	 * @param date day of the page
+	 * @param path page path
+	 * @param words words of the page, repeated as many times as they appear
+	 */
+	public synchronized void index(Date date, String path, Collection words){
+		if (env.checkMemory() > MEMORY_THRESHOLD)
+			freeUnsync(date);
+		Counter counter = new Counter();
+		for (Iterator it = words.iterator(); it.hasNext();)
+			counter.count(it.next().toString());
+		segment(date).added.put(new Integer(page(path)), counter);
+	}
+	
+	/**
+	 * Counts pages containing the words on the day.
+	 * @param date day to search
+	 * @param words words to search 
+	 * @param counter counter of page paths to the numbers of the words they contain
+	 * @return the counter
+	 */
+	public synchronized Counter count(Date date, Collection words, Counter counter){
+		Segment segment = segment(date);
+		merge(segment);
+		for (Iterator it = new HashSet(words).iterator(); it.hasNext();){
+			byte[] postings = (byte[])segment.words.get(it.next().toString());
+			if (postings == null)
+				continue;
+			int[] decoded = decode(postings);
+			for (int i = 0; i < decoded.length; i += 2)
+				if (decoded[i] < pages.size())//sanity check
+					counter.count(pages.get(decoded[i]));
+		}
+		return counter;
+	}
+	
+	/**
+	 * Tells if pages are indexed for the day, so the day does not have to be searched otherwise.
+	 * @param date day to check
+	 * @return true if there is a segment for the day
+	 */
+	public synchronized boolean indexed(Date date){
+		String day = Time.day(date,false);
+		Segment segment = (Segment)segments.get(day);
+		if (segment != null && !(segment.pages.isEmpty() && segment.added.isEmpty()))
+			return true;
+		return env.getFile(path(day)).exists();
+	}
+	
+	/**
+	 * Ranks pages containing any of the words on the days by BM25, keeping the best score of a page across the days.
+	 * @param date last day to search
+	 * @param days number of days to search before the last day
+	 * @param words words to search
+	 * @param k number of best pages to return, 0 for all
+	 * @return paths of the pages in descending order of their scores
+	 */
+	public synchronized String[] search(Date date, int days, Collection words, int k){
+		return search(date, days, words, k, true);
+	}
+	
+	//with pruning, words are scored from rarer to more frequent ones and once the pages having the rarer words 
+	//can not be outscored by the pages having only the words left, the pages having only the words left are not scored  
+	private String[] search(Date date, int days, Collection words, int k, boolean pruning){
+		if (pageIds == null)
+			loadPages();
+		if (scores.length < pages.size()){
+			scores = new double[pages.size()];
+			bests = new double[pages.size()];
+		}
+		GraphSnapshot.IntColumn found = new GraphSnapshot.IntColumn(1024);//pages scored on any day
+		GraphSnapshot.IntColumn scored = new GraphSnapshot.IntColumn(1024);//pages scored on the day
+		double max = 0;//best score so far, the top can not be outscored unless the words left can score more
+		double least = 0;//lowest score in the top as found last time, it only grows while scoring
+		for (int d = 0; d <= days; d++){
+			Segment segment = segment(Time.date(date,-d));
+			merge(segment);
+			int n = segment.pages.cardinality();
+			if (n == 0)
+				continue;
+			double average = (double)segment.length / n;
+			ArrayList postings = new ArrayList();
+			for (Iterator it = new HashSet(words).iterator(); it.hasNext();){
+				byte[] p = (byte[])segment.words.get(it.next().toString());
+				if (p != null)
+					postings.add(decode(p));
+			}
+			int[][] terms = (int[][])postings.toArray(new int[postings.size()][]);
+			Arrays.sort(terms, new java.util.Comparator(){
+				public int compare(Object a, Object b){
+					return ((int[])a).length - ((int[])b).length;
+				}});
+			double[] idfs = new double[terms.length];
+			double[] bounds = new double[terms.length + 1];//highest score of pages having only the words starting from the index
+			int[] left = new int[terms.length + 1];//count of postings of the words starting from the index
+			for (int t = terms.length - 1; t >= 0; t--){
+				int df = terms[t].length / 2;
+				idfs[t] = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+				bounds[t] = bounds[t + 1] + idfs[t] * (K1 + 1);
+				left[t] = left[t + 1] + df;
+			}
+			boolean adding = true;
+			scored.size = 0;
+			for (int t = 0; t < terms.length; t++){
+				int[] pairs = terms[t];
+				for (int i = 0; i < pairs.length; i += 2){
+					int id = pairs[i];
+					if (id >= scores.length)//sanity check
+						continue;
+					if (scores[id] == 0){//scores are positive once counted
+						if (!adding)
+							continue;
+						scored.add(id);
+					}
+					double tf = pairs[i + 1];
+					int length = id < segment.lengths.length ? segment.lengths[id] : 0;
+					if (max < (scores[id] += idfs[t] * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / average))))
+						max = scores[id];
+				}
+				//find the top only if it is worth it, with the postings left to be scored exceeding the pages scored 
+				if (pruning && k > 0 && adding && scored.size + found.size >= k && bounds[t + 1] < max && left[t + 1] > scored.size + found.size)
+					adding = bounds[t + 1] >= least && bounds[t + 1] >= (least = threshold(scored, found, k));
+			}
+			for (int i = 0; i < scored.size; i++){
+				int id = scored.data[i];
+				if (bests[id] == 0)
+					found.add(id);
+				if (bests[id] < scores[id])
+					bests[id] = scores[id];
+				scores[id] = 0;
+			}
+		}
+		//pages in the top, in descending order of scores and ascending order of ids for the same scores
+		scored.size = 0;
+		double threshold = k > 0 && found.size > k ? threshold(scored, found, k) : 0;
+		ArrayList top = new ArrayList();
+		for (int i = 0; i < found.size; i++){
+			int id = found.data[i];
+			if (bests[id] >= threshold)
+				top.add(new Object[]{new Double(bests[id]), new Integer(id)});
+			bests[id] = 0;
+		}
+		Collections.sort(top, new java.util.Comparator(){
+			public int compare(Object a, Object b){
+				Object[] oa = (Object[])a, ob = (Object[])b;
+				int c = ((Double)ob[0]).compareTo((Double)oa[0]);
+				return c != 0 ? c : ((Integer)oa[1]).compareTo((Integer)ob[1]);
+			}});
+		String[] paths = new String[k > 0 ? Math.min(k, top.size()) : top.size()];
+		for (int i = 0; i < paths.length; i++)
+			paths[i] = (String)pages.get(((Integer)((Object[])top.get(i))[1]).intValue());
+		return paths;
+	}
+	
+	//k-th best score of the pages scored on the day or on the earlier days, the lowest score to be in the top
+	private double threshold(GraphSnapshot.IntColumn scored, GraphSnapshot.IntColumn found, int k){
+		double[] heap = new double[k];//min-heap of the best scores
+		int size = 0;
+		for (int m = 0; m < 2; m++){
+			GraphSnapshot.IntColumn ids = m == 0 ? scored : found;
+			for (int i = 0; i < ids.size; i++){
+				int id = ids.data[i];
+				if (m == 1 && scores[id] != 0)//counted with the day
+					continue;
+				double score = Math.max(scores[id], bests[id]);
+				if (size < k){
+					int c = size++;
+					for (; c > 0 && heap[(c - 1) / 2] > score; c = (c - 1) / 2)
+						heap[c] = heap[(c - 1) / 2];
+					heap[c] = score;
+				} else
+				if (score > heap[0]){
+					int c = 0;
+					for (int child; (child = 2 * c + 1) < size; c = child){
+						if (child + 1 < size && heap[child + 1] < heap[child])
+							child++;
+						if (heap[child] >= score)
+							break;
+						heap[c] = heap[child];
+					}
+					heap[c] = score;
+				}
+			}
+		}
+		return size < k ? 0 : heap[0];
+	}
+	
+	/**
+	 * Saves modified segments and new pages of the dictionary, compacting the dictionary if segments were deleted.
+	 */
+	public synchronized void save(){
+		for (Iterator it = segments.entrySet().iterator(); it.hasNext();){
+			Map.Entry e = (Map.Entry)it.next();
+			save((String)e.getKey(), (Segment)e.getValue());
+		}
+		if (pruned)
+			compact();
+	}
+	
+	@Override
+	public synchronized void clear(boolean everything, Date till){
+		if (everything){
+			segments.clear();
+			pages = null;
+			pageIds = null;
+			savedPages = 0;
+			pruned = false;
+			new Filer(env).del(pathDir);
+		} else
+		if (till != null){
+			String still = Time.day(till,false);
+			for (Iterator it = segments.keySet().iterator(); it.hasNext();)
+				if (((String)it.next()).compareTo(still) < 0)
+					it.remove();
+			File dir = env.getFile(pathDir);
+			String[] files = dir.isDirectory() ? dir.list() : null;
+			if (files != null)
+				for (int i = 0; i < files.length; i++)
+					if (files[i].endsWith("."+EXT) && files[i].compareTo(still) < 0)
+						pruned |= new File(dir, files[i]).delete();
+		}
+	}
+	
+	@Override
+	public synchronized void free(){
+		freeUnsync(null);
+	}
+	
+	private void freeUnsync(Date except){
+		save();
+		String day = except == null ? null : Time.day(except,false);
+		for (Iterator it = segments.keySet().iterator(); it.hasNext();)
+			if (!it.next().equals(day))
+				it.remove();
+	}
+	
+	private String path(String day){
+		return pathDir+"/"+day+"."+EXT;
+	}
+	
+	private Segment segment(Date date){
+		String day = Time.day(date,false);
+		Segment segment = (Segment)segments.get(day);
+		if (segment == null){
+			segment = load(path(day));
+			segments.put(day, segment);
+		}
+		return segment;
+	}
+	
+	private int page(String path){
+		if (pageIds == null)
+			loadPages();
+		Integer id = (Integer)pageIds.get(path);
+		if (id == null){
+			pageIds.put(path, id = new Integer(pages.size()));
+			pages.add(path);
+		}
+		return id.intValue();
+	}
+	
+	//merge pages added since load into postings, dropping earlier postings of the same pages 
+	static void merge(Segment segment){
+		if (segment.added.isEmpty())
+			return;
+		int[] ids = new int[segment.added.size()];
+		int n = 0;
+		boolean replacing = false;
+		for (Iterator it = segment.added.keySet().iterator(); it.hasNext();){
+			int id = ((Integer)it.next()).intValue();
+			replacing |= segment.pages.get(id);
+			ids[n++] = id;
+		}
+		Arrays.sort(ids);
+		//new postings of words in ascending order of pages
+		HashMap additions = new HashMap();
+		for (int i = 0; i < ids.length; i++){
+			Integer id = new Integer(ids[i]);
+			Counter counter = (Counter)segment.added.get(id);
+			int length = 0;
+			for (Iterator it = counter.entrySet().iterator(); it.hasNext();){
+				Map.Entry e = (Map.Entry)it.next();
+				GraphSnapshot.IntColumn column = (GraphSnapshot.IntColumn)additions.get(e.getKey());
+				if (column == null)
+					additions.put(e.getKey(), column = new GraphSnapshot.IntColumn(8));
+				column.add(ids[i]);
+				column.add(((Integer)e.getValue()).intValue());
+				length += ((Integer)e.getValue()).intValue();
+			}
+			segment.length += length - length(segment, ids[i], length);
+		}
+		//if pages are indexed again, every word may have to drop them, otherwise only the added words are changed
+		Collection words = additions.keySet();
+		if (replacing){
+			words = new HashSet(words);
+			words.addAll(segment.words.keySet());
+		}
+		BitSet replaced = new BitSet();
+		for (int i = 0; i < ids.length; i++)
+			replaced.set(ids[i]);
+		for (Iterator it = words.iterator(); it.hasNext();){
+			Object word = it.next();
+			byte[] postings = (byte[])segment.words.get(word);
+			int[] old = postings == null ? new int[0] : decode(postings);
+			GraphSnapshot.IntColumn added = (GraphSnapshot.IntColumn)additions.get(word);
+			int[] merged = new int[old.length + (added == null ? 0 : added.size())];
+			int size = 0;
+			for (int o = 0, a = 0; o < old.length || (added != null && a < added.size());){
+				if (o < old.length && replaced.get(old[o]))
+					o += 2;
+				else
+				if (o < old.length && (added == null || a >= added.size() || old[o] < added.data[a])){
+					merged[size++] = old[o++];
+					merged[size++] = old[o++];
+				} else {
+					merged[size++] = added.data[a++];
+					merged[size++] = added.data[a++];
+				}
+			}
+			if (size == 0)
+				segment.words.remove(word);
+			else
+				segment.words.put(word, encode(merged, size));
+		}
+		segment.pages.or(replaced);
+		segment.added.clear();
+		segment.modified = true;
+	}
+	
+	//set length of the page, returning the former one
+	static int length(Segment segment, int id, int length){
+		if (id >= segment.lengths.length)
+			segment.lengths = Arrays.copyOf(segment.lengths, Math.max(id + 1, segment.lengths.length * 2));
+		int old = segment.lengths[id];
+		segment.lengths[id] = length;
+		return old;
+	}
+	
+	//encode pairs of ascending page ids and counts
+	static byte[] encode(int[] pairs, int size){
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size + 2);
+		writeVarint(out, size / 2);
+		for (int i = 0, last = 0; i < size; i += 2){
+			writeVarint(out, pairs[i] - last);
+			writeVarint(out, pairs[i + 1]);
+			last = pairs[i];
+		}
+		return out.toByteArray();
+	}
+	
+	static int[] decode(byte[] postings){
+		int[] pos = new int[1];
+		int[] pairs = new int[readVarint(postings, pos) * 2];
+		for (int i = 0, last = 0; i < pairs.length; i += 2){
+			pairs[i] = last += readVarint(postings, pos);
+			pairs[i + 1] = readVarint(postings, pos);
+		}
+		return pairs;
+	}
+	
+	static void writeVarint(ByteArrayOutputStream out, int value){
+		while ((value & ~0x7F) != 0){
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7){
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+	
+	static int readVarint(byte[] data, int[] pos){
+		int value = 0;
+		for (int shift = 0;; shift += 7){
+			byte b = data[pos[0]++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+	
+	private void loadPages(){
+		recover();
+		pages = new ArrayList();
+		pageIds = new HashMap();
+		File file = env.getFile(pathDir+"/"+PAGES);
+		if (file.exists()){
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),"UTF-8"));
+				for (String line; (line = reader.readLine()) != null;){
+					pageIds.put(line, new Integer(pages.size()));
+					pages.add(line);
+				}
+			} catch (IOException e) {
+				env.error("WordIndex can not read "+file.getPath(), e);
+			} finally {
+				try {
+					if (reader != null)
+						reader.close();
+				} catch (IOException e) {}//ignore
+			}
+		}
+		savedPages = pages.size();
+	}
+	
+	//append new pages to the dictionary, so the ids in the segments remain valid
+	private boolean savePages(){
+		if (pages == null || savedPages == pages.size())
+			return true;
+		if (!writePages(env.getFile(pathDir+"/"+PAGES), pages, savedPages))
+			return false;
+		savedPages = pages.size();
+		return true;
+	}
+	
+	//write pages starting from given id, appending them to the file unless writing all of them
+	private boolean writePages(File file, ArrayList pages, int from){
+		file.getParentFile().mkdirs();
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file, from > 0),CHUNK),"UTF-8");
+			for (int i = from; i < pages.size(); i++)
+				writer.write(pages.get(i)+"\n");
+			writer.close();
+			writer = null;
+			return true;
+		} catch (IOException e) {
+			env.error("WordIndex can not write "+file.getPath(), e);
+			return false;
+		} finally {
+			try {
+				if (writer != null)
+					writer.close();
+			} catch (IOException e) {}//ignore
+		}
+	}
+	
+	private void save(String day, Segment segment){
+		merge(segment);
+		if (!segment.modified || !savePages())
+			return;
+		String path = path(day);
+		File file = env.getFile(path);
+		File tmp = new File(file.getPath()+".tmp");
+		try {
+			write(tmp, segment);
+			replace(tmp, file);
+			segment.modified = false;
+		} catch (IOException e) {
+			env.error("WordIndex can not write "+path, e);
+		} finally {
+			if (tmp.exists())
+				tmp.delete();
+		}
+	}
+	
+	private static void write(File file, Segment segment) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),CHUNK));
+		try {
+			out.writeInt(SIGNATURE);
+			out.writeInt(VERSION);
+			ByteArrayOutputStream ids = new ByteArrayOutputStream();
+			ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+			int count = 0;
+			for (int id = segment.pages.nextSetBit(0), last = 0; id >= 0; id = segment.pages.nextSetBit(id + 1), count++){
+				writeVarint(ids, id - last);
+				writeVarint(lengths, id < segment.lengths.length ? segment.lengths[id] : 0);
+				last = id;
+			}
+			out.writeInt(count);
+			ids.writeTo(out);
+			lengths.writeTo(out);
+			Object[] words = segment.words.keySet().toArray();
+			Arrays.sort(words);
+			out.writeInt(words.length);
+			for (int i = 0; i < words.length; i++){
+				byte[] postings = (byte[])segment.words.get(words[i]);
+				out.writeUTF((String)words[i]);
+				out.writeInt(postings.length);
+				out.write(postings);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	//replace the file by the one written aside, so readers never see it partially written
+	private static void replace(File tmp, File file) throws IOException {
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	//drop pages left in none of the segments saved from the dictionary, renumbering pages in the segments, 
+	//when the dropped pages take enough of the dictionary 
+	private void compact(){
+		pruned = false;
+		File dir = env.getFile(pathDir);
+		String[] files = dir.isDirectory() ? dir.list() : null;
+		if (files == null)
+			return;
+		if (pageIds == null)
+			loadPages();
+		for (Iterator it = segments.values().iterator(); it.hasNext();)
+			if (((Segment)it.next()).modified)
+				return;//not saved, so pages of it are not known on disk
+		BitSet live = new BitSet();
+		ArrayList days = new ArrayList();
+		for (int i = 0; i < files.length; i++){
+			if (!files[i].endsWith("."+EXT))
+				continue;
+			String day = files[i].substring(0, files[i].length() - EXT.length() - 1);
+			Segment segment = (Segment)segments.get(day);
+			if (segment != null)
+				live.or(segment.pages);
+			else
+			if (!loadPages(path(day), live))
+				return;//can not renumber pages of the segment
+			days.add(day);
+		}
+		int count = pages.size();
+		if ((count - live.cardinality()) * 100 < count * COMPACTION_PERCENT)
+			return;
+		int[] ids = new int[count];
+		ArrayList compacted = new ArrayList(live.cardinality());
+		HashMap compactedIds = new HashMap();
+		for (int id = 0; id < count; id++)
+			if (live.get(id)){
+				ids[id] = compacted.size();
+				compactedIds.put(pages.get(id), new Integer(compacted.size()));
+				compacted.add(pages.get(id));
+			} else
+				ids[id] = -1;
+		//write renumbered segments and then the dictionary aside, keeping the ones in use intact until all are written,
+		//the dictionary written aside marks the compaction complete, so recover() finishes it if interrupted after that
+		HashMap renumbered = new HashMap();
+		try {
+			for (int i = 0; i < days.size(); i++){
+				String day = (String)days.get(i);
+				Segment segment = (Segment)segments.get(day);
+				if (segment == null)
+					segment = load(path(day));
+				segment = renumber(segment, ids);
+				write(env.getFile(path(day)+COMPACTED), segment);
+				if (segments.containsKey(day))
+					renumbered.put(day, segment);
+			}
+			File file = env.getFile(pathDir+"/"+PAGES);
+			File tmp = new File(file.getPath()+".tmp");
+			if (!writePages(tmp, compacted, 0))
+				throw new IOException("can not write "+tmp.getPath());
+			replace(tmp, new File(file.getPath()+COMPACTED));
+		} catch (IOException e) {
+			env.error("WordIndex can not compact "+pathDir, e);
+			recover();//discards what is written aside as the dictionary is not
+			return;
+		}
+		if (!recover()){
+			//files are left partially replaced, so reload all from them once recovered
+			segments.clear();
+			pages = null;
+			pageIds = null;
+			return;
+		}
+		segments.putAll(renumbered);
+		pages = compacted;
+		pageIds = compactedIds;
+		savedPages = pages.size();
+		env.debug("WordIndex compacted pages "+count+" to "+pages.size());
+	}
+	
+	//complete the compaction interrupted once all of its files are written aside, or discard them if it is interrupted before,
+	//replacing the segments first and the dictionary last
+	private boolean recover(){
+		File dir = env.getFile(pathDir);
+		String[] files = dir.isDirectory() ? dir.list() : null;
+		if (files == null)
+			return true;
+		File file = env.getFile(pathDir+"/"+PAGES);
+		File dictionary = new File(file.getPath()+COMPACTED);
+		boolean complete = dictionary.exists();
+		try {
+			for (int i = 0; i < files.length; i++){
+				if (!files[i].endsWith("."+EXT+COMPACTED))
+					continue;
+				File segment = new File(dir, files[i]);
+				if (!complete)
+					segment.delete();
+				else
+					replace(segment, new File(dir, files[i].substring(0, files[i].length() - COMPACTED.length())));
+			}
+			if (complete)
+				replace(dictionary, file);
+			return true;
+		} catch (IOException e) {
+			env.error("WordIndex can not recover "+pathDir, e);
+			return false;
+		}
+	}
+	
+	//renumber pages in the segment given new ids of old ones, keeping the order of the pages, 
+	//returning the renumbered copy so the segment is intact till the renumbered one is saved
+	static Segment renumber(Segment segment, int[] ids){
+		merge(segment);
+		Segment renumbered = new Segment();
+		for (int id = segment.pages.nextSetBit(0); id >= 0; id = segment.pages.nextSetBit(id + 1)){
+			int to = ids[id];
+			renumbered.pages.set(to);
+			if (to >= renumbered.lengths.length)
+				renumbered.lengths = Arrays.copyOf(renumbered.lengths, Math.max(to + 1, renumbered.lengths.length * 2));
+			renumbered.lengths[to] = id < segment.lengths.length ? segment.lengths[id] : 0;
+		}
+		for (Iterator it = segment.words.entrySet().iterator(); it.hasNext();){
+			Map.Entry e = (Map.Entry)it.next();
+			int[] pairs = decode((byte[])e.getValue());
+			for (int i = 0; i < pairs.length; i += 2)
+				pairs[i] = ids[pairs[i]];
+			renumbered.words.put(e.getKey(), encode(pairs, pairs.length));
+		}
+		renumbered.length = segment.length;
+		return renumbered;
+	}
+	
+	//read ids of pages in the segment file, without its postings
+	private boolean loadPages(String path, BitSet pages){
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(env.getFile(path)),CHUNK));
+			int version;
+			if (in.readInt() != SIGNATURE || (version = in.readInt()) < 1 || version > VERSION)
+				throw new IOException("unsupported format");
+			for (int count = in.readInt(), id = 0; count > 0; count--)
+				pages.set(id += readVarint(in));
+			return true;
+		} catch (IOException e) {
+			env.error("WordIndex can not read "+path, e);
+			return false;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {}//ignore
+		}
+	}
+	
+	private Segment load(String path){
+		Segment segment = new Segment();
+		File file = env.getFile(path);
+		if (!file.exists() || file.isDirectory())
+			return segment;
+		if (pageIds == null)
+			loadPages();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),CHUNK));
+			int version;
+			if (in.readInt() != SIGNATURE || (version = in.readInt()) < 1 || version > VERSION)
+				throw new IOException("unsupported format");
+			int[] ids = new int[in.readInt()];
+			for (int i = 0, id = 0; i < ids.length; i++)
+				segment.pages.set(ids[i] = id += readVarint(in));
+			if (version >= 2)
+				for (int i = 0; i < ids.length; i++){
+					int length = readVarint(in);
+					length(segment, ids[i], length);
+					segment.length += length;
+				}
+			for (int count = in.readInt(); count > 0; count--){
+				String word = in.readUTF();
+				byte[] postings = new byte[in.readInt()];
+				in.readFully(postings);
+				segment.words.put(word, postings);
+				if (version < 2){//count lengths of pages from postings
+					int[] pairs = decode(postings);
+					for (int i = 0; i < pairs.length; i += 2){
+						length(segment, pairs[i], (pairs[i] < segment.lengths.length ? segment.lengths[pairs[i]] : 0) + pairs[i + 1]);
+						segment.length += pairs[i + 1];
+					}
+				}
+			}
+		} catch (IOException e) {
+			env.error("WordIndex can not read "+path, e);
+			segment = new Segment();
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {}//ignore
+		}
+		return segment;
+	}
+	
+	/**
+	 * Indexes random pages both with "worded" links in Graph and with WordIndex, 
+	 * comparing sizes, timings and results of queries.
+	 */
+	static void benchmark(Environment env, int count, int length, String dir){
+		Random random = new Random(1);
+		String[] vocabulary = new String[50000];
+		for (int i = 0; i < vocabulary.length; i++)
+			vocabulary[i] = "w"+i;
+		Date date = Time.today(0);
+		WordIndex index = new WordIndex("benchmark", env, dir);
+		index.clear(true, null);
+		Graph graph = new Graph();
+		long graphTime = 0, indexTime = 0;
+		for (int p = 0; p < count; p++){
+			String path = "http://site"+(p % 100)+".com/page"+p;
+			ArrayList words = new ArrayList(length);
+			for (int i = 0; i < length; i++)
+				words.add(vocabulary[(int)Math.min(vocabulary.length - 1, Math.floor(Math.pow(vocabulary.length + 1, random.nextDouble())) - 1)]);
+			long start = System.nanoTime();
+			for (int i = 0; i < words.size(); i++)
+				graph.addValue(words.get(i), path, "worded", 1);
+			graphTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			index.index(date, path, words);
+			indexTime += System.nanoTime() - start;
+		}
+		long start = System.nanoTime();
+		String graphPath = dir+"/benchmark_worded."+GraphSnapshot.EXT;
+		GraphSnapshot.save(env, graph, graphPath);
+		long graphSave = System.nanoTime() - start;
+		start = System.nanoTime();
+		index.save();
+		long indexSave = System.nanoTime() - start;
+		long indexBytes = 0;
+		File[] files = env.getFile(index.pathDir).listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			indexBytes += files[i].length();
+		
+		System.gc();
+		long before = usedMemory();
+		graph = GraphSnapshot.load(env, graphPath);
+		long graphMemory = usedMemory() - before;
+		System.gc();
+		before = usedMemory();
+		index = new WordIndex("benchmark", env, dir);
+		index.count(date, new ArrayList(), new Counter());//loads the segment
+		long indexMemory = usedMemory() - before;
+		
+		int mismatches = 0;
+		long graphQuery = 0, indexQuery = 0, found = 0;
+		for (int q = 0; q < 1000; q++){
+			HashSet words = new HashSet();
+			for (int i = 0; i < 3; i++)
+				words.add(vocabulary[random.nextInt(vocabulary.length / 10)]);
+			Counter byGraph = new Counter(), byIndex = new Counter();
+			start = System.nanoTime();
+			graph.countTargets(words, null, byGraph);
+			graphQuery += System.nanoTime() - start;
+			start = System.nanoTime();
+			index.count(date, words, byIndex);
+			indexQuery += System.nanoTime() - start;
+			found += byIndex.size();
+			if (!byGraph.equals(byIndex))
+				mismatches++;
+		}
+		env.debug("WordIndex benchmark pages "+count+" words "+length+" graph: index "+graphTime/1000000+" ms, save "+graphSave/1000000+" ms, "
+			+env.getFile(graphPath).length()+" bytes, heap "+graphMemory/1024+" KB, 1000 queries "+graphQuery/1000000+" ms;"
+			+" index: index "+indexTime/1000000+" ms, save "+indexSave/1000000+" ms, "
+			+indexBytes+" bytes, heap "+indexMemory/1024+" KB, 1000 queries "+indexQuery/1000000+" ms, found "+found+", mismatches "+mismatches);
+		env.getFile(graphPath).delete();
+		index.clear(true, null);
+	}
+	
+	/**
+	 * Indexes random pages re-crawled over the days and queries them for the best pages, 
+	 * the way Searcher did by counts of words found on the pages and by BM25 with and without pruning,
+	 * comparing latencies of the queries and results of pruning.
+	 */
+	static void ranking(Environment env, int count, int days, int length, int k, String dir){
+		Random random = new Random(1);
+		String[] vocabulary = new String[50000];
+		for (int i = 0; i < vocabulary.length; i++)
+			vocabulary[i] = "w"+i;
+		Date date = Time.today(0);
+		WordIndex index = new WordIndex("benchmark", env, dir);
+		index.clear(true, null);
+		for (int d = 0; d <= days; d++)
+			for (int p = 0; p < count; p++){
+				String path = "http://site"+(p % 100)+".com/page"+random.nextInt(count * 3);//pages are found again on other days
+				ArrayList words = new ArrayList(length);
+				for (int i = 0, l = length / 2 + random.nextInt(length); i < l; i++)
+					words.add(vocabulary[(int)Math.min(vocabulary.length - 1, Math.floor(Math.pow(vocabulary.length + 1, random.nextDouble())) - 1)]);
+				index.index(Time.date(date,-d), path, words);
+			}
+		index.save();
+		index = new WordIndex("benchmark", env, dir);
+		for (int d = 0; d <= days; d++)
+			index.count(Time.date(date,-d), new ArrayList(), new Counter());//loads the segments
+		
+		int queries = 1000, mismatches = 0;
+		long[] counting = new long[queries], ranking = new long[queries], exhaustive = new long[queries];//latencies of the queries
+		long found = 0;
+		for (int q = -queries / 10; q < queries; q++){//first queries warm up
+			if (q == 0)
+				found = mismatches = 0;
+			int at = Math.max(q, 0);
+			HashSet words = new HashSet();
+			for (int i = 0, n = 2 + random.nextInt(3); i < n; i++)//topic word along with more common ones
+				words.add(vocabulary[i == 0 ? 100 + random.nextInt(5000) : random.nextInt(1000)]);
+			
+			//by counts of the words on the pages, day by day till found, relaxing the count gradually
+			long start = System.nanoTime();
+			ArrayList candidates = new ArrayList();
+			for (int d = 0; d <= days && candidates.isEmpty(); d++){
+				Counter indexed = index.count(Time.date(date,-d), words, new Counter());
+				int max = 0;
+				for (Iterator it = indexed.values().iterator(); it.hasNext();)
+					max = Math.max(max, ((Number)it.next()).intValue());
+				for (int matches = max; matches > 0 && candidates.size() < k; matches--)
+					for (Iterator it = indexed.keys().iterator(); it.hasNext() && candidates.size() < k;){
+						Object path = it.next();
+						if (((Number)indexed.get(path)).intValue() == matches)
+							candidates.add(path);
+					}
+			}
+			long time = System.nanoTime() - start;
+			counting[at] = time;
+			
+			String[] top = null, all = null;
+			for (int pass = 0; pass < 2; pass++)//alternate the order, so both searches get warmed up equally 
+				if (pass == (q & 1)){
+					start = System.nanoTime();
+					top = index.search(date, days, words, k);
+					time = System.nanoTime() - start;
+					ranking[at] = time;
+				} else {
+					start = System.nanoTime();
+					all = index.search(date, days, words, k, false);
+					exhaustive[at] = System.nanoTime() - start;
+				}
+			found += top.length;
+			if (!Arrays.equals(top, all))
+				mismatches++;
+		}
+		env.debug("WordIndex ranking pages "+count+" days "+(days + 1)+" words "+length+" top "+k+" queries "+queries
+			+" counts: "+latencies(counting)+"; bm25: "+latencies(ranking)+", found "+found+";"
+			+" bm25 without pruning: "+latencies(exhaustive)+", mismatches "+mismatches);
+		index.clear(true, null);
+	}
+	
+	private static String latencies(long[] times){
+		times = (long[])times.clone();
+		Arrays.sort(times);
+		return "median "+times[times.length / 2]/1000+" mks, 99% "+times[times.length * 99 / 100]/1000+" mks";
+	}
+	
+	private static long usedMemory(){
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+	
+	public static void main(String[] args) {
+		Mainer env = new Mainer();
+		if (args == null || args.length < 1){
+			env.debug("Options: benchmark [pages <count>] [words <count>] [path <dir>]");
+			env.debug("Options: ranking [pages <count>] [days <count>] [words <count>] [top <count>] [path <dir>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0]))
+			benchmark(env, Integer.parseInt(Str.arg(args, "pages", "10000")), Integer.parseInt(Str.arg(args, "words", "500")), Str.arg(args, "path", "."));
+		if ("ranking".equalsIgnoreCase(args[0]))
+			ranking(env, Integer.parseInt(Str.arg(args, "pages", "5000")), Integer.parseInt(Str.arg(args, "days", "6")),
+				Integer.parseInt(Str.arg(args, "words", "500")), Integer.parseInt(Str.arg(args, "top", "100")), Str.arg(args, "path", "."));
+	}
+}
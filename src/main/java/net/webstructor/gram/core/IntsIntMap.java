@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.gram.core;
+
+//Open addressing hash table of int[] keys to positive int values, 
+//keeping the key arrays by reference and allowing lookups by ranges of arrays without copying them
+class IntsIntMap {
+	private int[][] keys;
+	private int[] hashes;
+	private int[] values;//0 for empty slot
+	private int size = 0;
+	private int mask;
+
+	IntsIntMap(int capacity) {
+		int length = 16;
+		while (length < capacity * 2)
+			length <<= 1;
+		keys = new int[length][];
+		hashes = new int[length];
+		values = new int[length];
+		mask = length - 1;
+	}
+	
+	//unlike java.util.Arrays.hashCode, does not collide on small ids and spreads over the lower bits
+	static int hash(int[] ints, int from, int length) {
+		int h = length;
+		for (int i = from, to = from + length; i < to; i++)
+			h = (h ^ ints[i]) * 0x9E3779B1;
+		h ^= h >>> 15;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+	
+	private static boolean equals(int[] key, int[] ints, int from, int length) {
+		if (key.length != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (key[i] != ints[from + i])
+				return false;
+		return true;
+	}
+	
+	//returns value for the key or 0 if there is no key
+	int get(int[] ints, int from, int length) {
+		int h = hash(ints, from, length);
+		for (int i = h & mask;; i = (i + 1) & mask) {
+			int value = values[i];
+			if (value == 0 || (hashes[i] == h && equals(keys[i], ints, from, length)))
+				return value;
+		}
+	}
+	
+	//the key array is kept by reference, so it must not be changed afterwards
+	void put(int[] key, int value) {
+		int h = hash(key, 0, key.length);
+		int i = h & mask;
+		for (; values[i] != 0; i = (i + 1) & mask)
+			if (hashes[i] == h && equals(keys[i], key, 0, key.length)) {
+				values[i] = value;
+				return;
+			}
+		keys[i] = key;
+		hashes[i] = h;
+		values[i] = value;
+		if (++size * 2 > keys.length)
+			grow();
+	}
+
+	private void grow() {
+		int[][] oldKeys = keys;
+		int[] oldHashes = hashes;
+		int[] oldValues = values;
+		keys = new int[oldKeys.length * 2][];
+		hashes = new int[oldHashes.length * 2];
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++)
+			if (oldValues[j] != 0) {
+				int i = oldHashes[j] & mask;
+				while (values[i] != 0)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				hashes[i] = oldHashes[j];
+				values[i] = oldValues[j];
+			}
+	}
+}
@@ -27,9 +27,14 @@ public class LinkItem extends Item
 {
 	private Long m_ids;
 	
+	public static long getKey(int id1,int id2)
+	{
+		return (((long)id1)<<32)|id2;
+	}
+	
 	public static Long getLong(int id1,int id2)
 	{
-		return new Long( (((long)id1)<<32)|id2 );
+		return new Long(getKey(id1,id2));
 	}
 	
 	public LinkItem(int id, float evidence, Long ids)
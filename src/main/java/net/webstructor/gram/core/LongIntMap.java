@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.gram.core;
+
+//Open addressing hash table of long keys to positive int values, with no boxing of either
+class LongIntMap {
+	private long[] keys;
+	private int[] values;//0 for empty slot
+	private int size = 0;
+	private int mask;
+
+	LongIntMap(int capacity) {
+		int length = 16;
+		while (length < capacity * 2)
+			length <<= 1;
+		keys = new long[length];
+		values = new int[length];
+		mask = length - 1;
+	}
+	
+	static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32));
+	}
+	
+	//returns value for the key or 0 if there is no key
+	int get(long key) {
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int value = values[i];
+			if (value == 0 || keys[i] == key)
+				return value;
+		}
+	}
+	
+	void put(long key, int value) {
+		int i = hash(key) & mask;
+		for (; values[i] != 0; i = (i + 1) & mask)
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length)
+			grow();
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++)
+			if (oldValues[j] != 0) {
+				int i = hash(oldKeys[j]) & mask;
+				while (values[i] != 0)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.gram.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import net.webstructor.util.Str;
+
+/**
+ * Memory store backed by memory-mapped binary file written by MappedStore.save.
+ * Items are read from the mapped file on first access by id or name and kept in memory from then on,
+ * so the file is never changed while new items and evidence are added in memory, to be saved to another file.
+ * Evidence of all items is kept in a separate section of the file, so getTopItems does not read the items.
+ * The file layout is: header, evidence by id, offsets of items by id, open addressing table of ids by names, items.
+ */
+public class MappedStore extends MemoryStore
+{
+	static final int SIGNATURE = 0x41474D31;//"AGM1"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 20;
+	
+	private ByteBuffer buffer;
+	private int mappedTop;//top id of the mapped file
+	private int mask;
+	private int evidences, offsets, table, items;//positions of sections
+	
+	/**
+	 * Opens binary store file as mapped store.
+	 * @return store or null if the file does not exist
+	 * @throws IOException if file is not a valid store or can not be mapped 
+	 */
+	public static MappedStore open(File file) throws IOException
+	{
+		if (!file.exists() || file.isDirectory())
+			return null;
+		if (file.length() > Integer.MAX_VALUE)
+			throw new IOException("Memory store is too large to map "+file.getPath());
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new MappedStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();//mapping stays valid after the channel is closed
+		}
+	}
+
+	MappedStore(ByteBuffer buffer) throws IOException
+	{
+		super(null);
+		this.buffer = buffer;
+		if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != SIGNATURE)
+			throw new IOException("Invalid memory store signature");
+		int version = buffer.getInt(4);
+		if (version != VERSION)
+			throw new IOException("Unsupported memory store version "+version);
+		mappedTop = buffer.getInt(8);
+		int tableLength = buffer.getInt(12);
+		int itemsLength = buffer.getInt(16);
+		long pos = HEADER_BYTES;
+		evidences = (int)pos; pos += (mappedTop + 1) * 4L;
+		offsets = (int)pos; pos += (mappedTop + 2) * 4L;
+		table = (int)pos; pos += tableLength * 4L;
+		items = (int)pos; pos += itemsLength;
+		if (pos != buffer.limit() || Integer.bitCount(tableLength) != 1)
+			throw new IOException("Invalid memory store length "+buffer.limit()+" expected "+pos);
+		mask = tableLength - 1;
+		m_topId = mappedTop;
+	}
+	
+	public Item getItem(int id)
+	{
+		Item i = super.getItem(id);
+		return i != null || id < 1 || id > mappedTop ? i : read(id);
+	}
+
+	public Item getItem(Object name)
+	{
+		Item i = super.getItem(name);
+		if (i == null && name instanceof Character)
+		{
+			char c = ((Character)name).charValue();
+			i = getItem(find(hash(c),MemoryType.CHARACTER,c,null,0,0));
+		}
+		return i;
+	}
+	
+	protected int linkId(long key)
+	{
+		int id = super.linkId(key);
+		return id != 0 ? id : find(LongIntMap.hash(key),MemoryType.LINK,key,null,0,0);
+	}
+	
+	protected int ngramId(int ids[],int from,int length)
+	{
+		int id = super.ngramId(ids,from,length);
+		return id != 0 ? id : find(IntsIntMap.hash(ids,from,length),MemoryType.STRING,0,ids,from,length);
+	}
+	
+	protected float getEvidence(int id)
+	{
+		if (id < 1 || id > mappedTop || isRead(id))
+			return super.getEvidence(id);
+		return buffer.getFloat(evidences + id * 4);//NaN if there is no item
+	}
+
+	private boolean isRead(int id)
+	{
+		return super.getItem(id) != null;
+	}
+	
+	//read the item from the mapped file and keep it in memory
+	private Item read(int id)
+	{
+		int from = buffer.getInt(offsets + id * 4);
+		if (from == buffer.getInt(offsets + id * 4 + 4))
+			return null;
+		int p = items + from;
+		float evidence = buffer.getFloat(evidences + id * 4);
+		Item i;
+		switch (buffer.get(p))
+		{
+		case MemoryType.CHARACTER:
+			i = new CharacterItem(id,evidence,new Character(buffer.getChar(p + 1)));
+			break;
+		case MemoryType.LINK:
+			i = new LinkItem(id,evidence,buffer.getInt(p + 1),buffer.getInt(p + 5));
+			break;
+		case MemoryType.STRING:
+			int ids[] = new int[buffer.getInt(p + 1)];
+			for (int k = 0; k < ids.length; k++)
+				ids[k] = buffer.getInt(p + 5 + k * 4);
+			i = new StringItem(id,evidence,new Ngram(ids));
+			break;
+		default:
+			return null;
+		}
+		return addItem(i);
+	}
+	
+	//find id of the mapped item by its name given by character, link key or range of ids, 0 if there is no such item
+	private int find(int hash, int type, long key, int ids[], int from, int length)
+	{
+		for (int s = hash & mask;; s = (s + 1) & mask)
+		{
+			int id = buffer.getInt(table + s * 4);
+			if (id == 0)
+				return 0;
+			int p = items + buffer.getInt(offsets + id * 4);
+			if (buffer.get(p) != type)
+				continue;
+			if (type == MemoryType.CHARACTER)
+			{
+				if (buffer.getChar(p + 1) == (char)key)
+					return id;
+			}
+			else
+			if (type == MemoryType.LINK)
+			{
+				if (buffer.getInt(p + 1) == (int)(key >> 32) && buffer.getInt(p + 5) == (int)key)
+					return id;
+			}
+			else
+			if (buffer.getInt(p + 1) == length)
+			{
+				int k = 0;
+				while (k < length && buffer.getInt(p + 5 + k * 4) == ids[from + k])
+					k++;
+				if (k == length)
+					return id;
+			}
+		}
+	}
+	
+	private static int hash(char c)
+	{
+		return LongIntMap.hash(c);
+	}
+	
+	private static int hash(Item i)
+	{
+		switch (i.getType())
+		{
+		case MemoryType.CHARACTER:
+			return hash(((Character)i.getName()).charValue());
+		case MemoryType.LINK:
+			return LongIntMap.hash(((Long)i.getName()).longValue());
+		default:
+			int ids[] = i.getIds();
+			return IntsIntMap.hash(ids,0,ids.length);
+		}
+	}
+	
+	/**
+	 * Saves any memory store to binary file that can be opened as mapped store.
+	 */
+	public static void save(MemoryStore store, File file) throws IOException
+	{
+		int top = store.m_topId;
+		float evidence[] = new float[top + 1];
+		int offset[] = new int[top + 2];
+		evidence[0] = Float.NaN;
+		int count = 0;
+		long length = 0;
+		for (int id = 1; id <= top; id++)
+		{
+			offset[id] = (int)length;
+			Item i = store.getItem(id);
+			evidence[id] = i == null ? Float.NaN : i.getEvidence();
+			if (i == null)
+				continue;
+			count++;
+			length += i.getType() == MemoryType.CHARACTER ? 3 : i.getType() == MemoryType.LINK ? 9 : 5 + 4 * i.getArity();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Memory store is too large to save "+file.getPath());
+		}
+		offset[top + 1] = (int)length;
+		int tableLength = 16;
+		while (tableLength < count * 2)
+			tableLength <<= 1;
+		int slots[] = new int[tableLength];
+		for (int id = 1; id <= top; id++)
+		{
+			Item i = store.getItem(id);
+			if (i == null)
+				continue;
+			int s = hash(i) & (tableLength - 1);
+			while (slots[s] != 0)
+				s = (s + 1) & (tableLength - 1);
+			slots[s] = id;
+		}
+		File tmp = new File(file.getPath()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),1<<16));
+		try {
+			out.writeInt(SIGNATURE);
+			out.writeInt(VERSION);
+			out.writeInt(top);
+			out.writeInt(tableLength);
+			out.writeInt((int)length);
+			for (int id = 0; id <= top; id++)
+				out.writeFloat(evidence[id]);
+			for (int id = 0; id <= top + 1; id++)
+				out.writeInt(offset[id]);
+			for (int s = 0; s < tableLength; s++)
+				out.writeInt(slots[s]);
+			for (int id = 1; id <= top; id++)
+			{
+				Item i = store.getItem(id);
+				if (i == null)
+					continue;
+				out.writeByte(i.getType());
+				if (i.getType() == MemoryType.CHARACTER)
+					out.writeChar(((Character)i.getName()).charValue());
+				else
+				{
+					int ids[] = i.getIds();
+					if (i.getType() != MemoryType.LINK)
+						out.writeInt(ids.length);
+					for (int k = 0; k < ids.length; k++)
+						out.writeInt(ids[k]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("Can not rename "+tmp.getPath()+" to "+file.getPath());
+	}
+	
+	/**
+	 * Converts text memory store file to binary one, comparing loading and querying of both. 
+	 * Usage: MappedStore <text_file> <binary_file> [queries 100000]
+	 */
+	public static void main(String args[])
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: MappedStore <text_file> <binary_file> [queries 100000]");
+			return;
+		}
+		int queries = Integer.parseInt(Str.arg(args,"queries","100000"));
+		try {
+			convert(args[0],new File(args[1]),queries);
+		} catch (IOException e) {
+			System.out.println(e+", convert");
+			e.printStackTrace();
+		}
+	}
+	
+	static void convert(String path, File binary, int queries) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		MemoryStore text = new MemoryStore(path);
+		long loadText = System.currentTimeMillis() - start;
+		start = System.currentTimeMillis();
+		save(text,binary);
+		long saveBinary = System.currentTimeMillis() - start;
+		start = System.currentTimeMillis();
+		MappedStore mapped = open(binary);
+		long openMapped = System.currentTimeMillis() - start;
+		
+		start = System.currentTimeMillis();
+		Item[] textTop = text.getTopItems(50);
+		long topText = System.currentTimeMillis() - start;
+		start = System.currentTimeMillis();
+		Item[] mappedTop = mapped.getTopItems(50);
+		long topMapped = System.currentTimeMillis() - start;
+		int mismatches = (textTop == null ? 0 : textTop.length) - (mappedTop == null ? 0 : mappedTop.length);
+		for (int i = 0; textTop != null && mappedTop != null && i < textTop.length && i < mappedTop.length; i++)
+			if (textTop[i].getId() != mappedTop[i].getId())
+				mismatches++;
+		
+		Random random = new Random(1);
+		start = System.currentTimeMillis();
+		for (int q = 0; q < queries; q++)
+		{
+			int id = 1 + random.nextInt(text.m_topId);
+			Item t = text.getItem(id), m = mapped.getItem(id);
+			if (t == null ? m != null : m == null || !t.equals(m) || t.getEvidence() != m.getEvidence())
+				mismatches++;
+			if (t != null && mapped.getItem(t.getName()) != m)
+				mismatches++;
+		}
+		long queryMapped = System.currentTimeMillis() - start;
+		System.out.println("MappedStore "+path+" items "+text.m_topId+" text bytes "+new File(path).length()+", binary bytes "+binary.length());
+		System.out.println("MappedStore load text "+loadText+" ms, save binary "+saveBinary+" ms, open mapped "+openMapped+" ms");
+		System.out.println("MappedStore top items text "+topText+" ms, mapped "+topMapped+" ms");
+		System.out.println("MappedStore "+queries+" queries by id and name "+queryMapped+" ms, mismatches "+mismatches);
+	}
+}
@@ -23,9 +23,11 @@
  */
 package net.webstructor.gram.core;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.BufferedReader;
@@ -33,14 +35,17 @@ import java.io.FileReader;
 
 import net.webstructor.gram.util.StringUtil;
 import net.webstructor.gram.util.Format;
+import net.webstructor.util.Str;
 
 public class MemoryStore 
 {
 	/* autoincrementing top id */
-	private int m_topId = 0;
+	protected int m_topId = 0;
 	
-	private HashMap m_byName = new HashMap();
-	private HashMap m_byId = new HashMap();
+	private Item[] m_byId = new Item[1024];
+	private LongIntMap m_links = new LongIntMap(1024);//link ids by pairs of ids
+	private IntsIntMap m_ngrams = new IntsIntMap(1024);//n-gram ids by arrays of ids
+	private HashMap m_byName = new HashMap();//other items by names
 	
 	public MemoryStore(String path)
 	{
@@ -49,18 +54,53 @@ public class MemoryStore
 	
 	public Item getItem(Object name)
 	{
+		if (name instanceof Long)
+			return getItem(linkId(((Long)name).longValue()));
+		if (name instanceof Ngram)
+		{
+			int ids[] = ((Ngram)name).m_ints;
+			return getItem(ngramId(ids,0,ids.length));
+		}
 		return (Item)m_byName.get(name);
 	}
 
+	//id of the link given by LinkItem.getKey or 0 if there is no such link
+	protected int linkId(long key)
+	{
+		return m_links.get(key);
+	}
+	
+	//id of the n-gram given by the range of the array of ids or 0 if there is no such n-gram
+	protected int ngramId(int ids[],int from,int length)
+	{
+		return m_ngrams.get(ids,from,length);
+	}
+	
+	//evidence of the item or NaN if there is no item with such id
+	protected float getEvidence(int id)
+	{
+		Item i = getItem(id);
+		return i == null ? Float.NaN : i.getEvidence();
+	}
+
 	public Item getItem(int id)
 	{
-		return (Item)m_byId.get(new Integer(id));
+		return id > 0 && id < m_byId.length ? m_byId[id] : null;
 	}
 	
 	public Item addItem(Item i)
 	{
-		m_byId.put(new Integer(i.getId()),i);
-		m_byName.put(i.getName(),i);
+		int id = i.getId();
+		if (id >= m_byId.length)
+			m_byId = Arrays.copyOf(m_byId, Math.max(id + 1, m_byId.length * 2));
+		m_byId[id] = i;
+		if (i instanceof LinkItem)
+			m_links.put(((Long)i.getName()).longValue(),id);
+		else
+		if (i instanceof StringItem)
+			m_ngrams.put(i.getIds(),id);
+		else
+			m_byName.put(i.getName(),i);
 		return i;
 	}
 	
@@ -79,25 +119,22 @@ public class MemoryStore
 
 	public Item getLinkItem(int id1, int id2)
 	{
-		Long l = LinkItem.getLong(id1,id2);
-		return getItem(l);
+		return getItem(linkId(LinkItem.getKey(id1,id2)));
 	}
 	
 	public int getLinkId(int id1, int id2)
 	{
-		Long l = LinkItem.getLong(id1,id2);
-		Item i = getItem(l);
-		return i==null? 0: i.getId();
+		return linkId(LinkItem.getKey(id1,id2));
 	}
 	
 	public int encounterLink(int id1, int id2)
 	{
-		Long l = LinkItem.getLong(id1,id2);
-		Item i = getItem(l);
+		long l = LinkItem.getKey(id1,id2);
+		Item i = getItem(linkId(l));
 		if (i==null)
 		{
 			++m_topId;
-			i = addItem(new LinkItem(m_topId,0,l));
+			i = addItem(new LinkItem(m_topId,0,new Long(l)));
 		}
 		i.incEvidence();
 		return i.getId();
@@ -105,36 +142,58 @@ public class MemoryStore
 	
 	public int encounterNgram(Ngram ngram,float evidence)
 	{
-		Item i = getItem(ngram);
+		return encounterNgram(ngram.m_ints,0,ngram.m_ints.length,evidence);
+	}
+	
+	/**
+	 * Encounter n-gram given by the range of the array of ids, not creating any objects unless the n-gram is new 
+	 */
+	public int encounterNgram(int ids[],int from,int length,float evidence)
+	{
+		Item i = getItem(ngramId(ids,from,length));
 		if (i==null)
 		{
 			++m_topId;
-			i = addItem(new StringItem(m_topId,0,ngram));
+			int ngram[] = new int[length];
+			System.arraycopy(ids,from,ngram,0,length);
+			i = addItem(new StringItem(m_topId,0,new Ngram(ngram)));
 		}
 		i.incEvidence(evidence);
 		return i.getId();
 	}
 	
-    class IteratorEnumeration implements Enumeration
+    class ItemEnumeration implements Enumeration
     {
-    	private Iterator m_it;
-    	IteratorEnumeration(Iterator it)
+    	private int m_id = 0;
+    	private Item m_next;
+    	ItemEnumeration()
+    	{
+    		skip();
+    	}
+    	private void skip()
     	{
-    		m_it = it;
+    		m_next = null;
+    		while (m_next == null && ++m_id <= m_topId)
+    			m_next = getItem(m_id);
     	}
     	public boolean hasMoreElements()
     	{
-    		return m_it.hasNext();
+    		return m_next != null;
     	}
     	public Object nextElement()
     	{
-    		return m_it.next();
+    		if (m_next == null)
+    			throw new NoSuchElementException();
+    		Item i = m_next;
+    		skip();
+    		return i;
     	}
     }
     
+    //enumerates items in order of ids
     public Enumeration getEnumeration()
     {
-    	return new IteratorEnumeration(m_byId.values().iterator());
+    	return new ItemEnumeration();
     }
 	
 	public void load(String path)
@@ -201,36 +260,34 @@ public class MemoryStore
 
     public Item[] getTopItems(int thresholdPercent)
     {
-    	Enumeration e;
         // find max
     	float evidenceMax = 0;
-        e = getEnumeration();
-        while (e.hasMoreElements())
+        for (int id = 1; id <= m_topId; id++)
         {
-        	float evidence = ((Item)e.nextElement()).getEvidence();
+        	float evidence = getEvidence(id);
         	if (evidenceMax < evidence)
         		evidenceMax = evidence;
         }
         // count max elements
         int totalCount = 0;
         int maxCount = 0;
-        e = getEnumeration();
-        while (e.hasMoreElements())
+        for (int id = 1; id <= m_topId; id++)
         {
+        	float evidence = getEvidence(id);
+        	if (Float.isNaN(evidence))
+        		continue;
         	totalCount++;
-        	if (evidenceMax == ((Item)e.nextElement()).getEvidence())
+        	if (evidenceMax == evidence)
         		maxCount++;
         }
         if (maxCount == 0 || (int)(((float)maxCount)/totalCount) > thresholdPercent)
         	return null;
         Item top[] = new Item[maxCount];
         int i = 0;
-        e = getEnumeration();
-        while (e.hasMoreElements())
+        for (int id = 1; id <= m_topId; id++)
         {
-        	Item it = (Item)e.nextElement();
-        	if (evidenceMax == it.getEvidence())
-        		top[i++] = it;
+        	if (evidenceMax == getEvidence(id))
+        		top[i++] = getItem(id);
         }
         return top;
     }
@@ -266,6 +323,43 @@ public class MemoryStore
     	}
     }
     
+    /**
+     * Import the items of the other store adding up their evidence, in the order of ids of the other store,
+     * so the items new to this store get the ids in the same order as if they were encountered by this store
+     * @param other store to import from
+     * @param remap true if the ids in names of the other items are ids of the other store, false if ids of this store
+     * @return map of the ids of the other store to the ids of this store
+     */
+    public int[] mergeItems(MemoryStore other,boolean remap)
+    {
+    	int[] map = new int[other.m_topId + 1];
+    	for (int id = 1; id <= other.m_topId; id++)
+    	{
+    		Item it = other.getItem(id);
+    		if (it == null)
+    			continue;
+    		Object name = it.getName();
+    		int ids[] = it.getIds();
+    		if (remap && ids != null)
+    		{
+    			int mapped[] = new int[ids.length];
+    			for (int i = 0; i < ids.length; i++)
+    				mapped[i] = map[ids[i]];
+    			name = it instanceof LinkItem ? (Object)LinkItem.getLong(mapped[0],mapped[1]) : new Ngram(mapped);
+    		}
+    		Item mine = getItem(name);
+    		if (mine == null)
+    		{
+    			++m_topId;
+    			mine = addItem(it instanceof LinkItem ? new LinkItem(m_topId,0,(Long)name) 
+    				: it instanceof StringItem ? new StringItem(m_topId,0,(Ngram)name) : it.clone(m_topId));
+    		}
+    		mine.incEvidence(it.getEvidence());
+    		map[id] = mine.getId();
+    	}
+    	return map;
+    }
+    
 	//TODO: compute Math.pow(px(x,y,z,...),N)/(p(x)*p(y)*p(z)*...)
 	//OR, to preserve the natural order of magnitude of the original evidence
 	//Math.pow(px(x,y,z,...),2) / Math.pow(p(x)*p(y)*p(z)*...,1/N)
@@ -283,4 +377,111 @@ public class MemoryStore
     	//return value / Math.pow(d, 1.0 / (ids.length + 1));
     	return value / d;
     }
+
+    //counts links and n-grams the way the store did before, with boxed keys in hash maps
+    static class BoxedStore
+    {
+    	HashMap byName = new HashMap();
+    	HashMap byId = new HashMap();
+    	int topId = 0;
+    	Item add(Item i)
+    	{
+    		byId.put(new Integer(i.getId()),i);
+    		byName.put(i.getName(),i);
+    		return i;
+    	}
+    	int encounterLink(int id1, int id2)
+    	{
+    		Long l = LinkItem.getLong(id1,id2);
+    		Item i = (Item)byName.get(l);
+    		if (i==null)
+    			i = add(new LinkItem(++topId,0,l));
+    		i.incEvidence();
+    		return i.getId();
+    	}
+    	int encounterNgram(Ngram ngram,float evidence)
+    	{
+    		Item i = (Item)byName.get(ngram);
+    		if (i==null)
+    			i = add(new StringItem(++topId,0,ngram));
+    		i.incEvidence(evidence);
+    		return i.getId();
+    	}
+    }
+    
+    /**
+     * Benchmark of counting links and n-grams over random sentences, comparing to boxed hash maps.
+     * Usage: MemoryStore [sentences 100000] [words 10000] [length 12] [arity 3] [passes 5]
+     */
+    public static void main(String args[])
+    {
+    	int sentences = Integer.parseInt(Str.arg(args,"sentences","100000"));
+    	int words = Integer.parseInt(Str.arg(args,"words","10000"));
+    	int length = Integer.parseInt(Str.arg(args,"length","12"));
+    	int arity = Integer.parseInt(Str.arg(args,"arity","3"));
+    	int passes = Integer.parseInt(Str.arg(args,"passes","5"));
+    	Random random = new Random(1);
+    	int corpus[][] = new int[sentences][];
+    	for (int s = 0; s < sentences; s++)
+    	{
+    		corpus[s] = new int[1 + random.nextInt(length)];
+    		for (int w = 0; w < corpus[s].length; w++)//skewed to the frequent words
+    			corpus[s][w] = 1 + (int)(words * Math.pow(random.nextDouble(),3));
+    	}
+    	long boxedLinks[] = new long[passes], primitiveLinks[] = new long[passes];
+    	long boxedNgrams[] = new long[passes], primitiveNgrams[] = new long[passes];
+    	long count = 0, mismatches = 0;
+    	for (int pass = 0; pass < passes; pass++)
+    	{
+    		//links
+    		BoxedStore boxed = new BoxedStore();
+    		long checksum = 0;
+    		long start = System.nanoTime();
+    		for (int s = 0; s < sentences; s++)
+    			for (int w = 1; w < corpus[s].length; w++)
+    				checksum += boxed.encounterLink(corpus[s][w-1],corpus[s][w]);
+    		boxedLinks[pass] = System.nanoTime() - start;
+    		MemoryStore store = new MemoryStore(null);
+    		start = System.nanoTime();
+    		for (int s = 0; s < sentences; s++)
+    			for (int w = 1; w < corpus[s].length; w++)
+    				checksum -= store.encounterLink(corpus[s][w-1],corpus[s][w]);
+    		primitiveLinks[pass] = System.nanoTime() - start;
+    		if (checksum != 0 || boxed.topId != store.m_topId)
+    			mismatches++;
+    		//n-grams of all arities up to given, as LexStructor counts them
+    		boxed = new BoxedStore();
+    		checksum = 0;
+    		count = 0;
+    		start = System.nanoTime();
+    		for (int s = 0; s < sentences; s++)
+    			for (int n = 1; n <= arity; n++)
+    				for (int w = 0; w + n <= corpus[s].length; w++)
+    				{
+    					int ngram[] = new int[n];
+    					System.arraycopy(corpus[s],w,ngram,0,n);
+    					checksum += boxed.encounterNgram(new Ngram(ngram),1);
+    					count++;
+    				}
+    		boxedNgrams[pass] = System.nanoTime() - start;
+    		store = new MemoryStore(null);
+    		start = System.nanoTime();
+    		for (int s = 0; s < sentences; s++)
+    			for (int n = 1; n <= arity; n++)
+    				for (int w = 0; w + n <= corpus[s].length; w++)
+    					checksum -= store.encounterNgram(corpus[s],w,n,1);
+    		primitiveNgrams[pass] = System.nanoTime() - start;
+    		if (checksum != 0 || boxed.topId != store.m_topId)
+    			mismatches++;
+    	}
+    	Arrays.sort(boxedLinks);
+    	Arrays.sort(primitiveLinks);
+    	Arrays.sort(boxedNgrams);
+    	Arrays.sort(primitiveNgrams);
+    	int m = passes / 2;
+    	System.out.println("MemoryStore benchmark sentences "+sentences+" words "+words+" length "+length+" arity "+arity+" n-grams "+count);
+    	System.out.println("MemoryStore benchmark median links boxed "+boxedLinks[m]/1000000+" ms, primitive "+primitiveLinks[m]/1000000+" ms");
+    	System.out.println("MemoryStore benchmark median n-grams boxed "+boxedNgrams[m]/1000000+" ms, primitive "+primitiveNgrams[m]/1000000+" ms");
+    	System.out.println("MemoryStore benchmark mismatches "+mismatches);
+    }
 }
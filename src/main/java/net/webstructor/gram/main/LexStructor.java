@@ -27,10 +27,16 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Vector;//deprecate
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.webstructor.main.Mainer; 
 import net.webstructor.al.Parser;
@@ -55,6 +61,9 @@ import net.webstructor.gram.util.Format;
  */
 public class LexStructor extends Mainer
 {
+	public static int threads = Runtime.getRuntime().availableProcessors();//for reading files and counting n-grams
+	static final int MIN_CHUNK = 1000;//least number of items to count n-grams of in a thread
+	
 	public static int[] ngram(MemoryStore st,String line, boolean bWalls){
 		if (line == null || line.length() == 0)
 			return null;
@@ -277,18 +286,68 @@ public class LexStructor extends Mainer
 	}
 	
 	public static void vectorNgramsEncounter(Vector input,MemoryStore m,int min,int max,int current_arity,int input_arities[])
+	{
+		final Object[] items = input.toArray();
+		int count = Math.min(threads, items.length / MIN_CHUNK);
+		if (count > 1)
+		{
+			// count in chunks of the input, each into its own store, merged into the given store
+			ExecutorService executor = Executors.newFixedThreadPool(count);
+			try {
+				ArrayList futures = new ArrayList(count);
+				int chunk = (items.length + count - 1) / count;
+				for (int from = 0; from < items.length; from += chunk)
+					futures.add(executor.submit(new NgramsCounter(items,from,Math.min(items.length,from + chunk),min,max,current_arity,input_arities)));
+				MemoryStore[] shards = new MemoryStore[futures.size()];
+				for (int i = 0; i < shards.length; i++)
+					shards[i] = (MemoryStore)((Future)futures.get(i)).get();
+				for (int i = 0; i < shards.length; i++)
+					m.mergeItems(shards[i],false);
+				return;
+			} catch (Exception e) {
+				println("ERROR:"+e+", counting sequentially");
+			} finally {
+				executor.shutdown();
+			}
+		}
+		vectorNgramsEncounter(items,0,items.length,m,min,max,current_arity,input_arities);
+	}
+	
+	static class NgramsCounter implements Callable {
+		Object[] items;
+		int from, to, min, max, current_arity;
+		int input_arities[];
+		NgramsCounter(Object[] items,int from,int to,int min,int max,int current_arity,int input_arities[]){
+			this.items = items;
+			this.from = from;
+			this.to = to;
+			this.min = min;
+			this.max = max;
+			this.current_arity = current_arity;
+			this.input_arities = input_arities;
+		}
+		public Object call(){
+			MemoryStore shard = new MemoryStore(null);
+			vectorNgramsEncounter(items,from,to,shard,min,max,current_arity,input_arities);
+			return shard;
+		}
+	}
+	
+	static void vectorNgramsEncounter(Object[] input,int from,int to,MemoryStore m,int min,int max,int current_arity,int input_arities[])
 	{
 		// create hypothetical links/bi-grams
-		for (int i=0;i<input.size();i++)
+		for (int i=from;i<to;i++)
 		{
-			Object o = input.elementAt(i);
-			StringItem it = (StringItem)o;
+			StringItem it = (StringItem)input[i];
 			if (current_arity > 0 && input_arities[i] != current_arity)
 				continue;
-			ArrayList ngrams = createHypotheticalNgrams(it.getIds(),true,min,max);
-			for (int n=0;n<ngrams.size();n++){
-				m.encounterNgram((Ngram)(ngrams.get(n)),it.getEvidence());
-			}
+			// same n-grams as createHypotheticalNgrams with all=true, counted with no copies of them
+			int ids[] = it.getIds();
+			int lo = min < 1 ? 1 : min;
+			int hi = max >= ids.length ? ids.length : max;
+			for (int w=lo;w<=hi;w++)
+				for (int j=0;j+w<=ids.length;j++)
+					m.encounterNgram(ids,j,w,it.getEvidence());
 		}
 	}
 		
@@ -659,21 +718,70 @@ public class LexStructor extends Mainer
 		save(outPath,v,store,null);
 	}
 	
-	public static void processSentencesDir(MemoryStore store, String dataPath, File dir, String outPath, String ullPath, boolean incremental, String skip){
+	/**
+	 * Reads files of sentences in parallel, each into its own store, 
+	 * merging the stores into the common one in the order of the files, so the ids are the same as if read one by one.
+	 * Files are read ahead of the merge by no more than twice the number of threads, so that few stores are held at once.
+	 * @return counts of sentences read from the files
+	 * @throws IOException if any of the files can not be read, so nothing is learned from the part of the corpus
+	 */
+	public static int[] readSentencesFiles(MemoryStore store, final File dir, final String[] children, Vector all, Vector sources, final String skip) throws IOException {
+		int[] sizes = new int[children.length];
+		int window = Math.max(1, threads) * 2;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, children.length)));
+		try {
+			ArrayList futures = new ArrayList(children.length);
+			for (int i=0; i<children.length; i++) {
+				while (futures.size() < children.length && futures.size() < i + window) {
+					final File file = new File(dir,children[futures.size()]);
+					futures.add(executor.submit(new Callable(){
+						public Object call() throws IOException {
+							MemoryStore shard = new MemoryStore(null);
+							Vector sources = new Vector();
+							BufferedReader breader = Mainer.getReader(file.getAbsolutePath());
+							if (breader == null)
+								throw new IOException("Illegal input file "+file.getAbsolutePath());
+							Vector v = readSentencesToWordVector(breader,shard,sources,false,skip);//walls=true|false(plain),
+							return new Object[]{shard,v,sources};
+						}}));
+				}
+				Object[] read;
+				try {
+					read = (Object[])((Future)futures.get(i)).get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(children[i], e.getCause());
+				} catch (InterruptedException e) {
+					throw new IOException(children[i], e);
+				}
+				futures.set(i, null);//help gc
+				int[] map = store.mergeItems((MemoryStore)read[0],true);
+				Vector v = (Vector)read[1];
+				for (int j = 0; j < v.size(); j++){
+					StringItem it = (StringItem)v.elementAt(j);
+					int ids[] = it.getIds();
+					int mapped[] = new int[ids.length];
+					for (int k = 0; k < ids.length; k++)
+						mapped[k] = map[ids[k]];
+					all.add(new StringItem(0,it.getEvidence(),new Ngram(mapped)));
+				}
+				if (sources != null)
+					sources.addAll((Vector)read[2]);
+				sizes[i] = v.size();
+				println("Read input file "+children[i]+" "+v.size());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return sizes;
+	}
+	
+	public static void processSentencesDir(MemoryStore store, String dataPath, File dir, String outPath, String ullPath, boolean incremental, String skip) throws IOException {
 		Vector all = new Vector();
 		Vector sources = new Vector();
 		
 		println("Reading input dir "+dataPath);
 		String[] children = dir.list();
-		int[] sizes = new int[children.length];
-		for (int i=0; i<children.length; i++) {
-			File file = new File(dir,children[i]);
-			BufferedReader breader = Mainer.getReader(file.getAbsolutePath());
-			Vector v = readSentencesToWordVector(breader,store,sources,false,skip);//walls=true|false(plain),
-			sizes[i] = v.size();
-			all.addAll(v);
-			println("Read input file "+children[i]+" "+v.size());
-		}
+		int[] sizes = readSentencesFiles(store, dir, children, all, sources, skip);
 		  
 		println("Processing input");
 		learnNgramsFromVector(all,store,2,2,true,true,false,incremental);//all=true|false(left)
@@ -761,7 +869,12 @@ public class LexStructor extends Mainer
 			processSentencesFile(store, breader, dataPath, outPath, incremental, skip);
 		else
 		if (args[3].equals("sentences") && dir.isDirectory())
-			processSentencesDir(store, dataPath, dir, dataPath+"_out", dataPath+"_ull", incremental, skip);
+			try {
+				processSentencesDir(store, dataPath, dir, dataPath+"_out", dataPath+"_ull", incremental, skip);
+			} catch (IOException e) {
+				println("Failed reading input dir "+dataPath+": "+e);
+				return;
+			}
 			
 		try {
 			//println("Saving database "+basePath);
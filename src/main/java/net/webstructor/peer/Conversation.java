@@ -231,8 +231,10 @@ class Conversation extends Mode {
 				session.sessioner.body.archiver.clear();
 				if (session.sessioner.body.sitecacher != null)
 					session.sessioner.body.sitecacher.clear(true);//clear with LTM
+				if (session.sessioner.body.siteindex != null)
+					session.sessioner.body.siteindex.clear(true, null);
 				if (session.sessioner.body.filecacher != null)
-					session.sessioner.body.filecacher.clear(true,null);//clear cache entirely 
+					session.sessioner.body.filecacher.clear(true,null);//clear cache memory, disk tier may be shared by peers 
 			}
 			session.output("Ok.");
 			return false;
@@ -334,6 +336,8 @@ class Conversation extends Mode {
 			}else{
 				if (session.sessioner.body.sitecacher != null)
 					session.sessioner.body.sitecacher.saveGraphs();//flush
+				if (session.sessioner.body.siteindex != null)
+					session.sessioner.body.siteindex.save();
 				if (Self.save(session.getBody(), session.sessioner.body.self().getString(Body.store_path)))
 					session.output("Ok.");
 			}
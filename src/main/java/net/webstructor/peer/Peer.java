@@ -46,6 +46,7 @@ import net.webstructor.core.Agent;
 import net.webstructor.core.Query;
 import net.webstructor.core.Storager;
 import net.webstructor.core.Thing;
+import net.webstructor.data.TextScorer;
 import net.webstructor.serp.Serper;
 import net.webstructor.util.Array;
 
@@ -436,15 +437,29 @@ public class Peer extends Agent {
 	
 	public static void assignSentiments(Body body, Thing peer) {
 		Collection news = (Collection)peer.getThingsClone(AL.news);
-		if (news != null) for (Object t : news)
-			assignSentiment(body, (Thing) t);
+		if (news == null)
+			return;
+		//score all news missing sentiment at once
+		ArrayList things = new ArrayList();
+		ArrayList texts = new ArrayList();
+		for (Object t : news) {
+			Thing thing = (Thing) t;
+			String text = thing.getString(AL.text);
+			if (thing.getString(AL.sentiment) == null && !AL.empty(text)) {
+				things.add(thing);
+				texts.add(text);
+			}
+		}
+		TextScorer.Result[] scores = new TextScorer(body.languages, TextScorer.SENTIMENT).score(texts);
+		for (int i = 0; i < scores.length; i++)
+			((Thing)things.get(i)).set(AL.sentiment, String.valueOf(scores[i].sentiment[2]));
 	}
 
 	public static void assignSentiment(Body body, Thing thing) {
 		if (thing.getString(AL.sentiment) == null) {//do repeated image searches only for non-searched missed images
 			String text = thing.getString(AL.text);
 			if (!AL.empty(text)) {
-				int[] pns = body.languages.sentiment(text);
+				int[] pns = new TextScorer(body.languages, TextScorer.SENTIMENT).score(text).sentiment;//same as batch in assignSentiments
 				int s = pns[2];
 				thing.set(AL.sentiment, String.valueOf(s));
 			}
@@ -36,8 +36,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.webstructor.al.AL;
+import net.webstructor.data.Accumulator;
 import net.webstructor.data.ComplexNumber;
 import net.webstructor.data.Counter;
 import net.webstructor.data.DataLogger;
@@ -80,6 +86,7 @@ class ReputationParameters {
 	double parents = 0.0; //to which extent reputation of the "child" (product) is affected by the reputation of the "parent" (vendor)
 	double predictiveness = 0.0; //to which extent account rank is based on consensus between social consensus and ratings provided by the account
 	boolean pessimism = false; //whether to weigth ratings based on pessimism of the prior ratings
+	int threads = 1; //number of threads accumulating daily ratings of the period in parallel, 1 to accumulate them sequentially
 	boolean verbose = false; //if need full debugging log
 	/*
 			Dimensions and their weighting factors for blending — timeliness, accuracy, etc.;
@@ -105,6 +112,15 @@ class ReputationTypes {
 	public static final String preferences = "preferences";//who prefers who to what extent
 	public static final String predictiveness = "predictiveness";//level of one's predictiveness
 	public static final String optimism = "optimism";//level of one's optimism (average ratings)
+	
+	//key of state for given domains or for all domains if none given
+	static String key(String[] domains){
+		if (AL.empty(domains))
+			return all_domains;
+		domains = (String[])domains.clone();
+		Arrays.sort(domains);
+		return Str.join(domains, "&");
+	}
 }
 
 class GraphStater implements Stater {
@@ -126,7 +142,8 @@ class GraphStater implements Stater {
 			graph.save(filer, path);
 	}
 	public boolean hasState(Object date, String[] domains) {
-		return !AL.empty(graph.getLinkers(date, false));
+		HashMap bydomains = graph.getLinkers(date, false);
+		return !AL.empty(bydomains) && bydomains.containsKey(ReputationTypes.key(domains));
 	}
 	public Map getLinkers(Object date){
 		return getLinkers(date, null);
@@ -143,6 +160,10 @@ class GraphStater implements Stater {
 		//TODO: dimension and domain as null 
 		graph.addValues(date, domain, byaccount);
 	}
+	public void put(Object date, Object domain, Object dimension, Linker byaccount){
+		//TODO: dimension and domain as null 
+		graph.setValues(date, domain, byaccount);
+	}
 }
 
 class GraphCacherStater implements Stater {
@@ -159,11 +180,7 @@ class GraphCacherStater implements Stater {
 	}
 	public boolean hasState(Object date, String[] domains) {
 		Graph graph = cacher.getGraph((Date)date);//domains->accounts->dimensions->values
-		String key = ReputationTypes.all_domains;//TODO: null?
-		if (!AL.empty(domains)){
-			Arrays.sort(domains);
-			key = Str.join(domains, "&");
-		}
+		String key = ReputationTypes.key(domains);
 		HashMap bydomains = graph.getLinkers(key,false);
 		return !AL.empty(bydomains);
 	}
@@ -172,11 +189,7 @@ class GraphCacherStater implements Stater {
 	}
 	public Map getLinkers(Object date, String[] domains){
 		Graph graph = cacher.getGraph((Date)date);//domains->accounts->dimensions->values
-		String key = ReputationTypes.all_domains;//TODO: null?
-		if (!AL.empty(domains)){
-			Arrays.sort(domains);
-			key = Str.join(domains, "&");
-		}
+		String key = ReputationTypes.key(domains);
 		Map bydimensions = graph.getLinkers(key, false);
 		if (!AL.empty(bydimensions)){
 			Linker byaccount = (Linker)bydimensions.get(ReputationTypes.all_aspects);
@@ -198,9 +211,78 @@ class GraphCacherStater implements Stater {
 		graph.addValues(domain, ReputationTypes.all_aspects, byaccount);
 		cacher.updateGraph((Date)date, graph, System.currentTimeMillis());//TODO: more smart!?
 	}
+	public void put(Object date, Object domain, Object dimension, Linker byaccount){
+		Graph graph = cacher.getGraph((Date)date);
+		//TODO: dimension and domain as null 
+		graph.setValues(domain, ReputationTypes.all_aspects, byaccount);
+		cacher.updateGraph((Date)date, graph, System.currentTimeMillis());//TODO: more smart!?
+	}
 }
 
 
+//accumulators of reputation build for the period, updated in place by ratings added for the period later 
+class ReputationBuild {
+	Date prevdate;
+	Date nextdate;
+	String domain;//rating type to accumulate, null for all types
+	Linker state;
+	Linker predictiveness;
+	Linker optimisms;
+	Accumulator differential = new Accumulator(); 
+	Accumulator normalizer = new Accumulator(); 
+	Accumulator raters = new Accumulator();
+	Accumulator spenders = new Accumulator();
+	Accumulator parents_differential = new Accumulator();
+	Accumulator parents_normalizer = new Accumulator();
+	Accumulator rater_differential = new Accumulator();
+	Accumulator rater_normalizer = new Accumulator();
+	Graph new_preferences = new Graph();
+	ArrayList delta = new ArrayList();//ratings [from to value] added since the build 
+	ReputationBuild(Date prevdate, Date nextdate, String domain){
+		this.prevdate = prevdate;
+		this.nextdate = nextdate;
+		this.domain = domain;
+	}
+	//empty partial build sharing prior states of the other one
+	ReputationBuild(ReputationBuild other){
+		this(other.prevdate, other.nextdate, other.domain);
+		state = other.state;
+		predictiveness = other.predictiveness;
+		optimisms = other.optimisms;
+	}
+	boolean covers(Date date){
+		return date.compareTo(prevdate) > 0 && date.compareTo(nextdate) <= 0;
+	}
+	boolean accepts(String type){//eg. rate-s
+		return domain == null || (type.length() == domain.length() + 2 && type.startsWith(domain) && type.endsWith("-s"));
+	}
+	String key(){
+		return domain == null ? ReputationTypes.all_domains : domain;
+	}
+	//add accumulators of partial build
+	void merge(ReputationBuild partial){
+		differential.count(partial.differential);
+		normalizer.count(partial.normalizer);
+		for (int i = 0; i < partial.raters.size(); i++)
+			if (!raters.containsKey(partial.raters.key(i)))
+				raters.put(partial.raters.key(i), partial.raters.get(i));
+		spenders.count(partial.spenders);
+		parents_differential.count(partial.parents_differential);
+		parents_normalizer.count(partial.parents_normalizer);
+		rater_differential.count(partial.rater_differential);
+		rater_normalizer.count(partial.rater_normalizer);
+		for (Iterator it = partial.new_preferences.getSources().iterator(); it.hasNext();){
+			Object rater = it.next();
+			Linker preferences = partial.new_preferences.getLinker(rater, ReputationTypes.preferences, false);
+			if (preferences != null)
+				for (Iterator pit = preferences.keys().iterator(); pit.hasNext();){
+					Object ratee = pit.next();
+					new_preferences.addValue(rater, ratee, ReputationTypes.preferences, preferences.value(ratee).doubleValue());
+				}
+		}
+	}
+}
+
 //TODO: synchronize and externalize, validate overlaps in children and loops!?
 class TreeGraph {
 	private HashMap parents = new HashMap();
@@ -251,6 +333,7 @@ public class Reputationer implements ReputationSystem {
 	private Date latest_date = null;
 	private boolean ratings_modified = false;
 	private boolean ranks_modified = false;
+	private ReputationBuild latest_build = null;
 
 	private static final String[] special_relationships = new String[]{ReputationTypes.preferences};
 	
@@ -292,6 +375,7 @@ public class Reputationer implements ReputationSystem {
 		cacher.clear(true);
 		latest_graph = null;
 		latest_date = null;
+		latest_build = null;
 		ratings_modified = false;
 	}
 	
@@ -301,6 +385,7 @@ public class Reputationer implements ReputationSystem {
 	@Override
 	public void clear_ranks(){
 		states.clear();
+		latest_build = null;
 		ranks_modified = false;
 	}
 	
@@ -328,6 +413,7 @@ public class Reputationer implements ReputationSystem {
 		hierarchy.del(parent);
 		for (int i = 0; i < children.length; i++)
 			hierarchy.add(parent, children[i][0]);
+		latest_build = null;
 		return 0;
 	}
 	
@@ -355,6 +441,7 @@ public class Reputationer implements ReputationSystem {
 			Object[] s = state[i];
 			states.add(date, s[0], ReputationTypes.all_domains, null, ((Number)s[1]).intValue() );
 		}
+		latest_build = null;
 		ranks_modified = true;
 		return 0;
 	}
@@ -372,9 +459,23 @@ public class Reputationer implements ReputationSystem {
 		if (datetime == null)
 			return 3;//no input datetime
 		Date date = Time.date(datetime);
-		//TODO:account for domains-specific states 
-		if (states.hasState(date, domains))
-			return 1;//up-to date
+		if (!AL.empty(domains)){//build states of missing domains at once
+			ArrayList missing = new ArrayList();
+			for (int i = 0; i < domains.length; i++)
+				if (!missing.contains(domains[i]) && !states.hasState(date, new String[]{domains[i]}))
+					missing.add(domains[i]);
+			if (missing.isEmpty())
+				return 1;//up-to date
+			domains = (String[])missing.toArray(new String[]{});
+		} else
+		if (states.hasState(date, null)){
+			if (latest_build == null || !latest_build.nextdate.equals(date) || latest_build.delta.isEmpty())
+				return 1;//up-to date
+			int success = update(latest_build);//consume only ratings added since the state was built
+			if (success == 0)
+				states.save();
+			return success;
+		}
 		//TODO:start asynchronously
 		//return 1;
 		int period = (int)Math.round(((double)params.periodMillis)/Period.DAY);
@@ -385,116 +486,223 @@ public class Reputationer implements ReputationSystem {
 	}
 	
 	private int build(Date prevdate, Date nextdate, String[] domains){
-		//TODO:account for domains-specific states 
-		if (domains != null)
-			return 99;//not supported
-		String type = ReputationTypes.all_domains;
+		if (!AL.empty(domains) && params.predictiveness > 0)
+			return 99;//not supported, preferences are not domain-specific
 		
-		//create default state, non-present entries will be populated with defaults 
-		Map prevstate = states.getLinkers(prevdate);
-		Linker state = prevstate == null ? new Counter() : (Linker)prevstate.get(type);
+		//create default states, non-present entries will be populated with defaults 
+		ReputationBuild[] builds = new ReputationBuild[AL.empty(domains) ? 1 : domains.length];
 		//TODO: fix ugly hack for using domains in place of dimensions
 		Map predstate = states.getLinkers(prevdate,new String[]{"predictiveness"});
-		Linker predictiveness = predstate == null ? new Counter() : (Linker)predstate.get(ReputationTypes.predictiveness);
 		Map optstate = states.getLinkers(prevdate,new String[]{"optimism"});
-		Linker optimisms = optstate == null ? new Counter() : (Linker)optstate.get(ReputationTypes.optimism);
+		for (int i = 0; i < builds.length; i++){
+			ReputationBuild b = builds[i] = new ReputationBuild(prevdate, nextdate, AL.empty(domains) ? null : domains[i]);
+			Map prevstate = states.getLinkers(prevdate,AL.empty(domains) ? null : new String[]{domains[i]});
+			b.state = prevstate == null ? null : (Linker)prevstate.get(b.key());
+			if (b.state == null)
+				b.state = new Counter();
+			b.predictiveness = predstate == null ? new Counter() : (Linker)predstate.get(ReputationTypes.predictiveness);
+			b.optimisms = optstate == null ? new Counter() : (Linker)optstate.get(ReputationTypes.optimism);
+		}
 		
-		Summator differential = new Summator(); 
-		Summator normalizer = new Summator(); 
-		Summator raters = new Summator();
-		Summator spenders = new Summator();
-		Summator parents_differential = new Summator();
-		Summator parents_normalizer = new Summator();
-		Summator rater_differential = new Summator();
-		Summator rater_normalizer = new Summator();
-
-		Graph new_preferences = new Graph();
-
 		//compute incremental reputation over time period
-		for (Date day = Time.date(prevdate, +1); day.compareTo(nextdate) <= 0; day = Time.date(day, +1)){
-			Graph daily = cacher.getGraph(day);
-			//TODO: Iterator interface and graph iterator func with Doer callback interface Doer { public int do(Object[] context); }
-			//TODO: skip reverse ratings 
-			List ratings = daily.toList(false,special_relationships,false);//don't expand
-			if (AL.empty(ratings))
+		if (!accumulate(builds))
+			return 5;//failed
+		
+		//keep accumulators so ratings added later for the period can be applied incrementally,
+		//which is not possible with predictiveness stored in the graph of ratings 
+		if (AL.empty(domains))
+			latest_build = params.predictiveness > 0 ? null : builds[0];
+		for (int i = 0; i < builds.length; i++){
+			int success = complete(builds[i]);
+			if (success != 0)
+				return success;
+		}
+		return 0;
+	}
+	
+	//daily ratings [from type to value], read under lock of the graph so the cacher does not page it out meanwhile 
+	private List ratings(Date day){
+		Graph daily = cacher.getGraph(day);
+		//TODO: Iterator interface and graph iterator func with Doer callback interface Doer { public int do(Object[] context); }
+		synchronized (daily){
+			return daily.toList(false,special_relationships,false);//don't expand
+		}
+	}
+	
+	private void accumulate(ReputationBuild[] builds, List ratings){
+		if (AL.empty(ratings))
+			return;
+		for (int i = 0; i < ratings.size(); i++){
+			Object[] rating = (Object[])ratings.get(i);// [from type to value]
+			if (rating[0] == null || rating[1] == null || rating[2] == null || rating[3] == null)
 				continue;
-			for (int i = 0; i < ratings.size(); i++){
-				Object[] rating = (Object[])ratings.get(i);// [from type to value]
-				if (rating[0] == null || rating[1] == null || rating[2] == null || rating[3] == null)
-					continue;
-				if (!((String)rating[1]).endsWith("s"))//skip reverse ratings
-					continue;
-				Object rater = rating[0];
-				Object ratee = rating[2];
-				Object value = rating[3];
-				Number raterNumber = state.value(rater);//value in range 0-100%
-				if (raterNumber == null)
-					raterNumber = new Double( params.defaultReputation * 100 );//0-100
-				
-				if (!raters.containsKey(rater))//save all pre-existing and default rater values
-					raters.put(rater, raterNumber);
-				
-				double raterValue = !params.liquidRatings ? 1.0 : raterNumber.doubleValue();
-				
-				if (params.predictiveness > 0 && predictiveness != null){
-					//TODO: aling with possibly missed raterNumber above!?
-					//TODO: rather blend it as specified in the spec (as it is done for spendings!?)
-					Number raterPredictiveness = predictiveness.value(rater);
-					if (raterPredictiveness != null){
-						if (params.verbose) env.debug("reputation debug raterValue before blending with predictiveness:"+raterValue+", rater "+rater+" ratee "+ratee);
-						raterValue = raterValue * (1 - params.predictiveness) + raterPredictiveness.doubleValue() * params.predictiveness;
-						//raterValue *= raterPredictiveness.doubleValue();
-						if (params.verbose) env.debug("reputation debug raterValue after blending with predictiveness:"+raterValue);
-					}
-				}
-				if (params.pessimism){
-					//When the reputation rank is computed for the period by WLR algorithm, the rating value is multiplied by "pessimism"=1-"average rating" 
-					//at the same point where it is multiplied by “rater rank” and it is being normalized as usual after that. 
-					Number raterOptimism = optimisms.value(rater);
-					if (raterOptimism != null)
-						raterValue *= (1 - raterOptimism.doubleValue());
-				}
-				
-				if (value instanceof Number){
-					double ratingValue = ((Number)value).doubleValue();
-					differential.count(ratee, raterValue * ratingValue, 0);
-					if (params.spendings > 0)
-						spenders.count(rater, ratingValue, 0);//count spendings by raters (it may be financial value or rating itself in this case)
-					//if (params.predictiveness > 0) //TODO
-				}else if (value instanceof ComplexNumber[]){
-					double sum = 0, den = 0;
-					ComplexNumber[] c = (ComplexNumber[])value;
-					for (int j = 0; j < c.length; j++){
-						double[] r = calcRating(c[j].a,c[j].b);
-						sum += r[0];
-						den += r.length > 1 ? r[1] : 1;
-						if (params.verbose) env.debug("reputation debug rating: "+rater+" "+ratee+" "+c[j].a+" "+c[j].b+" "+r[0]);
-						differential.count(ratee, raterValue * Math.round(r[0]), 0);//TODO: no round!?
-//						differential.count(ratee, Math.round(raterValue * r[0]), 0);//TODO: no round!?
-						if (params.denomination && r.length > 1)
-							normalizer.count(ratee, r[1], 0);
-						if (params.spendings > 0 && r.length > 1)
-							spenders.count(rater, r[1], 0);//count spendings by raters
-					}
-					if (params.predictiveness > 0 && den > 0)
-						new_preferences.addValue(rater, ratee, ReputationTypes.preferences, sum/den);
-					if (params.parents > 0){//compute average differential ratings per parent category/vendor
-						Object parent = hierarchy.parent(ratee);
-						if (parent != null){
-							parents_differential.count(parent, raterValue * sum ); 
-							parents_normalizer.count(parent, raterValue * den); 
-						}
-					}
-					if (params.pessimism){
-						//Each time when “reputation rank” is computed for any participant for an observation period, 
-						//the other sort of rank called “bias rank” is computed as average rating made by rater during the same period. 
-						//TODO: weighted!?
-						rater_differential.count(rater, sum ); 
-						rater_normalizer.count(rater, den); 
+			if (!((String)rating[1]).endsWith("s"))//skip reverse ratings
+				continue;
+			for (int b = 0; b < builds.length; b++)
+				if (builds[b].accepts((String)rating[1]))
+					accumulate(builds[b], rating[0], rating[2], rating[3]);
+		}
+	}
+	
+	//accumulate ratings of the period day by day into partial builds merged in order of days, 
+	//either sequentially or in parallel threads, so the sums are added up in the same order 
+	//and the result does not depend on the number of threads and order of their completion 
+	private boolean accumulate(final ReputationBuild[] builds){
+		ArrayList days = new ArrayList();
+		for (Date day = Time.date(builds[0].prevdate, +1); day.compareTo(builds[0].nextdate) <= 0; day = Time.date(day, +1))
+			days.add(day);
+		if (params.threads <= 1 || days.size() < 2){
+			for (int d = 0; d < days.size(); d++)
+				merge(builds, partial(builds, (Date)days.get(d)));
+			return true;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(params.threads, days.size()));
+		try {
+			ArrayList futures = new ArrayList(days.size());
+			for (int d = 0; d < days.size(); d++){
+				final Date day = (Date)days.get(d);
+				futures.add(executor.submit(new Callable() {
+					public Object call() {
+						return partial(builds, day);
 					}
+				}));
+			}
+			for (int d = 0; d < futures.size(); d++)
+				merge(builds, (ReputationBuild[])((Future)futures.get(d)).get());
+			return true;
+		} catch (InterruptedException e) {
+			env.error("Reputationer "+name+" build interrupted", e);
+		} catch (ExecutionException e) {
+			env.error("Reputationer "+name+" build failed", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return false;
+	}
+	
+	//accumulate ratings of the day into partial builds of the given ones
+	private ReputationBuild[] partial(ReputationBuild[] builds, Date day){
+		ReputationBuild[] partials = new ReputationBuild[builds.length];
+		for (int b = 0; b < builds.length; b++)
+			partials[b] = new ReputationBuild(builds[b]);
+		accumulate(partials, ratings(day));
+		return partials;
+	}
+	
+	private void merge(ReputationBuild[] builds, ReputationBuild[] partials){
+		for (int b = 0; b < builds.length; b++)
+			builds[b].merge(partials[b]);
+	}
+	
+	//apply ratings added since the latest build to its accumulators in place and re-complete it
+	private int update(ReputationBuild b){
+		for (int i = 0; i < b.delta.size(); i++){
+			Object[] rating = (Object[])b.delta.get(i);// [from to value]
+			accumulate(b, rating[0], rating[1], rating[2]);
+		}
+		b.delta.clear();
+		return complete(b);
+	}
+	
+	private void accumulate(ReputationBuild b, Object rater, Object ratee, Object value){
+		Linker state = b.state;
+		Linker predictiveness = b.predictiveness;
+		Linker optimisms = b.optimisms;
+		Accumulator differential = b.differential; 
+		Accumulator normalizer = b.normalizer; 
+		Accumulator raters = b.raters;
+		Accumulator spenders = b.spenders;
+		Accumulator parents_differential = b.parents_differential;
+		Accumulator parents_normalizer = b.parents_normalizer;
+		Accumulator rater_differential = b.rater_differential;
+		Accumulator rater_normalizer = b.rater_normalizer;
+		Graph new_preferences = b.new_preferences;
+		
+		Number raterNumber = state.value(rater);//value in range 0-100%
+		if (raterNumber == null)
+			raterNumber = new Double( params.defaultReputation * 100 );//0-100
+		
+		if (!raters.containsKey(rater))//save all pre-existing and default rater values
+			raters.put(rater, raterNumber.doubleValue());
+		
+		double raterValue = !params.liquidRatings ? 1.0 : raterNumber.doubleValue();
+		
+		if (params.predictiveness > 0 && predictiveness != null){
+			//TODO: aling with possibly missed raterNumber above!?
+			//TODO: rather blend it as specified in the spec (as it is done for spendings!?)
+			Number raterPredictiveness = predictiveness.value(rater);
+			if (raterPredictiveness != null){
+				if (params.verbose) env.debug("reputation debug raterValue before blending with predictiveness:"+raterValue+", rater "+rater+" ratee "+ratee);
+				raterValue = raterValue * (1 - params.predictiveness) + raterPredictiveness.doubleValue() * params.predictiveness;
+				//raterValue *= raterPredictiveness.doubleValue();
+				if (params.verbose) env.debug("reputation debug raterValue after blending with predictiveness:"+raterValue);
+			}
+		}
+		if (params.pessimism){
+			//When the reputation rank is computed for the period by WLR algorithm, the rating value is multiplied by "pessimism"=1-"average rating" 
+			//at the same point where it is multiplied by “rater rank” and it is being normalized as usual after that. 
+			Number raterOptimism = optimisms.value(rater);
+			if (raterOptimism != null)
+				raterValue *= (1 - raterOptimism.doubleValue());
+		}
+		
+		if (value instanceof Number){
+			double ratingValue = ((Number)value).doubleValue();
+			differential.count(ratee, raterValue * ratingValue, 0);
+			if (params.spendings > 0)
+				spenders.count(rater, ratingValue, 0);//count spendings by raters (it may be financial value or rating itself in this case)
+			//if (params.predictiveness > 0) //TODO
+		}else if (value instanceof ComplexNumber[]){
+			double sum = 0, den = 0;
+			ComplexNumber[] c = (ComplexNumber[])value;
+			for (int j = 0; j < c.length; j++){
+				double[] r = calcRating(c[j].a,c[j].b);
+				sum += r[0];
+				den += r.length > 1 ? r[1] : 1;
+				if (params.verbose) env.debug("reputation debug rating: "+rater+" "+ratee+" "+c[j].a+" "+c[j].b+" "+r[0]);
+				differential.count(ratee, raterValue * Math.round(r[0]), 0);//TODO: no round!?
+//				differential.count(ratee, Math.round(raterValue * r[0]), 0);//TODO: no round!?
+				if (params.denomination && r.length > 1)
+					normalizer.count(ratee, r[1], 0);
+				if (params.spendings > 0 && r.length > 1)
+					spenders.count(rater, r[1], 0);//count spendings by raters
+			}
+			if (params.predictiveness > 0 && den > 0)
+				new_preferences.addValue(rater, ratee, ReputationTypes.preferences, sum/den);
+			if (params.parents > 0){//compute average differential ratings per parent category/vendor
+				Object parent = hierarchy.parent(ratee);
+				if (parent != null){
+					parents_differential.count(parent, raterValue * sum ); 
+					parents_normalizer.count(parent, raterValue * den); 
 				}
 			}
+			if (params.pessimism){
+				//Each time when “reputation rank” is computed for any participant for an observation period, 
+				//the other sort of rank called “bias rank” is computed as average rating made by rater during the same period. 
+				//TODO: weighted!?
+				rater_differential.count(rater, sum ); 
+				rater_normalizer.count(rater, den); 
+			}
 		}
+	}
+	
+	//compute new state out of accumulators, keeping them intact for further updates
+	private int complete(ReputationBuild b){
+		String type = b.key();
+		Date prevdate = b.prevdate;
+		Date nextdate = b.nextdate;
+		Linker state = b.state;
+		Linker optimisms = b.optimisms;
+		Summator differential = new Summator(b.differential); 
+		Summator normalizer = new Summator(b.normalizer);
+		Summator raters = new Summator(b.raters);
+		Summator spenders = new Summator(b.spenders);
+		Summator parents_differential = new Summator(b.parents_differential);
+		Summator parents_normalizer = new Summator(b.parents_normalizer);
+		Summator rater_differential = new Summator(b.rater_differential);
+		Summator rater_normalizer = new Summator(b.rater_normalizer);
+		Graph new_preferences = b.new_preferences;
+		
 		if (params.verbose) env.debug("reputation debug differential:"+differential);
 		if (params.verbose) env.debug("reputation debug denominator:"+normalizer);
 		
@@ -593,7 +801,7 @@ public class Reputationer implements ReputationSystem {
 			}
 			//4 store predictiveness for future use
 //TODO: make sure there is no clash with internal implementations of Staters!!!
-			states.add(nextdate, ReputationTypes.predictiveness, null, new Counter(predictivenesses));
+			states.put(nextdate, ReputationTypes.predictiveness, null, new Counter(predictivenesses));
 		}
 		
 		if (params.pessimism){
@@ -602,11 +810,11 @@ public class Reputationer implements ReputationSystem {
 			//if there is a previous_bias_rank present else (average_rating_by_period)
 			rater_differential.divide(rater_normalizer);
 			rater_differential.blend(optimisms, params.conservatism);
-			states.add(nextdate, ReputationTypes.optimism, null, new Counter(rater_differential));
+			if (b.domain == null)//optimism is not domain-specific
+				states.put(nextdate, ReputationTypes.optimism, null, new Counter(rater_differential));
 		}
 		
-		states.add(nextdate, type, null, new Counter(differential));
-		//states.add(nextdate, type, null, new Summator(differential));
+		states.put(nextdate, type, null, new Counter(differential));
 		//TODO: save
 		ranks_modified = true;
 		return 0;
@@ -642,7 +850,13 @@ public class Reputationer implements ReputationSystem {
 		if (datetime == null)
 			return 3;//no input datetime
 		Date date = Time.date(datetime);
-		Map bydomains = states.getLinkers(date);
+		Map bydomains = AL.empty(domains) ? states.getLinkers(date) : new HashMap();
+		if (!AL.empty(domains))
+			for (int i = 0; i < domains.length; i++){
+				Map bydomain = states.getLinkers(date, new String[]{domains[i]});
+				if (bydomain != null && bydomain.get(domains[i]) != null)
+					bydomains.put(domains[i], bydomain.get(domains[i]));
+			}
 		if (AL.empty(bydomains)){
 			if (force){
 				//TODO: force recalc
@@ -657,7 +871,8 @@ public class Reputationer implements ReputationSystem {
 		Set idset = AL.empty(ids) ? null : Array.toSet(ids);
 		if (!AL.empty(domains)){
 			for (int i = 0; i < domains.length; i++)
-				retrieve(bydomains,domains[i],idset,results);
+				if (bydomains.containsKey(domains[i]))
+					retrieve(bydomains,domains[i],idset,results);
 		} else {
 			for (Iterator it = bydomains.keySet().iterator(); it.hasNext();)
 				retrieve(bydomains,(String)it.next(),idset,results);
@@ -802,6 +1017,8 @@ public class Reputationer implements ReputationSystem {
 						};
 				latest_graph.addValue(from, to, type+"-s", cn);//eg. rate-s
 				latest_graph.addValue(to, from, type+"-d", cn);//eg. rate-d
+				if (latest_build != null && latest_build.covers(date))
+					latest_build.delta.add(new Object[]{from,to,cn});
 			}else{
 				//In current Aigents implementation of the Liquid Rank algorithm https://arxiv.org/pdf/1806.07342.pdf
 				//weighted ratings are stored "blended" so the rating values are multiplied by financial weights and rounded to
@@ -812,6 +1029,8 @@ public class Reputationer implements ReputationSystem {
 				int ratingValue = (int)Math.round(calcRating(value,weight)[0]);//TODO:double!?
 				latest_graph.addValue(from, to, type+"-s", ratingValue);//eg. rate-s
 				latest_graph.addValue(to, from, type+"-d", ratingValue);//eg. rate-d
+				if (latest_build != null && latest_build.covers(date))
+					latest_build.delta.add(new Object[]{from,to,new Integer(ratingValue)});
 			}
 		}
 		ratings_modified = true;
@@ -1229,6 +1448,7 @@ public class Reputationer implements ReputationSystem {
 		//TODO: boolean logarithmicRanks = true; // whether or not apply log10(1+x) to ranks;
 		//TODO: double defaultRating = 0.25; // default rating value for “overall rating” and “per-dimension” ratings;
 		//TODO: long periodMillis = Period.DAY; // period of reputation recalculation/update;
+		r.latest_build = null;//accumulated with former parameters
 		if (Str.has(args, "default", null))
 			r.params.defaultReputation = Double.parseDouble(Str.arg(args, "default", String.valueOf(r.params.defaultReputation)));
 		if (Str.has(args, "decayed", null))
@@ -1251,6 +1471,8 @@ public class Reputationer implements ReputationSystem {
 			r.params.logarithmicRatings = Str.arg(args, "logratings", r.params.logarithmicRatings ? "true": "false").toLowerCase().equals("true");
 		if (Str.has(args,"pessimism", null))
 			r.params.pessimism = Str.arg(args, "pessimism", r.params.pessimism ? "true": "false").toLowerCase().equals("true");
+		if (Str.has(args,"threads", null))
+			r.params.threads = Integer.parseInt(Str.arg(args, "threads", String.valueOf(r.params.threads)));
 		if (Str.has(args,"weighting", null))
 			r.params.weightingRatings = Str.arg(args, "weighting", r.params.weightingRatings ? "true": "false").toLowerCase().equals("true");
 		if (Str.has(args,"unrated", null))
@@ -1271,9 +1493,99 @@ public class Reputationer implements ReputationSystem {
 		Tester t = new Tester();
 		testStater(t,new Reputationer(m,"testnet",null,false));//test with common state storage
 		testStater(t,new Reputationer(m,"testnet",null,true));//test with daily state storage
+		testIncremental(t,new Reputationer(m,"testinc",null,true),new Reputationer(m,"testfull",null,true));
+		testParallel(t,new Reputationer(m,"testpar",null,true),new Reputationer(m,"testseq",null,true));
 		t.check();
 	}
 	
+	public static void testParallel(Tester t, Reputationer par, Reputationer seq){
+		Object[][] ratings = new Object[][]{
+			new Object[]{"1","rate","3",new Integer(100),null,Time.today(-14)},
+			new Object[]{"2","rate","3",new Integer(50),new Integer(10),Time.today(-13)},
+			new Object[]{"3","pay","4",new Integer(100),null,Time.today(-13)},
+			new Object[]{"4","rate","1",new Integer(100),null,Time.today(-12)},
+			new Object[]{"1","pay","3",new Integer(20),null,Time.today(-11)},
+			new Object[]{"2","rate","5",new Integer(100),new Integer(5),Time.today(-11)},
+			new Object[]{"5","pay","2",new Integer(70),null,Time.today(-10)},
+			//several ratings of the same ratees on the same days, so sums by day differ from running sums
+			new Object[]{"4","rate","2",new Double(33.3),new Double(0.7),Time.today(-14)},
+			new Object[]{"5","rate","3",new Double(0.1),new Double(2.9),Time.today(-13)},
+			new Object[]{"1","rate","2",new Double(66.6),new Double(0.3),Time.today(-12)},
+			new Object[]{"3","rate","2",new Double(0.2),new Double(1.1),Time.today(-11)},
+			new Object[]{"4","rate","2",new Double(0.3),new Double(1.3),Time.today(-12)},
+			new Object[]{"5","rate","2",new Double(0.7),new Double(0.9),Time.today(-12)},
+			new Object[]{"2","rate","4",new Double(7.1),new Double(0.1),Time.today(-12)},
+			new Object[]{"5","pay","1",new Double(12.34),null,Time.today(-10)}};
+		Reputationer[] rs = new Reputationer[]{par,seq};
+		String[][] results = new String[rs.length][];
+		for (int i = 0; i < rs.length; i++){
+			rs[i].params.logarithmicRanks = false;
+			rs[i].params.periodMillis = 5 * Period.DAY;
+			rs[i].params.threads = i == 0 ? 4 : 1;
+			rs[i].clear_ranks();
+			rs[i].clear_ratings();
+			rs[i].put_ranks(Time.today(-15),new Object[][]{new Object[]{"1",new Integer(20)},new Object[]{"2",new Integer(100)}});
+			rs[i].put_ratings(ratings);
+			t.assume(rs[i].update_ranks(Time.today(-10), null), 0);
+			//sums before rounding to ranks, with fractional rater ranks so the order of addition matters
+			ReputationBuild[] b = new ReputationBuild[]{new ReputationBuild(Time.today(-15), Time.today(-10), null)};
+			Summator state = new Summator();
+			for (int r = 1; r <= 5; r++)
+				state.count(String.valueOf(r), 0.1 * r + 0.7);
+			b[0].state = state;
+			b[0].predictiveness = new Counter();
+			b[0].optimisms = new Counter();
+			t.assume(rs[i].accumulate(b) ? "true" : "false", "true");
+			String sums = b[0].differential+" "+b[0].normalizer+" "+b[0].rater_differential+" "+b[0].rater_normalizer;
+			t.assume(rs[i].update_ranks(Time.today(-10), new String[]{"rate","pay"}), 0);
+			t.assume(rs[i].update_ranks(Time.today(-10), new String[]{"rate"}), 1);//built already
+			ArrayList all = new ArrayList(), rate = new ArrayList(), pay = new ArrayList();
+			rs[i].get_ranks(Time.today(-10),null,null,null,false,0,0,all);
+			rs[i].get_ranks(Time.today(-10),null,new String[]{"rate"},null,false,0,0,rate);
+			rs[i].get_ranks(Time.today(-10),null,new String[]{"pay"},null,false,0,0,pay);
+			results[i] = new String[]{
+				Writer.toString(all.toArray(new Object[][]{})),
+				Writer.toString(rate.toArray(new Object[][]{})),
+				Writer.toString(pay.toArray(new Object[][]{})),
+				sums};
+		}
+		for (int i = 0; i < results[0].length; i++)
+			t.assume(results[0][i], results[1][i]);
+		t.assume(results[0][1].equals(results[0][2]) ? "same" : "differ", "differ");//domains differ
+	}
+	
+	public static void testIncremental(Tester t, Reputationer inc, Reputationer full){
+		Object[][] first = new Object[][]{
+			new Object[]{"1","rate","3",new Integer(100),null,Time.today(-8)},
+			new Object[]{"2","rate","3",new Integer(50),new Integer(10),Time.today(-8)},
+			new Object[]{"3","rate","4",new Integer(100),null,Time.today(-8)}};
+		Object[][] second = new Object[][]{
+			new Object[]{"4","rate","1",new Integer(100),null,Time.today(-8)},
+			new Object[]{"1","rate","3",new Integer(20),null,Time.today(-8)},
+			new Object[]{"2","rate","5",new Integer(100),new Integer(5),Time.today(-8)}};
+		Reputationer[] rs = new Reputationer[]{inc,full};
+		for (int i = 0; i < rs.length; i++){
+			rs[i].params.logarithmicRanks = false;
+			rs[i].clear_ranks();
+			rs[i].clear_ratings();
+			rs[i].put_ranks(Time.today(-9),new Object[][]{new Object[]{"1",new Integer(20)},new Object[]{"2",new Integer(100)}});
+		}
+		//incremental: build with first ratings, then consume second ones only 
+		inc.put_ratings(first);
+		t.assume(inc.update_ranks(Time.today(-8), null), 0);
+		t.assume(inc.update_ranks(Time.today(-8), null), 1);//nothing new
+		inc.put_ratings(second);
+		t.assume(inc.update_ranks(Time.today(-8), null), 0);
+		//full: build with all ratings at once
+		full.put_ratings(first);
+		full.put_ratings(second);
+		t.assume(full.update_ranks(Time.today(-8), null), 0);
+		ArrayList a = new ArrayList(), b = new ArrayList();
+		inc.get_ranks(Time.today(-8),null,null,null,false,0,0,a);
+		full.get_ranks(Time.today(-8),null,null,null,false,0,0,b);
+		t.assume(Writer.toString(a.toArray(new Object[][]{})),Writer.toString(b.toArray(new Object[][]{})));
+	}
+	
 	public static void testStater(Tester t, Reputationer r){
 		r.params.logarithmicRanks = false;//to make test numbers clearer
 		
@@ -59,6 +59,7 @@ import net.webstructor.data.Linker;
 import net.webstructor.data.ThingComparator;
 import net.webstructor.data.TextMiner;
 import net.webstructor.data.Translator;
+import net.webstructor.data.WordIndex;
 import net.webstructor.self.Matcher;
 import net.webstructor.self.Siter;
 import net.webstructor.serp.Serper;
@@ -74,6 +75,7 @@ abstract class Intenter {
 class Searcher extends Intenter {
 
 	public static final String name = "search";
+	private static final int MIN_TOP = 10;//least number of the best pages to search in long-term memory
 	
 	protected Matcher matcher = null; 
 
@@ -516,12 +518,38 @@ class Searcher extends Intenter {
 				HashSet words = new HashSet();
 				extractWords(patseq,words);
 				
-				for (int daysback = 0; daysback <= days; daysback++){
+				//2) get pages containing the words from word index ranked by BM25 over all days, searching in the best pages first
+				WordIndex index = session.sessioner.body.siteindex;
+				ArrayList res = new ArrayList();
+				HashSet searched = new HashSet();
+				if (index != null){
+					int top = Math.max(limit, MIN_TOP), read = 0;
+					for (;;){
+						String[] paths = index.search(date, days, words, top);
+						for (; read < paths.length && !(limit > 0 && res.size() > limit); read++){
+							searched.add(paths[read]);
+							String text = session.sessioner.body.archiver.get(paths[read]);
+							if (AL.empty(text))
+								session.sessioner.body.error("Searcher empty path "+paths[read], null);
+							else
+								search(storager, paths[read], text, topic, res, properties);
+						}
+						if (paths.length < top || (limit > 0 && res.size() > limit))
+							break;
+						top *= 2;//get more of the best pages if not enough found in the ones read
+					}
+					session.sessioner.body.debug("Searcher "+topic+" LTM "+date+" ranked "+read+" found "+res.size());
+				}
+				
+				//add 'worded' links of www graph for days not in the word index, and for the days it starts on, 
+				//having pages read before the index was started
+				for (int daysback = 0; daysback <= days && !(limit > 0 && res.size() > limit); daysback++){
 					Date day = Time.date(date,-daysback);
-					//2) get subgraph from www graph on 'worded'
+					if (index != null && index.indexed(day) && index.indexed(Time.date(day,-1)))
+						continue;//searched above
+					Counter indexed = new Counter();
 					GraphCacher grapher = session.sessioner.body.sitecacher;
 					Graph g = grapher.getGraph(day);
-					Counter indexed = new Counter();
 					g.countTargets(words, null, indexed);
 					
 					//3) rank accordingly to N of matched words
@@ -535,30 +563,25 @@ class Searcher extends Intenter {
 					session.sessioner.body.debug("Searcher "+topic+" LTM "+day+" max "+max);
 					
 					//4) search in every mathched url in is-text
-					ArrayList res = new ArrayList();
-					for (int matches = max; matches > 0; matches--){//go down, relaxing count of index matches gradually
-						for (Iterator it = indexed.keys().iterator(); it.hasNext();){
+					for (int matches = max, found = res.size(); matches > 0 && res.size() == found; matches--){//go down, relaxing count of index matches gradually till the first tie found
+						for (Iterator it = indexed.keys().iterator(); it.hasNext() && !(limit > 0 && res.size() > limit);){
 							String path = (String)it.next();
 							int count = ((Number)indexed.get(path)).intValue();
-							if (count == matches){
-								//TODO search
+							if (count == matches && searched.add(path)){
 								String text = session.sessioner.body.archiver.get(path);
 								if (AL.empty(text))
 									session.sessioner.body.error("Searcher empty path "+path, null);
 								else
 									search(storager, path, text, topic, res, properties);									
-								if (limit > 0 && res.size() > limit)
-									break;
 							}
 						}
-						session.sessioner.body.debug("Searcher "+topic+" LTM "+day+" found "+res.size());
-//TODO: fill up to the limit
-						//flush final collection to out ON the first day AND the first tie on matches
-						if (!AL.empty(res)){
-							session.output(format(conversation, session, topic, null, format, limit, res, cluster, graphs, sentiment, arg));
-							return true;
-						}
 					}
+					session.sessioner.body.debug("Searcher "+topic+" LTM "+day+" found "+res.size());
+				}
+//TODO: fill up to the limit
+				if (!AL.empty(res)){
+					session.output(format(conversation, session, topic, null, format, limit, res, cluster, graphs, sentiment, arg));
+					return true;
 				}
 			}
 			//if not handled above
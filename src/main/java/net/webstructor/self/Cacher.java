@@ -23,12 +23,30 @@
  */
 package net.webstructor.self;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import net.webstructor.agent.Body;
 import net.webstructor.al.AL;
@@ -40,11 +58,19 @@ import net.webstructor.al.Time;
 import net.webstructor.cat.HtmlStripper;
 import net.webstructor.cat.HttpFileContext;
 import net.webstructor.cat.HttpFileReader;
+import net.webstructor.core.Filer;
 import net.webstructor.core.Query;
 import net.webstructor.core.Storager;
 import net.webstructor.core.Thing;
 import net.webstructor.util.Array;
 
+/**
+ * Two-tier cache of web documents: 
+ * heap tier of read and parsed pages, evicted in least-recently-used order once its size limit is reached,
+ * and disk tier surviving restarts and possibly shared by peers, 
+ * keeping parsed page per URL in "urls" directory along with its ETag and Last-Modified validators 
+ * and raw data in "data" directory named by content hash, so unchanged content is not stripped again.  
+ */
 //TODO: move to data package?
 public class Cacher implements net.webstructor.data.Cacher {
 	
@@ -52,22 +78,39 @@ public class Cacher implements net.webstructor.data.Cacher {
 	private Thing self;
 	private Storager storager;
 	private HttpFileReader reader;
-	private HashMap<String,HttpFileContext> pathTexts; //read and parsed page texts
-	private HashMap pathTried; //actually read and updated pages //TODO: get rid of this!
+	private LinkedHashMap<String,HttpFileContext> pathTexts; //read and parsed page texts, in access order
+	private Filer filer;
+	private String pathDir;
+	protected long memory_limit = Runtime.getRuntime().maxMemory() / 10;//bytes of heap tier
+	protected long disk_limit = 1000000000L;//bytes of disk tier
+	private long memory = 0;//bytes in heap tier
+	//metrics
+	private long hits = 0, disk_hits = 0, misses = 0, not_modified = 0, reuses = 0, read_bytes = 0, cached_bytes = 0;
+	Fingerprints fingerprints;//text blocks of pages as of their latest crawl
+	//pages, blocks and tokens matched and skipped as not changed, since the last report
+	private long pages = 0, skipped_pages = 0, blocks = 0, skipped_blocks = 0, tokens = 0, skipped_tokens = 0, reported_reuses = 0, reported_not_modified = 0;
 	
 	public Cacher(String name,Body body,Storager storager){
+		this(name,body,storager,null);
+	}
+	
+	/**
+	 * @param path - directory for disk tier, may be shared by peers, current directory if null 
+	 */
+	public Cacher(String name,Body body,Storager storager,String path){
 		this.body = body;
 		this.self = body.self();
 		this.storager = storager;
 		reader = new HttpFileReader(body,Body.http_user_agent);
-		pathTexts = new HashMap<String,HttpFileContext>();
-		pathTried = new HashMap();
+		pathTexts = new LinkedHashMap<String,HttpFileContext>(16,0.75f,true);
+		filer = new Filer(body);
+		pathDir = (AL.empty(path) ? "" : path + (path.endsWith("/") ? "" : "/")) + name;
+		fingerprints = new Fingerprints(body, name + "/fingerprints.bin");//of this peer, not shared
 		body.register(name, this);
 	}
 	
-	//TODO: what if called concurrently in different contexts, pass context in!!??
+	//drop expired entries, pages tried in crawls are kept by their Siter-s, so this is safe to call while other sites are crawled
 	synchronized void clearContext(){
-		pathTried.clear();
 		long caching_period = Period.parseUnits(body.getSelf().getString(Body.caching_period,"10m"),Period.MINUTE);
 		long latest = System.currentTimeMillis() - caching_period;
 		HashSet<String> invalids = new HashSet<String>();
@@ -79,45 +122,97 @@ public class Cacher implements net.webstructor.data.Cacher {
 			if (cached.time == null) {//TODO already trashed!? Not possible!!!???
 				body.error("Cacher trashing invalid entry "+path+"->"+cached.time+" "+cached.text+":", null);
 				invalids.add(path);
-				cached.trash();
 			} else 
 			if (cached.time.getTime() < latest) {//clear expired entires
 				invalids.add(path);
-				cached.trash();
 			}
 		}
-		for (String path : invalids)
-			pathTexts.remove(path);
+		for (String path : invalids) {
+			HttpFileContext cached = pathTexts.get(path);
+			remove(path);
+			if (cached != null)
+				cached.trash();
+		}
 	}
 
 	@Override
 	public void free(){
-		//TODO: if cache is made persistent, clear memory only, not the persistent data  
+		//clear memory only, not the persistent data  
 		clear(false,null);
+		fingerprints.free();
+	}
+	
+	/**
+	 * Saves fingerprints of pages crawled so far.
+	 */
+	public void save(){
+		fingerprints.save();
 	}
 	
 	public void clear(Date till) {
 		clear(till !=null ? false : true,till);
 	}
 	
+	/**
+	 * Clears heap tier and fingerprints of this cacher, everything or entries older than given time, 
+	 * while disk tier, which may be shared by peers, is not deleted but only trimmed to its limit.
+	 */
 	@Override
 	public synchronized void clear(boolean everything, Date till) {
+		body.debug(stats());
 		if (everything) {
 body.debug("Cacher clearing everything");
 			pathTexts.clear();
-		} else synchronized(this) {
+			memory = 0;
+			fingerprints.clear();
+		} else {
 			Object[] paths = pathTexts.keySet().toArray(new String[] {});
 			for (Object path : paths) {
 				HttpFileContext cached = pathTexts.get(path);
 				Date date = cached == null ? null : cached.time;
 				if (cached == null || till == null || date.compareTo(till) < 0) {
 body.debug("Cacher clearing "+path);
-					pathTexts.remove(path);
+					remove((String)path);
 				}
 			}
+			if (till != null)
+				trim();
 		}
 	}
 
+	public synchronized String stats() {
+		long total = hits + disk_hits + misses;
+		return "Cacher hits "+hits+" disk hits "+disk_hits+" misses "+misses+" not modified "+not_modified+" reuses "+reuses
+			+" hit rate "+(total == 0 ? 0 : (hits + disk_hits) * 100 / total)+"%"
+			+" read bytes "+read_bytes+" cached bytes "+cached_bytes+" memory bytes "+memory+" pages "+pathTexts.size()
+			+" "+reader.stats();
+	}
+	
+	synchronized void count(Siter siter){
+		pages += siter.pages;
+		skipped_pages += siter.skipped_pages;
+		blocks += siter.blocks;
+		skipped_blocks += siter.skipped_blocks;
+		tokens += siter.tokens;
+		skipped_tokens += siter.skipped_tokens;
+	}
+	
+	/**
+	 * Reports parsing and matching avoided for unchanged pages since the last report, like per crawl cycle.
+	 * @param reset whether to start counting over
+	 */
+	public synchronized String novelty(boolean reset) {
+		String report = "pages "+pages+" skipped "+skipped_pages+" blocks "+blocks+" skipped "+skipped_blocks
+			+" tokens "+tokens+" skipped "+skipped_tokens
+			+" not stripped "+(reuses - reported_reuses)+" not modified "+(not_modified - reported_not_modified);
+		if (reset) {
+			pages = skipped_pages = blocks = skipped_blocks = tokens = skipped_tokens = 0;
+			reported_reuses = reuses;
+			reported_not_modified = not_modified;
+		}
+		return report;
+	}
+	
 	public synchronized String checkCachedRaw(String path){
 		HttpFileContext cached = pathTexts.get(path);
 		return cached != null ? cached.data : null;
@@ -127,7 +222,32 @@ body.debug("Cacher clearing "+path);
 		HttpFileContext cached = new HttpFileContext();
 		cached.time = new Date();
 		cached.data = data;
-		pathTexts.put(path,cached);
+		put(path,cached);
+	}
+	
+	private static long size(HttpFileContext context) {
+		return context == null ? 0 : 2L * ((context.data == null ? 0 : context.data.length()) + (context.text == null ? 0 : context.text.length()));
+	}
+	
+	private synchronized HttpFileContext get(String path) {
+		return pathTexts.get(path);
+	}
+	
+	//add to the heap tier, evicting least recently used pages beyond the limit
+	private synchronized void put(String path, HttpFileContext context) {
+		memory -= size(pathTexts.put(path, context));
+		memory += size(context);
+		for (Iterator<Map.Entry<String,HttpFileContext>> it = pathTexts.entrySet().iterator(); memory > memory_limit && it.hasNext();) {
+			Map.Entry<String,HttpFileContext> eldest = it.next();
+			if (eldest.getValue() == context)
+				continue;
+			memory -= size(eldest.getValue());
+			it.remove();
+		}
+	}
+	
+	private synchronized void remove(String path) {
+		memory -= size(pathTexts.remove(path));
 	}
 	
 	/**
@@ -139,58 +259,277 @@ body.debug("Cacher clearing "+path);
 	 */
 	//TODO: if cached and date in cache is less than current date
 	public String readCached(String path,long time,ArrayList links,Map images,Map linkPositions, Map titles, boolean raw){
-		HttpFileContext context = pathTexts.get(path);
+		HttpFileContext context = get(path);
 		Date date = context == null ? null : context.time;
 		if (context != null && date != null && date.getTime() >= time//if NOT expired
 				&& !(raw && context.data == null)//and NOT the case the requested raw data is cleared
 			){
-			if (!raw && context.text == null) {//if cached raw, extend the cache with parsed version
-				String text = HtmlStripper.convert(context.data,HtmlStripper.block_tags,HtmlStripper.block_breaker,links,images,linkPositions,titles,path).toLowerCase();
-				context.text = text;
-				context.time = new Date();
-				context.links = links;
-				context.images = images;
-				context.linkPositions = linkPositions;
-				context.titles = titles;
-				return text;
+			synchronized (this) {
+				hits++;
+			}
+			return cached(path,context,links,images,linkPositions,titles,raw);
+		}
+		//try the disk tier, not expired first
+		HttpFileContext stored = load(path);
+		if (stored != null && raw && stored.data == null)
+			stored.data = loadData(stored.hash);
+		if (stored != null && stored.time != null && stored.time.getTime() >= time
+			&& (raw ? stored.data != null : stored.text != null || stored.data != null)) {
+			synchronized (this) {
+				disk_hits++;
 			}
-			if (links != null && context.links != null)
-				links.addAll(context.links);
-			if (linkPositions != null && context.linkPositions != null)
-				linkPositions.putAll(context.linkPositions);
-			if (images != null && context.images != null)
-				images.putAll(context.images);
-			if (titles != null && context.titles != null)
-				titles.putAll(context.titles);
-			return raw ? context.data : context.text;
+			put(path, stored);
+			return cached(path,stored,links,images,linkPositions,titles,raw);
+		}
+		synchronized (this) {
+			misses++;
 		}
-//TODO: find more clever way to check readability instead of such DoS attack - simulation, use context.conn
 		context = new HttpFileContext();
-		if (reader.allowedForRobots(path) && reader.canReadDocContext(path,context)) { //still, here we need to try it first in order to get encoding	
+		//revalidate the stored version, if it can be used
+		if (stored != null && (stored.data != null || body.getFile(dataPath(stored.hash)).exists() || (!raw && stored.text != null))) {
+			context.etag = stored.etag;
+			context.modified = stored.modified;
+		}
+		if (reader.allowedForRobots(path)) {
 			try {
-				String data = reader.readDocData(path," ",context);
+				String data = reader.readDoc(path," ",context);
+				if (data == null && context.code == HttpURLConnection.HTTP_NOT_MODIFIED && stored != null) {
+					if (stored.data == null && (raw || stored.text == null))
+						stored.data = loadData(stored.hash);
+					if (raw ? stored.data != null : stored.text != null || stored.data != null) {
+						synchronized (this) {
+							not_modified++;
+						}
+						stored.time = new Date();
+						put(path, stored);
+						store(path, stored, false);
+						return cached(path,stored,links,images,linkPositions,titles,raw);
+					}
+					//stored data is lost, so read unconditionally
+					context = new HttpFileContext();
+					data = reader.readDoc(path," ",context);
+				}
 				if (data != null) {
+					synchronized (this) {
+						read_bytes += data.length();
+					}
+					context.hash = hash(data);
+					context.data = data;
+					context.time = new Date();
+					if (!raw && stored != null && stored.text != null && context.hash.equals(stored.hash)) {//unchanged, don't strip again
+						synchronized (this) {
+							reuses++;
+						}
+						context.text = stored.text;
+						context.links = fill(links,stored.links);
+						context.images = fill(images,stored.images);
+						context.linkPositions = fill(linkPositions,stored.linkPositions);
+						context.titles = fill(titles,stored.titles);
+						put(path, context);
+						store(path, context, false);
+						return context.text;
+					}
 					//TODO: if breaking with blocks
 					//do this intelligently (hierarchically) 
 					//otherwise some (say chinese) things do not work
 					String text = raw ? null : HtmlStripper.convert(data,HtmlStripper.block_tags,HtmlStripper.block_breaker,links,images,linkPositions,titles,path).toLowerCase();
-					context.data = data;
 					context.text = text;
-					context.time = new Date();
 					context.links = links;
 					context.images = images;
 					context.linkPositions = linkPositions;
 					context.titles = titles;
-					pathTexts.put(path, context);
+					put(path, context);
+					store(path, context, stored == null || !context.hash.equals(stored.hash));
 					return raw ? data : text;
 				}
 			} catch (Exception e) {
 				body.error(e.toString(), e);
 			}
 		}
-		pathTexts.put(path, null);//"blacklist" the site
+		put(path, null);//"blacklist" the site
 		return null;
 	}
+	
+	private String cached(String path,HttpFileContext context,ArrayList links,Map images,Map linkPositions, Map titles, boolean raw){
+		if (!raw && context.text == null) {//if cached raw, extend the cache with parsed version
+			String data = context.data;
+			if (data == null)
+				data = loadData(context.hash);
+			String text = HtmlStripper.convert(data,HtmlStripper.block_tags,HtmlStripper.block_breaker,links,images,linkPositions,titles,path).toLowerCase();
+			//context is shared by threads reading the page, so it is updated along with its size under the lock of put and remove
+			synchronized (this) {
+				long size = size(context);
+				if (context.data == null)
+					context.data = data;
+				context.text = text;
+				context.time = new Date();
+				context.links = links;
+				context.images = images;
+				context.linkPositions = linkPositions;
+				context.titles = titles;
+				if (pathTexts.get(path) == context)
+					memory += size(context) - size;
+			}
+			store(path, context, false);
+			return text;
+		}
+		fill(links,context.links);
+		fill(linkPositions,context.linkPositions);
+		fill(images,context.images);
+		fill(titles,context.titles);
+		String result = raw ? context.data : context.text;
+		if (result != null)
+			synchronized (this) {
+				cached_bytes += result.length();
+			}
+		return result;
+	}
+	
+	private static ArrayList fill(ArrayList target, ArrayList source) {
+		if (target != null && source != null)
+			target.addAll(source);
+		return target;
+	}
+	
+	private static Map fill(Map target, Map source) {
+		if (target != null && source != null)
+			target.putAll(source);
+		return target;
+	}
+	
+	static String hash(String data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < digest.length; i++)
+				sb.append(Integer.toHexString(0x100 | (digest[i] & 0xff)).substring(1));
+			return sb.toString();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	private String urlPath(String url) {
+		return pathDir + "/urls/" + hash(url);
+	}
+	
+	private String dataPath(String hash) {
+		return pathDir + "/data/" + hash;
+	}
+	
+	//load page from the disk tier, without raw data unless it is available under its hash
+	private HttpFileContext load(String path) {
+		File file = body.getFile(urlPath(path));
+		if (!file.exists())
+			return null;
+		Object o = filer.load(urlPath(path));
+		if (!(o instanceof HttpFileContext))
+			return null;
+		HttpFileContext context = (HttpFileContext)o;
+		if (context.text == null)
+			context.data = loadData(context.hash);
+		return context;
+	}
+	
+	private String loadData(String hash) {
+		if (hash == null)
+			return null;
+		File file = body.getFile(dataPath(hash));
+		if (!file.exists())
+			return null;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			char[] buf = new char[8192];
+			for (int n; (n = reader.read(buf)) > 0;)
+				sb.append(buf, 0, n);
+			file.setLastModified(System.currentTimeMillis());//keep recently used
+			return sb.toString();
+		} catch (Exception e) {
+			body.error("Cacher can not load "+file.getPath(), e);
+			return null;
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (Exception e) {}
+		}
+	}
+
+	//save page to the disk tier, with raw data if it is new, writing temporary files so peers never see partial ones
+	private void store(String path, HttpFileContext context, boolean data) {
+		if (context.hash == null)
+			return;
+		if (data && context.data != null) {
+			File file = body.getFile(dataPath(context.hash));
+			if (!file.exists()) {
+				File tmp = body.getFile(dataPath(context.hash)+"."+Thread.currentThread().getId()+".tmp");
+				Writer writer = null;
+				try {
+					tmp.getParentFile().mkdirs();
+					writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), "UTF-8");
+					writer.write(context.data);
+					writer.close();
+					writer = null;
+					if (!tmp.renameTo(file))
+						tmp.delete();
+				} catch (Exception e) {
+					body.error("Cacher can not store "+file.getPath(), e);
+					tmp.delete();
+				} finally {
+					try {
+						if (writer != null)
+							writer.close();
+					} catch (Exception e) {}
+				}
+			}
+		}
+		String tmp = urlPath(path)+"."+Thread.currentThread().getId()+".tmp";
+		filer.save(tmp, context);
+		File file = body.getFile(urlPath(path));
+		try {
+			Files.move(body.getFile(tmp).toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			body.error("Cacher can not store "+file.getPath(), e);
+			body.getFile(tmp).delete();
+		}
+	}
+	
+	//delete least recently used files of the disk tier beyond the limit
+	private void trim() {
+		ArrayList files = new ArrayList();
+		long size = 0;
+		String[] dirs = new String[]{"urls","data"};
+		for (int d = 0; d < dirs.length; d++) {
+			File[] list = body.getFile(pathDir + "/" + dirs[d]).listFiles();
+			if (list != null)
+				for (int i = 0; i < list.length; i++) {
+					files.add(list[i]);
+					size += list[i].length();
+				}
+		}
+		if (size <= disk_limit)
+			return;
+		File[] sorted = (File[])files.toArray(new File[]{});
+		final HashMap times = new HashMap();
+		for (int i = 0; i < sorted.length; i++)
+			times.put(sorted[i], new Long(sorted[i].lastModified()));
+		Arrays.sort(sorted, new Comparator() {
+			public int compare(Object a, Object b) {
+				return ((Long)times.get(a)).compareTo((Long)times.get(b));
+			}
+		});
+		int deleted = 0;
+		for (int i = 0; i < sorted.length && size > disk_limit; i++) {
+			long length = sorted[i].length();
+			if (sorted[i].delete()) {
+				size -= length;
+				deleted++;
+			}
+		}
+		body.debug("Cacher trimmed "+deleted+" files to "+size+" bytes");
+	}
 
 //TODO: synchronization
 	/**
@@ -198,6 +537,7 @@ body.debug("Cacher clearing "+path);
 	 * from cache (if found and if not older than required time) or from the web (otherwise)
 	 * then parse it, store in memory and return as plain text along with filled links and images
 	 * @param path - path to document on the web
+	 * @param pathTried - map of paths read in the current crawl to indications if they are updated, owned by the crawl
 	 * @param links - array of web links to fill
 	 * @param images - map of image positions to images
 	 * @param linkPositions - map of link positions to links
@@ -205,7 +545,7 @@ body.debug("Cacher clearing "+path);
 	 * @param realTime - time when we want this to be actual
 	 * @return
 	 */
-	protected String readIfUpdated(String path,ArrayList links,Map images,Map linkPositions,Map titles,boolean forced,Date realTime){
+	protected String readIfUpdated(String path,Map pathTried,ArrayList links,Map images,Map linkPositions,Map titles,boolean forced,Date realTime){
 //TODO: can't we get rid of the pathTried!?
 		//pathTried - means "doable", indicates that file can be processed repeatedly for different things!!!
 		//if known as ignored or not ignored, return from cache
@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.self;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.webstructor.al.AL;
+import net.webstructor.al.Set;
+import net.webstructor.core.Environment;
+
+/**
+ * Fingerprints of text blocks of pages as seen on the latest crawl of every page,
+ * so blocks not changed since then are not matched again.
+ * Block is the sequence of tokens up to and including period token, 
+ * fingerprinted with 64-bit FNV-1a hash of its tokens.
+ * File layout (big-endian): signature, version, count of pages, then for every page 
+ * UTF path, count of its fingerprints and the fingerprints in ascending order.
+ */
+class Fingerprints {
+	static final int SIGNATURE = 0x41465031;//"AFP1"
+	static final int VERSION = 1;
+	
+	protected int max_pages = 100000;//least recently crawled pages are forgotten beyond that
+	
+	private Environment env;
+	private String path;
+	private LinkedHashMap pages = null;//path -> long[] of sorted fingerprints, in access order, loaded lazily
+	private boolean modified = false;
+
+	Fingerprints(Environment env, String path){
+		this.env = env;
+		this.path = path;
+	}
+	
+	/**
+	 * @return fingerprints of the page as of the previous crawl or null if not known
+	 */
+	synchronized long[] get(String page){
+		if (pages == null)
+			load();
+		return (long[])pages.get(page);
+	}
+	
+	/**
+	 * Replaces fingerprints of the page.
+	 * @return fingerprints of the page as of the previous crawl or null if not known
+	 */
+	synchronized long[] put(String page, long[] fingerprints){
+		if (pages == null)
+			load();
+		modified = true;
+		return (long[])pages.put(page, fingerprints);
+	}
+	
+	synchronized void save(){
+		if (pages == null || !modified)
+			return;
+		File file = env.getFile(path);
+		File tmp = new File(file.getPath()+".tmp");
+		DataOutputStream out = null;
+		try {
+			if (file.getParentFile() != null)
+				file.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(SIGNATURE);
+			out.writeInt(VERSION);
+			out.writeInt(pages.size());
+			for (Iterator it = pages.entrySet().iterator(); it.hasNext();){
+				Map.Entry e = (Map.Entry)it.next();
+				long[] fingerprints = (long[])e.getValue();
+				out.writeUTF((String)e.getKey());
+				out.writeInt(fingerprints.length);
+				for (int i = 0; i < fingerprints.length; i++)
+					out.writeLong(fingerprints[i]);
+			}
+			out.close();
+			out = null;
+			file.delete();
+			if (tmp.renameTo(file))
+				modified = false;
+		} catch (IOException e) {
+			env.error("Fingerprints can not write "+path, e);
+		} finally {
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e) {}//ignore
+			if (tmp.exists())
+				tmp.delete();
+		}
+	}
+	
+	//save and release memory
+	synchronized void free(){
+		save();
+		pages = null;
+	}
+	
+	synchronized void clear(){
+		pages = null;
+		modified = false;
+		env.getFile(path).delete();
+	}
+	
+	private void load(){
+		pages = new LinkedHashMap(16,0.75f,true){
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > max_pages;
+			}
+		};
+		File file = env.getFile(path);
+		if (!file.exists())
+			return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != SIGNATURE || in.readInt() != VERSION)
+				throw new IOException("unsupported format");
+			for (int count = in.readInt(); count > 0; count--){
+				String page = in.readUTF();
+				long[] fingerprints = new long[in.readInt()];
+				for (int i = 0; i < fingerprints.length; i++)
+					fingerprints[i] = in.readLong();
+				pages.put(page, fingerprints);
+			}
+		} catch (IOException e) {
+			env.error("Fingerprints can not read "+path, e);
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {}//ignore
+		}
+	}
+	
+	/**
+	 * Splits tokens into blocks ending with period tokens.
+	 * @return token indexes where blocks begin, followed by the number of tokens
+	 */
+	static int[] blocks(Set tokens){
+		int count = 1;
+		for (int i = 0; i < tokens.size() - 1; i++)
+			if (period(tokens.get(i)))
+				count++;
+		int[] bounds = new int[count + 1];
+		for (int i = 0, b = 1; i < tokens.size() - 1; i++)
+			if (period(tokens.get(i)))
+				bounds[b++] = i + 1;
+		bounds[count] = tokens.size();
+		return bounds;
+	}
+	
+	private static boolean period(Object token){
+		String s = token.toString();
+		return s.length() == 1 && AL.periods.indexOf(s.charAt(0)) != -1;
+	}
+	
+	static long fingerprint(Set tokens, int from, int to){
+		long hash = 0xcbf29ce484222325L;
+		for (int i = from; i < to; i++){
+			String token = tokens.get(i).toString();
+			for (int c = 0; c < token.length(); c++){
+				hash ^= token.charAt(c);
+				hash *= 0x100000001b3L;
+			}
+			hash ^= ' ';
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	static boolean contains(long[] sorted, long fingerprint){
+		return sorted != null && Arrays.binarySearch(sorted, fingerprint) >= 0;
+	}
+}
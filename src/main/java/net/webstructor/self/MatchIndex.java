@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2020 by Anton Kolonin, Aigents®
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.webstructor.self;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import net.webstructor.al.AL;
+import net.webstructor.al.Any;
+import net.webstructor.al.Iter;
+import net.webstructor.al.Reader;
+import net.webstructor.al.Seq;
+import net.webstructor.al.Set;
+import net.webstructor.core.Storager;
+import net.webstructor.core.Thing;
+
+/**
+ * Patterns of a collection of things compiled once into an inverted index of the literal tokens they require,
+ * so all things that may possibly match a text are found in one pass over its tokens.
+ * Every pattern is reduced to the tokens which must be present in the text for the pattern to be read: 
+ * all tokens of a sequence [ ] and any of the alternatives { }, 
+ * while variables and regular expressions can't rule anything out, 
+ * so only the candidates found that way are left for the actual matching by Reader. 
+ */
+class MatchIndex {
+	static final Object NONE = Boolean.TRUE;//no requirement, pattern can't be ruled out by tokens
+
+	long signature;
+	Thing[] things;
+	Object[][] requirements;//for each thing, requirement of each of its patterns
+	boolean[] always;//things which can't be ruled out
+	HashMap anchors = new HashMap();//token to int[] indexes of things requiring it
+
+	MatchIndex(Storager storager, Collection things, long signature, HashMap compiled) {
+		this.signature = signature;
+		this.things = new Thing[things.size()];
+		this.requirements = new Object[this.things.length][];
+		this.always = new boolean[this.things.length];
+		HashMap lists = new HashMap();
+		int i = 0;
+		for (Iterator it = things.iterator(); it.hasNext(); i++) {
+			Thing thing = (Thing)it.next();
+			this.things[i] = thing;
+			String[] patterns = patterns(thing);
+			requirements[i] = new Object[patterns.length];
+			HashSet tokens = new HashSet();
+			for (int p = 0; p < patterns.length; p++) {
+				Object requirement;
+				synchronized (compiled) {
+					requirement = compiled.get(patterns[p]);
+				}
+				if (requirement == null) {
+					requirement = patterns[p] == null ? NONE : requirement(Reader.pattern(storager, new Thing(), patterns[p]));
+					synchronized (compiled) {
+						compiled.put(patterns[p], requirement);
+					}
+				}
+				requirements[i][p] = requirement;
+				if (requirement == NONE)
+					always[i] = true;
+				else
+					tokens(requirement, tokens);
+			}
+			if (!always[i]) for (Iterator t = tokens.iterator(); t.hasNext();) {
+				Object token = t.next();
+				ArrayList list = (ArrayList)lists.get(token);
+				if (list == null)
+					lists.put(token, list = new ArrayList());
+				list.add(new Integer(i));
+			}
+		}
+		for (Iterator it = lists.keySet().iterator(); it.hasNext();) {
+			Object token = it.next();
+			ArrayList list = (ArrayList)lists.get(token);
+			int[] indexes = new int[list.size()];
+			for (int j = 0; j < indexes.length; j++)
+				indexes[j] = ((Integer)list.get(j)).intValue();
+			anchors.put(token, indexes);
+		}
+	}
+
+	/**
+	 * Returns things that may match the text, in the order of the original collection.
+	 * @param iter parsed text, reset to the beginning on return
+	 */
+	Collection candidates(Iter iter) {
+		HashSet tokens = new HashSet();
+		boolean[] touched = new boolean[things.length];
+		for (iter.pos(0); iter.has();) {
+			Object token = iter.next();
+			if (tokens.add(token)) {
+				int[] indexes = (int[])anchors.get(token);
+				if (indexes != null)
+					for (int j = 0; j < indexes.length; j++)
+						touched[indexes[j]] = true;
+			}
+		}
+		iter.pos(0);
+		ArrayList candidates = new ArrayList();
+		for (int i = 0; i < things.length; i++) {
+			if (always[i])
+				candidates.add(things[i]);
+			else
+			if (touched[i])
+				for (int p = 0; p < requirements[i].length; p++)
+					if (satisfied(requirements[i][p], tokens)) {
+						candidates.add(things[i]);
+						break;
+					}
+		}
+		return candidates;
+	}
+
+	//the same patterns as used by Matcher.match for the thing
+	static String[] patterns(Thing thing) {
+		Collection patterns = (Collection)thing.get(AL.patterns);
+		if (AL.empty(patterns))
+			return new String[]{thing.getName()};
+		String[] names = new String[patterns.size()];
+		int i = 0;
+		for (Iterator it = patterns.iterator(); it.hasNext();)
+			names[i++] = ((Thing)it.next()).getName();
+		return names;
+	}
+
+	//identifies things and their patterns, so the index is rebuilt once any of them changes
+	static long signature(Collection things) {
+		long signature = things.size();
+		for (Iterator it = things.iterator(); it.hasNext();) {
+			Thing thing = (Thing)it.next();
+			signature = signature * 1099511628211L ^ System.identityHashCode(thing);
+			String[] patterns = patterns(thing);
+			for (int p = 0; p < patterns.length; p++)
+				signature = signature * 1099511628211L ^ (patterns[p] == null ? 0 : patterns[p].hashCode());
+		}
+		return signature;
+	}
+
+	//reduce pattern term to token, Seq of requirements (all), Any of requirements (any) or NONE 
+	static Object requirement(Object term) {
+		if (term instanceof String) {
+			String s = (String)term;
+			//regexp is matched against any token 
+			return s.length() > 3 && s.charAt(0) == '/' && s.charAt(s.length()-1) == '/' ? NONE : s;
+		}
+		if (term instanceof Seq || term instanceof Any) {
+			boolean any = term instanceof Any;
+			Set set = (Set)term;
+			ArrayList list = new ArrayList();
+			for (int i = 0; i < set.size(); i++) {
+				Object requirement = requirement(set.get(i));
+				if (requirement == NONE) {
+					if (any)
+						return NONE;
+				} else
+					list.add(requirement);
+			}
+			if (list.isEmpty())
+				return NONE;
+			if (list.size() == 1)
+				return list.get(0);
+			return any ? (Object)new Any(list.toArray()) : new Seq(list.toArray());
+		}
+		return NONE;//properties
+	}
+
+	static void tokens(Object requirement, HashSet tokens) {
+		if (requirement instanceof String)
+			tokens.add(requirement);
+		else
+		if (requirement instanceof Set)
+			for (int i = 0; i < ((Set)requirement).size(); i++)
+				tokens(((Set)requirement).get(i), tokens);
+	}
+
+	static boolean satisfied(Object requirement, HashSet tokens) {
+		if (requirement == NONE)
+			return true;
+		if (requirement instanceof String)
+			return tokens.contains(requirement);
+		boolean any = requirement instanceof Any;
+		Set set = (Set)requirement;
+		for (int i = 0; i < set.size(); i++)
+			if (satisfied(set.get(i), tokens) == any)
+				return any;
+		return !any;
+	}
+}
@@ -23,13 +23,22 @@
  */
 package net.webstructor.self;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 
 import net.webstructor.agent.Body;
+import net.webstructor.agent.Farm;
 import net.webstructor.al.AL;
 import net.webstructor.al.Iter;
 import net.webstructor.al.Parser;
@@ -37,16 +46,27 @@ import net.webstructor.al.Period;
 import net.webstructor.al.Reader;
 import net.webstructor.al.Seq;
 import net.webstructor.al.Time;
+import net.webstructor.cat.HtmlStripper;
+import net.webstructor.core.Environment;
 import net.webstructor.core.Property;
 import net.webstructor.core.Storager;
 import net.webstructor.core.Thing;
 import net.webstructor.data.ContentLocator;
+import net.webstructor.main.Mainer;
 import net.webstructor.util.MapMap;
 import net.webstructor.util.Str;
 
 public class Matcher { 
 	protected Body body;
 	protected Storager storager;
+	protected int index_cache = 16;//number of distinct collections of things to keep compiled
+	private final HashMap indexes = new HashMap();//signature to MatchIndex
+	protected int compiled_cache = 65536;//number of distinct patterns to keep compiled
+	private final HashMap compiled = new LinkedHashMap(16, 0.75f, true) {//pattern string to its token requirement, least recently used dropped
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > compiled_cache;
+		}
+	};
 	
 	public Matcher(Body body) {
 		this.body = body;
@@ -81,6 +101,33 @@ public class Matcher {
 		return Reader.read(iter, patseq, summary);
 	}
 
+	/**
+	 * Finds things which patterns may be matched in parsed text, in one pass over the text,
+	 * so the rest of the things does not need to be matched at all. 
+	 * @param things to match
+	 * @param iter parsed text
+	 * @return candidate things, in the order of the original collection
+	 */
+	public Collection candidates(Collection things, Iter iter) {
+		if (AL.empty(things))
+			return things;
+		long signature = MatchIndex.signature(things);
+		Long key = new Long(signature);
+		MatchIndex index;
+		synchronized (indexes) {
+			index = (MatchIndex)indexes.get(key);
+		}
+		if (index == null) {
+			index = new MatchIndex(storager, things, signature, compiled);
+			synchronized (indexes) {
+				if (indexes.size() >= index_cache)
+					indexes.clear();
+				indexes.put(key, index);
+			}
+		}
+		return index.candidates(iter);
+	}
+	
 	public void matchPeersText(Collection things, String text, Date time, String permlink, String imgurl){
 		MapMap thingPaths = new MapMap();//collector
 		int matches = matchThingsText(things,text,time,permlink,imgurl,thingPaths);
@@ -104,7 +151,7 @@ public class Matcher {
 			int matches = 0;
 			long start = System.currentTimeMillis();  
 			body.debug("Siter matching start "+permlink);
-			for (Object thing: allThings) {
+			for (Object thing: candidates(allThings,parse)) {
 				int match = match(parse, null, (Thing)thing, time, permlink, null, thingPaths, imager, null, titler);
 				if (match > 0) {
 					body.debug("Siter matching found "+((Thing)thing).getName()+" in "+permlink);
@@ -241,4 +288,100 @@ public class Matcher {
 		}
 		return text;
 	}
+	
+	//generate given number of topics with names and patterns of words with Zipf-like frequencies 
+	//and match them against the pages in the directory or the generated ones, with and without candidates index
+	private static void benchmark(Environment env, int count, int pageCount, String dir) throws Exception {
+		Body body = new Farm(new String[]{},false,false,false,false,false,false,1);
+		Matcher matcher = new Matcher(body);
+		Random random = new Random(1);
+		String[] words;
+		ArrayList pages = new ArrayList();
+		File[] files = dir == null ? null : new File(dir).listFiles();
+		if (files != null) {
+			final HashMap counts = new HashMap();
+			for (int i = 0; i < files.length; i++) {
+				if (!files[i].isFile())
+					continue;
+				String text = new String(Files.readAllBytes(files[i].toPath()),"UTF-8");
+				if (text.trim().startsWith("<"))
+					text = HtmlStripper.convert(text," ",null);
+				pages.add(text);
+				Seq tokens = Parser.parse(text);
+				for (int j = 0; j < tokens.size(); j++) {
+					String token = (String)tokens.get(j);
+					if (AL.punctuation.indexOf(token) == -1) {
+						Integer c = (Integer)counts.get(token);
+						counts.put(token, new Integer(c == null ? 1 : c.intValue() + 1));
+					}
+				}
+			}
+			//rank words of the corpus by frequency
+			words = (String[])counts.keySet().toArray(new String[]{});
+			Arrays.sort(words, new Comparator() {
+				public int compare(Object a, Object b) {
+					return ((Integer)counts.get(b)).compareTo((Integer)counts.get(a));
+				}
+			});
+		} else {
+			words = new String[10000];
+			for (int i = 0; i < words.length; i++)
+				words[i] = "w"+i;
+			for (int i = 0; i < pageCount; i++) {
+				StringBuilder page = new StringBuilder();
+				for (int j = 1; j <= 2000; j++)
+					page.append(words[zipf(random,words.length)]).append(j % 15 == 0 ? ". " : " ");
+				pages.add(page.toString());
+			}
+		}
+		ArrayList topics = new ArrayList();
+		for (int i = 0; i < count; i++) {
+			Thing topic = new Thing();
+			topic.setString(AL.name,words[zipf(random,words.length)]+" "+words[zipf(random,words.length)]);
+			if (i % 10 == 0) {//some with explicit patterns, including alternatives and variables
+				Thing pattern = new Thing();
+				pattern.setString(AL.name,"{"+words[zipf(random,words.length)]+" "+words[zipf(random,words.length)]+"} "+words[zipf(random,words.length)]);
+				pattern.store(body.storager);
+				topic.addThing(AL.patterns,pattern);
+				if (i % 100 == 0) {
+					pattern = new Thing();
+					pattern.setString(AL.name,words[zipf(random,words.length)]+" $number");
+					pattern.store(body.storager);
+					topic.addThing(AL.patterns,pattern);
+				}
+			}
+			topic.store(body.storager);
+			topics.add(topic);
+		}
+		Date time = Time.today(0);
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.currentTimeMillis();
+			int matches = 0, candidates = 0;
+			for (int p = 0; p < pages.size(); p++) {
+				Iter parse = new Iter(Parser.parse((String)pages.get(p)));
+				Collection things = pass == 0 ? topics : matcher.candidates(topics, parse);
+				candidates += things.size();
+				for (Iterator it = things.iterator(); it.hasNext();)
+					matches += matcher.match(parse, null, (Thing)it.next(), time, "page"+p, null, new MapMap(), null, null, null);
+			}
+			env.debug("Matcher benchmark "+(pass == 0 ? "all" : "candidates")+" topics "+topics.size()+" pages "+pages.size()
+				+" candidates "+candidates+" matches "+matches+" took "+(System.currentTimeMillis() - start)+" ms");
+		}
+	}
+	
+	private static int zipf(Random random, int n) {
+		return (int)Math.min(n - 1, Math.floor(Math.pow(n + 1, random.nextDouble())) - 1);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		if (args == null || args.length < 1){
+			System.out.println("Options: benchmark [topics <count>] [pages <count>] [path <directory>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0])) {
+			benchmark(new Mainer(), Integer.parseInt(Str.arg(args, "topics", "10000")),
+				Integer.parseInt(Str.arg(args, "pages", "10")), Str.arg(args, "path", null));
+			System.exit(0);//conversation threads of the farm
+		}
+	}
 }
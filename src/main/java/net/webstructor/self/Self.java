@@ -166,11 +166,9 @@ public class Self {
 		
 		//1) first, forget timed things
 		//TODO: consider, for non-free version, retain trusted things
-		Date[] days = new Date[attention_days];
-		for (int i = 0; i < attention_days; i++) {
-			days[i] = Time.today(-i);
-		}
-		Collection olds = body.storager.get(AL.times,days,false);
+		Date first = Time.today(-(attention_days - 1));
+		Date last = Time.today(0);
+		Collection olds = body.storager.get(AL.times,first,last,false);
 		body.storager.del(olds,true);
 			
 		//2) for each of the peers, remove more than 999 oldest untrusted news
@@ -186,7 +184,7 @@ public class Self {
 		}
 			
 		//3) finally, do plain garbage collection
-		Collection news = body.storager.get(AL.times,days,true);
+		Collection news = body.storager.get(AL.times,first,last,true);
 		body.storager.clear(exceptions, peers, AL.empty(news) ? null : new HashSet(news) );
 		
 		//4) clear logs
@@ -215,9 +213,10 @@ public class Self {
 		body.debug("Forgetting stop, memory "+body.checkMemory());
 	}
 	
+	//same streamer of the body is used to load and save so it keeps changes logged after the snapshot
 	public static boolean save(Body body,String path) {
 		try {
-			new Streamer(body).write(path);
+			body.getStreamer().write(path);
 			return true;
 		} catch (Exception e) {
 			body.error("Saving error",e);
@@ -228,7 +227,7 @@ public class Self {
 	public static boolean load(Body body,String path) {
 		try {
 			Thing trueself = body.self();
-			new Streamer(body).read(path);
+			body.getStreamer().read(path);
 			
 			//ensure there is no self personality split!
 			Collection selfs = new ArrayList((Collection)body.storager.getByName(AL.is,Schema.self));
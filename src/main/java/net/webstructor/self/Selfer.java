@@ -306,6 +306,9 @@ public class Selfer extends Thread {
 			boolean ok = spider.spider(target.getString("url"), target.getString("thingname"), time, tillTime, true, searchRange, limit, "site".equalsIgnoreCase(scope) ? true : false, target.getString("mode"));
 			if (ok && body.sitecacher != null)
 				body.sitecacher.updateGraph(time, body.sitecacher.getGraph(Time.date(time)), System.currentTimeMillis());
+			if (ok && body.siteindex != null)
+				body.siteindex.save();
+			body.filecacher.save();
 			return ok;
 		}
 
@@ -24,8 +24,10 @@
 package net.webstructor.self;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -82,6 +84,13 @@ public class Siter {
 	ContentLocator titler;//positions of titles/headers
 
 	Crawler crawler;//Crawler that is currently being tried //TODO fix hack!?
+	
+	HashMap pathTried = new HashMap();//path -> if the page read in this crawl is updated, so it is read and compared once per crawl
+	HashMap pathFingerprints = new HashMap();//path -> fingerprints of page blocks as of the earlier crawl, taken once per crawl
+	HashMap newFingerprints = new HashMap();//path -> fingerprints of page blocks read in this crawl, kept once the page is matched
+	HashMap topicFingerprints = new HashMap();//topic -> fingerprints of blocks matched for it in this crawl
+	int pages = 0, skipped_pages = 0;//pages matched and skipped as having no new blocks
+	long blocks = 0, skipped_blocks = 0, tokens = 0, skipped_tokens = 0;
 
 	public Siter(Body body,String path) {
 		this.body = body;
@@ -201,37 +210,121 @@ public class Siter {
 
 		thingPaths.clear();//help gc
 		thingTexts.clear();
+		pathTried.clear();
+		pathFingerprints.clear();
+		newFingerprints.clear();
+		topicFingerprints.clear();
 		body.filecacher.clearContext();
+		body.filecacher.count(this);
 			
 		long stop = System.currentTimeMillis(); 
-		body.debug("Site crawling root end "+(ok ? "found" : "missed")+" "+rootPath+", took "+Period.toHours(stop-start));
+		body.debug("Site crawling root end "+(ok ? "found" : "missed")+" "+rootPath+", took "+Period.toHours(stop-start)
+			+", pages "+pages+" skipped "+skipped_pages+", blocks "+blocks+" skipped "+skipped_blocks+", tokens "+tokens+" skipped "+skipped_tokens);
 		return ok;
 	}
 	
+	/**
+	 * Gets blocks of the page not seen on the earlier crawl of the page and not matched for all of the topics in this crawl yet,
+	 * unless forced, so unchanged parts of pages are not matched again.
+	 * @param path page path
+	 * @param seq tokens of the page
+	 * @param positions positions of the tokens
+	 * @param topics topics to match
+	 * @param novelPositions positions of the tokens returned, to fill 
+	 * @return tokens of the new blocks or null if there are none
+	 */
+	Iter novel(String path, Seq seq, ArrayList positions, Collection topics, ArrayList novelPositions) {
+		int[] bounds = Fingerprints.blocks(seq);
+		long[] fingerprints = new long[bounds.length - 1];
+		for (int b = 0; b < fingerprints.length; b++)
+			fingerprints[b] = Fingerprints.fingerprint(seq, bounds[b], bounds[b + 1]);
+		if (!pathFingerprints.containsKey(path)) {//first read in this crawl, so remember the blocks for the next one, once matched
+			long[] sorted = (long[])fingerprints.clone();
+			Arrays.sort(sorted);
+			pathFingerprints.put(path, body.filecacher.fingerprints.get(path));
+			newFingerprints.put(path, sorted);
+		}
+		long[] earlier = (long[])pathFingerprints.get(path);
+		HashSet[] matched = new HashSet[topics == null ? 0 : topics.size()];
+		int t = 0;
+		if (topics != null) for (Iterator it = topics.iterator(); it.hasNext();) {
+			Object topic = it.next();
+			HashSet set = (HashSet)topicFingerprints.get(topic);
+			if (set == null)
+				topicFingerprints.put(topic, set = new HashSet());
+			matched[t++] = set;
+		}
+		ArrayList novel = new ArrayList(seq.size());
+		for (int b = 0; b < fingerprints.length; b++) {
+			Long fingerprint = new Long(fingerprints[b]);
+			boolean skip = !forced && (Fingerprints.contains(earlier, fingerprints[b]) || (matched.length > 0 && matchedAll(matched, fingerprint)));
+			int length = bounds[b + 1] - bounds[b];
+			blocks++;
+			tokens += length;
+			if (skip) {
+				skipped_blocks++;
+				skipped_tokens += length;
+				continue;
+			}
+			for (int i = bounds[b]; i < bounds[b + 1]; i++) {
+				novel.add(seq.get(i));
+				novelPositions.add(positions.get(i));
+			}
+			for (int m = 0; m < matched.length; m++)
+				matched[m].add(fingerprint);
+		}
+		pages++;
+		if (novel.isEmpty()) {
+			skipped_pages++;
+			return null;
+		}
+		return new Iter(novel.size() == seq.size() ? seq : new Seq(novel.toArray()));
+	}
+	
+	/**
+	 * Keeps fingerprints of the page read in this crawl for the next crawl, once matching of the page is complete, 
+	 * so blocks of the page are matched again if the matching fails.
+	 * @param path page path
+	 */
+	void matched(String path) {
+		long[] sorted = (long[])newFingerprints.remove(path);
+		if (sorted != null)
+			body.filecacher.fingerprints.put(path, sorted);
+	}
+	
+	private static boolean matchedAll(HashSet[] matched, Long fingerprint) {
+		for (int m = 0; m < matched.length; m++)
+			if (!matched[m].contains(fingerprint))
+				return false;
+		return true;
+	}
+	
 	protected void index(String path,Date time,Iter iter,ArrayList links){
+		//index words (word->pages) apart from the graph, replacing words indexed on earlier reads of the day
+		//TODO: check configuration if need word index!?
+		//TODO unify with path in in-text ...
+		if (body.siteindex != null){
+			ArrayList words = new ArrayList(iter.size());
+			for (iter.pos(0); iter.has();)
+				words.add(iter.next());
+			body.siteindex.index(Time.day(time), path, words);
+		}
 		if (body.sitecacher != null){
 			//TODO: actual time of the page
 			Graph g = body.sitecacher.getGraph(Time.day(time));//daily graph
 			//index links
 			if (!AL.empty(links))
-			for (Iterator it = links.iterator(); it.hasNext();){
-				String[] link = (String[])it.next();
-				String linkUrl = HttpFileReader.alignURL(path,link[0],false);//relaxed, let any "foreign" links
-				//String linkText = link[1];//TODO: use to evaluate source name as the best-weighted link!?
-				if (!AL.empty(linkUrl) && g.getValue(path, linkUrl, "links") == null){
-					g.addValue(path, linkUrl, "links", 1);
-					g.addValue(linkUrl, path, "linked", 1);
+			synchronized (g) {//shared by sites crawled at once and by the cacher
+				for (Iterator it = links.iterator(); it.hasNext();){
+					String[] link = (String[])it.next();
+					String linkUrl = HttpFileReader.alignURL(path,link[0],false);//relaxed, let any "foreign" links
+					//String linkText = link[1];//TODO: use to evaluate source name as the best-weighted link!?
+					if (!AL.empty(linkUrl) && g.getValue(path, linkUrl, "links") == null){
+						g.addValue(path, linkUrl, "links", 1);
+						g.addValue(linkUrl, path, "linked", 1);
+					}
 				}
 			}
-			//index words (site->words->word, word->worded->site)
-//TODO: check configuration if need word index!?
-//TODO prevent double-triple-etc indexing on repeated reads!?
-//TODO unify with path in in-text ...
-			for (iter.pos(0); iter.has();){
-				Object o = iter.next();
-				//g.addValue(path, o, "words", 1);
-				g.addValue(o, path, "worded", 1);
-			}			
 		}
 	}
 	
@@ -23,11 +23,15 @@
  */
 package net.webstructor.self;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -95,26 +99,9 @@ public class Spider {
 			
 			if (!AL.empty(sites)) {			
 				Date time = new Date();
-				int remainingSites = sites.size();
-				for (Iterator it = sites.iterator(); it.hasNext();){
-					//do reading for all user sites and things //TODO:may optimize skipping some sites for some users
-					//TODO: how to update the site
-					//send notifications to users (accordingly to their check cycle settings)
-					//new Siter(body,body.storager,null,sites[i]).spider();
-					long currentTime = System.currentTimeMillis();
-					if (tillTime != 0 && currentTime > tillTime){
-						body.debug("Sites crawling time out");
-						break;
-					}
-					long remaining = tillTime - currentTime;
-					long timePerSite = tillTime == 0 ? 0 : remaining / remainingSites;
-					body.debug("Sites crawling time "+Period.toHours(remaining)+"/"+remainingSites);
-					int crawlRange = ((Thing)body.getSelf()).getInt(Body.crawl_range, Siter.DEFAULT_RANGE);
-					int newsLimit = 0; //TODO: configure
-					boolean scopeStrict = true; //TODO: configure "scope=site"=>strict, "scope=web"=>false 
-					spider((String)it.next(), null, time, timePerSite == 0 ? 0 : currentTime + timePerSite, false, crawlRange, newsLimit, scopeStrict, null);
-					remainingSites--;
-				}
+				//do reading for all user sites and things //TODO:may optimize skipping some sites for some users
+				//send notifications to users (accordingly to their check cycle settings)
+				crawl(sites, time, tillTime, crawl_threads, host_threads);
 				
 				//TODO: should agglomerating be rather incremental!?
 				//TODO: make agglomeration working with
@@ -127,6 +114,10 @@ public class Spider {
 				
 				if (body.sitecacher != null)
 					body.sitecacher.updateGraph(Time.date(time), System.currentTimeMillis());
+				if (body.siteindex != null)
+					body.siteindex.save();
+				body.filecacher.save();
+				body.debug("Sites crawling novelty "+body.filecacher.novelty(true));
 			}
 		} catch (Exception e) {
 			body.error("Sites crawling "+e.toString(),e);
@@ -178,6 +169,156 @@ public class Spider {
 	}
 	*/
 	
+	protected int crawl_threads = 8;//sites crawled at once
+	protected int host_threads = 1;//sites of the same host crawled at once
+
+	//site being crawled by the pool
+	private class Crawl {
+		String site;
+		String host;
+		long start;
+		long deadline;//to cancel
+		Thread thread;//while reading, to be interrupted
+		boolean cancelled = false;
+		boolean done = false;
+		boolean ok = false;
+	}
+	
+	//host of the site url to be polite to, empty for searches by topic
+	static String host(String site) {
+		try {
+			String host = new URL(site).getHost().toLowerCase();
+			return host.startsWith("www.") ? host.substring(4) : host;
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+	
+	/**
+	 * Crawls sites concurrently, with no more than given number of sites at once and sites of the same host at once, 
+	 * giving each site its share of the time left till deadline and cancelling ones running past it.
+	 * The slot of a cancelled site is taken till its reading actually stops, 
+	 * so that no more sites are read at once than given, unless it hangs for a minute past the deadline.
+	 * @param sites - urls or topics to search for
+	 * @param time - time of reading
+	 * @param tillTime - deadline or 0 to let each site be crawled for a minute
+	 * @param threads - max sites crawled at once
+	 * @param hostThreads - max sites of the same host crawled at once
+	 */
+	public void crawl(Collection sites, final Date time, long tillTime, int threads, int hostThreads) throws InterruptedException {
+		final int crawlRange = ((Thing)body.getSelf()).getInt(Body.crawl_range, Siter.DEFAULT_RANGE);
+		final int newsLimit = 0; //TODO: configure
+		final boolean scopeStrict = true; //TODO: configure "scope=site"=>strict, "scope=web"=>false 
+		LinkedList pending = new LinkedList(sites);
+		ArrayList running = new ArrayList();
+		HashMap hosts = new HashMap();//host -> count of sites running
+		int total = pending.size(), succeeded = 0, failed = 0, timedout = 0;
+		final Object lock = new Object();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long startTime = System.currentTimeMillis();
+		try {
+			synchronized (lock) {
+				while (!pending.isEmpty() || !running.isEmpty()) {
+					long currentTime = System.currentTimeMillis();
+					//collect completed and cancel overdue
+					for (Iterator it = running.iterator(); it.hasNext();) {
+						Crawl crawl = (Crawl)it.next();
+						if (crawl.done) {
+							if (!crawl.cancelled) {//otherwise counted as timed out
+								if (crawl.ok)
+									succeeded++;
+								else
+									failed++;
+							}
+						} else {
+							if (!crawl.cancelled && currentTime > crawl.deadline) {
+								crawl.cancelled = true;
+								if (crawl.thread != null)
+									crawl.thread.interrupt();
+								body.error("Site crawling failed timeout "+crawl.site,null);
+								timedout++;
+							}
+							if (!(crawl.cancelled && currentTime > crawl.deadline + Period.MINUTE))
+								continue;
+							body.error("Site crawling hangs after timeout "+crawl.site,null);
+						}
+						it.remove();
+						Integer count = (Integer)hosts.get(crawl.host);
+						hosts.put(crawl.host, new Integer(count.intValue() - 1));
+					}
+					if (tillTime != 0 && currentTime > tillTime && !pending.isEmpty()){
+						body.debug("Sites crawling time out, skipped "+pending.size()+" of "+total);
+						pending.clear();
+					}
+					//start sites of hosts not busy yet, giving each its share of time left for all remaining
+					for (Iterator it = pending.iterator(); running.size() < threads && it.hasNext();) {
+						final Crawl crawl = new Crawl();
+						crawl.site = (String)it.next();
+						crawl.host = host(crawl.site);
+						Integer count = (Integer)hosts.get(crawl.host);
+						if (count != null && count.intValue() >= hostThreads)
+							continue;
+						it.remove();
+						hosts.put(crawl.host, new Integer(count == null ? 1 : count.intValue() + 1));
+						long share = tillTime == 0 ? 0 : (tillTime - currentTime) * threads / (pending.size() + running.size() + 1);
+						final long siteTillTime = tillTime == 0 ? 0 : Math.min(tillTime, currentTime + share);
+						crawl.start = currentTime;
+						crawl.deadline = tillTime == 0 ? currentTime + Period.MINUTE : siteTillTime;
+						executor.submit(new Callable() {
+							public Object call() {
+								synchronized (lock) {
+									if (crawl.cancelled) {
+										crawl.done = true;
+										lock.notify();
+										return Boolean.FALSE;
+									}
+									crawl.thread = Thread.currentThread();
+								}
+								boolean ok = false;
+								try {
+									ok = read(crawl.site, null, time, siteTillTime, false, crawlRange, newsLimit, scopeStrict, null);
+								} finally {
+									synchronized (lock) {
+										crawl.thread = null;
+										crawl.ok = ok;
+										crawl.done = true;
+										lock.notify();
+									}
+								}
+								return new Boolean(ok);
+							}
+						});
+						running.add(crawl);
+					}
+					if (!running.isEmpty())
+						lock.wait(1000);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		long spent = System.currentTimeMillis() - startTime;
+		int crawled = succeeded + failed + timedout;
+		body.debug("Sites crawling "+crawled+" of "+total+" sites, succeeded "+succeeded+", failed "+failed+", timed out "+timedout
+			+", took "+new Period(spent).toMinutes()+", "+(spent == 0 ? crawled : crawled * Period.MINUTE / spent)+" sites per minute.");
+	}
+	
+	//read the site in the current thread, reporting failures
+	private boolean read(final String site, final String topic, final Date time, final long tillTime, final boolean forced, final int range,final int limit,final boolean strict, final String mode) {
+		long startTime = System.currentTimeMillis();
+		body.reply("Site crawling "+site+", started "+new Date(startTime)+".");
+		Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+		boolean ok = false;
+		try {
+			ok = body.getSiter(site).init(topic,time,forced,tillTime,range,limit,strict,mode).read();
+		} catch (Throwable t){
+			body.error("Site crawling failed unknown "+site+" "+t.toString()+",",t);
+		}
+		long endTime = System.currentTimeMillis();
+		body.reply("Site crawling "+site+" "+(ok?"succeeded":"failed")+" "+new Date(endTime)+" took "+new Period(endTime-startTime).toMinutes()+".");
+		return ok;
+	}
+	
 	//Deal with network I/O hangups, just skip failed sites
 	//http://stackoverflow.com/questions/5715235/java-set-timeout-on-a-certain-block-of-code
 	//http://www.javacoffeebreak.com/articles/network_timeouts/
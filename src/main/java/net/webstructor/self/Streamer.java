@@ -32,21 +32,31 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import net.webstructor.agent.Body;
+import net.webstructor.agent.Farm;
 import net.webstructor.agent.Merger;
 import net.webstructor.agent.Schema;
 import net.webstructor.al.AL;
 import net.webstructor.al.Parser;
 import net.webstructor.al.Time;
 import net.webstructor.al.Writer;
+import net.webstructor.core.Environment;
 import net.webstructor.core.Filer;
 import net.webstructor.core.Storager;
 import net.webstructor.core.Thing;
 import net.webstructor.main.Mainer;
+import net.webstructor.peer.Peer;
 import net.webstructor.util.Array;
 import net.webstructor.util.Str;
 
@@ -54,20 +64,37 @@ public class Streamer {
 
 	protected static final char fieldDelim = ';', elementDelim = ',';
 	protected static final int min_id = 0; // assume 0-1000 are reserved
+	protected static final int compaction_percent = 50; // compact log into snapshot when it gets this big relative to snapshot
 	
 	int id = min_id;
-	HashMap byId = new HashMap();
+	HashMap byId = new HashMap();//id -> thing, when reading
+	HashMap ids = new HashMap();//thing -> id, when writing snapshot and log
 	ArrayList triples = new ArrayList();
 	BufferedWriter writer = null;
+	int threads = Runtime.getRuntime().availableProcessors();//for loading
+	
+	ConcurrentLinkedQueue changes = new ConcurrentLinkedQueue();//changes captured by storager since last write
+	String compacted = null;//path of snapshot written by this streamer, so the log next to it can be appended
+	long stored = 0;//triples in snapshot
+	long logged = 0;//changes in log 
 	
 	//TODO:get rid of one of the two
 	Storager storager;
 	Body body; 
 	
-	private void write(Thing owner, String name, Object value) throws Exception {
+	private Integer id(Thing thing, boolean create) {
+		Integer i = (Integer)ids.get(thing);
+		if (i == null && create)
+			ids.put(thing, i = new Integer(id++));
+		return i;
+	}
+	
+	private void write(String op, Thing owner, String name, Object value) throws Exception {
 		StringBuilder b = new StringBuilder();
 		try {
-			Integer id = (Integer)byId.get(owner);
+			if (op != null)
+				b.append(op);
+			Integer id = id(owner,op != null);
 			b.append('#').append(id.intValue()).append(' ');//subject - thing
 			Writer.toString(b,(String)name);//predicate - string
 			b.append(' ');
@@ -83,7 +110,7 @@ public class Streamer {
 				b.append(Time.day((Date)value,false));
 			else
 			if (value instanceof Thing) 
-				b.append('#').append(((Integer)byId.get(value)).intValue());//object - thing
+				b.append('#').append(id((Thing)value,op != null).intValue());//object - thing
 			b.append(".\n");
 			writer.write(b.toString());
 		} catch (Exception e) {
@@ -109,13 +136,62 @@ public class Streamer {
 						body.error("Streamer fails write "+name+" as "+value+" in ["+Str.first(owner.toString(),200)+"]", null);
 //TODO throw error or prevent happening!?
 					}
-					write(owner,name,value);
+					write(null,owner,name,value);
+					stored++;
 				}
 			}			
 		}
 	}
 	
-	public void write(String path) throws Exception {
+	//binds log to the snapshot it is written after
+	private static String header(File snapshot) {
+		return "snapshot "+snapshot.length()+" "+snapshot.lastModified();
+	}
+	
+	/**
+	 * Saves changes captured since last write, appending them to the log next to the snapshot,
+	 * or rewrites the snapshot with new log, if the log grows too big or is not bound to the snapshot written before. 
+	 * @param path - snapshot path
+	 * @throws Exception
+	 */
+	public synchronized void write(String path) throws Exception {
+		File log = body.getFile(Filer.ext(path, "log"));
+		if (!path.equals(compacted) || !log.exists() || logged * 100 > stored * compaction_percent)
+			compact(path);
+		else
+			append(log);
+	}
+	
+	private void append(File log) throws Exception {
+		if (changes.isEmpty())
+			return;
+		FileOutputStream out = new FileOutputStream(log, true);
+		writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		try {
+			Object[] change;
+			while ((change = (Object[])changes.poll()) != null) {
+				if (change[1] == null) {
+					ids.remove(change[3]);//deleted, so its properties are written deleted already
+					continue;
+				}
+				write(((Boolean)change[0]).booleanValue() ? "+" : "-", (Thing)change[3], (String)change[1], change[2]);
+				logged++;
+			}
+			writer.flush();
+			out.getFD().sync();
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private void compact(String path) throws Exception {
+		//changes made while the snapshot is written go to the next log
+		storager.setJournal(changes);
+		changes.clear();
+		ids.clear();
+		id = min_id;
+		stored = 0;
+		
         File temp = body.getFile(Filer.ext(path, "tmp"));
         writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
 
@@ -123,7 +199,7 @@ public class Streamer {
 		Collection things = storager.getThings();
 		for (Iterator it = things.iterator(); it.hasNext();) {
 			Object o = it.next();
-			byId.put(o,new Integer(id++));
+			ids.put(o,new Integer(id++));
 		}
 
 		String[] names = storager.getNames();
@@ -137,104 +213,355 @@ public class Streamer {
         
 		writer.close();
 		try {body.getFile(path).renameTo(body.getFile(Filer.ext(path, "bak")));}catch(Exception e){}
-        temp.renameTo(body.getFile(path));            		
+        temp.renameTo(body.getFile(path));
+        
+        //start new log after the snapshot, old log is not replayed on top of it once the snapshot is renamed
+        File log = body.getFile(Filer.ext(path, "log"));
+        temp = body.getFile(Filer.ext(path, "log.tmp"));
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        writer.write(header(body.getFile(path))+"\n");
+        writer.close();
+        log.delete();
+        temp.renameTo(log);
+        logged = 0;
+        compacted = path;
 	}
 
 	
 	//http://stackoverflow.com/questions/4702730/regex-for-validating-an-integer-with-a-maximum-length-of-10-characters	static final Pattern idPattern = Pattern.compile("\");
 	static final Pattern idPattern = Pattern.compile("[0-9]+");
 
-	//TODO: performance optimization
-	//TODO: merge with plain AL reader/query?
-	public boolean read(String path) throws Exception {
-		path = body.getFile(path).getPath();
+	/**
+	 * Loads the snapshot and replays the log of changes written after it, if any. 
+	 * @param path - snapshot path
+	 * @return false if there is no snapshot
+	 * @throws Exception
+	 */
+	public synchronized boolean read(String path) throws Exception {
+		File file = body.getFile(path);
+		path = file.getPath();
 		BufferedReader reader = Mainer.getReader(path);
-		int line_no = 0;
-		String line = "";
-		try {
 		if (reader == null)
 			return false;
+		storager.setJournal(null);
+		compacted = null;
+		ids.clear();
+		byId.clear();
 		//TODO: pass peers to clear so the sessions are preserved?
 		storager.clear(Schema.roots,null,null);
-		String[] names = storager.getNames();
-		Array.sortByLength(names,false);
-		boolean clearnames = true;
-		while ((line = reader.readLine()) != null) {
-			line_no++;
-			if (!AL.empty(line)) {
-				Parser parser = new Parser(line);
-				String first = parser.parse();
-				if (first.charAt(0) != '#') {
-					body.output("No id at line "+line_no+" in \'"+line+"\'");
-					continue;
-					//TODO: handle errors better?
-				}
-				Integer id = new Integer(first.substring(1));
-				//TODO: avoid doing it on each line keeping up-to-date
-				//String[] names = storager.getNames();
-				if (!clearnames) {
-					names = storager.getNames();
-					Array.sortByLength(names,false);
-					clearnames = true;
-				}
-				String property = null;
-				try {
-					property = parser.parseAny(names,true);
-				} catch (Exception e) {
-					throw new Exception(" parse error in \'"+line+"\'");
+		read(reader,path,false);
+		File log = body.getFile(Filer.ext(path, "log"));
+		if (log.exists() && (reader = Mainer.getReader(log.getPath())) != null) {
+			if (header(file).equals(reader.readLine()))
+				read(reader,log.getPath(),true);
+			else
+				reader.close();
+		}
+		new Merger(body,storager).merge(byId.values());
+    	return true;
+	}
+	
+	protected static final int block_lines = 65536;//lines tokenized in parallel at once
+	
+	//property names indexed by first word, for each word ordered by decreasing length the way Parser.parseAny tries them 
+	private static class Names {
+		HashSet all = new HashSet();
+		HashMap byFirst = new HashMap();//first word -> list of {name, words...}
+		
+		Names(String[] names) {
+			for (int i = 0; i < names.length; i++)
+				add(names[i]);
+		}
+		
+		void add(String name) {
+			if (AL.empty(name) || !all.add(name))
+				return;
+			String[] words = Parser.split(name,AL.spaces);
+			if (AL.empty(words))
+				return;
+			String[] entry = new String[words.length + 1];
+			entry[0] = name;
+			System.arraycopy(words, 0, entry, 1, words.length);
+			ArrayList list = (ArrayList)byFirst.get(words[0]);
+			if (list == null)
+				byFirst.put(words[0], list = new ArrayList());
+			int i = 0;
+			while (i < list.size() && ((String[])list.get(i))[0].length() >= name.length())
+				i++;
+			list.add(i, entry);
+		}
+		
+		//returns {name, words...} of the longest name matching tokens from given position or null 
+		String[] match(String[] tokens, int from) {
+			if (from >= tokens.length)
+				return null;
+			ArrayList list = (ArrayList)byFirst.get(tokens[from]);
+			if (list != null)
+				for (int i = 0; i < list.size(); i++) {
+					String[] entry = (String[])list.get(i);
+					if (from + entry.length - 1 <= tokens.length) {
+						int w = 2;
+						while (w < entry.length && entry[w].equals(tokens[from + w - 1]))
+							w++;
+						if (w == entry.length)
+							return entry;
+					}
 				}
-				if (AL.empty(property))
-					property = parser.parse();//undeclared property w/o has-predefintion
-				if (AL.empty(property))
-					throw new Exception(" no property in \'"+line+"\'");
-				if (property.equals(AL.has)) {
-					clearnames = false;
+			return null;
+		}
+	}
+	
+	//first phase, thread-safe: split line into operation, subject, and the rest of tokens as Parser.parse does  
+	private static String[] tokenize(String line, boolean log) {
+		if (AL.empty(line))
+			return null;
+		ArrayList tokens = new ArrayList();
+		Parser parser;
+		if (log) {
+			tokens.add(line.substring(0,1));
+			parser = new Parser(line.substring(1));
+		} else {
+			tokens.add("+");
+			parser = new Parser(line);
+		}
+		String token;
+		while ((token = parser.parse()) != null)
+			tokens.add(token);
+		return (String[])tokens.toArray(new String[tokens.size()]);
+	}
+	
+	private String[][] tokenize(final ArrayList lines, final boolean log, ExecutorService executor) throws Exception {
+		final String[][] tokens = new String[lines.size()][];
+		if (executor == null) {
+			for (int i = 0; i < tokens.length; i++)
+				tokens[i] = tokenize((String)lines.get(i), log);
+			return tokens;
+		}
+		ArrayList futures = new ArrayList(threads);
+		int chunk = (tokens.length + threads - 1) / threads;
+		for (int from = 0; from < tokens.length; from += chunk) {
+			final int begin = from, end = Math.min(from + chunk, tokens.length);
+			futures.add(executor.submit(new Callable() {
+				public Object call() {
+					for (int i = begin; i < end; i++)
+						tokens[i] = tokenize((String)lines.get(i), log);
+					return null;
 				}
-				StringBuilder value = new StringBuilder();
-				String chunk;
-				while ((chunk = parser.parse()) != null && AL.periods.indexOf(chunk) == -1) {
-					if (value.length() > 0)
-						value.append(' ');
-					value.append(chunk);
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++)
+			((Future)futures.get(i)).get();
+		return tokens;
+	}
+	
+	private Thing thing(Integer id) {
+		Thing thing = (Thing)byId.get(id);
+		if (thing == null)
+			byId.put(id,thing = new Thing());
+		return thing;
+	}
+	
+	//second phase, sequential: resolve property and ids and set the property leaving new things not stored yet
+	private void link(String[] tokens, Names names, HashSet has, HashSet owners) throws Exception {
+		String first = tokens.length > 1 ? tokens[1] : null;
+		if (first == null || first.charAt(0) != '#')
+			throw new Exception(" no id");
+		Integer id = new Integer(first.substring(1));
+		String property;
+		int next;
+		String[] entry = names.match(tokens, 2);
+		if (entry != null) {
+			property = entry[0];
+			next = 2 + entry.length - 1;
+		} else {
+			property = tokens.length > 2 ? tokens[2] : null;//undeclared property w/o has-predefintion
+			next = 3;
+		}
+		if (AL.empty(property))
+			throw new Exception(" no property");
+		StringBuilder value = new StringBuilder();
+		for (; next < tokens.length && AL.periods.indexOf(tokens[next]) == -1; next++) {
+			if (value.length() > 0)
+				value.append(' ');
+			value.append(tokens[next]);
+		}
+		//TODO: decide if blank values are allowed (like store path '')?
+		Thing thing = thing(id);
+		Thing vthing = null; 
+		if (value.length() > 0 && value.charAt(0) == '#') {
+			String idString = value.substring(1);
+			if (idPattern.matcher(idString).matches())
+				vthing = thing(new Integer(idString));
+		}
+		if (tokens[0].charAt(0) == '-') {
+			if (vthing != null)
+				thing.delThing(property,vthing);
+			else {
+				Object old = thing.get(property);
+				if (old != null && value.toString().equals(old instanceof Date ? Time.day((Date)old,false) : old.toString()))
+					thing.set(property,null);
+			}
+		} else
+		if (vthing != null)
+			thing.addThing(property,vthing);
+		else 
+		if (storager.isTime(property))
+			thing.set(property,Time.day(value.toString()));
+		else
+			thing.setString(property,value.toString());
+		owners.add(thing);
+		
+		//keep names of declared properties known the way storager.getNames does
+		names.add(property);
+		if (property.equals(AL.has) && vthing != null) {
+			has.add(vthing);
+			names.add(vthing.getName());
+		} else
+		if (property.equals(AL.name) && has.contains(thing))
+			names.add(thing.getName());
+	}
+	
+	//third phase: index things in storager, concurrently if possible
+	private void store(final ArrayList things, ExecutorService executor) throws Exception {
+		if (executor == null) {
+			for (int i = 0; i < things.size(); i++)
+				((Thing)things.get(i)).store(storager);
+			return;
+		}
+		ArrayList futures = new ArrayList(threads);
+		int chunk = (things.size() + threads - 1) / threads;
+		for (int from = 0; from < things.size(); from += chunk) {
+			final int begin = from, end = Math.min(from + chunk, things.size());
+			futures.add(executor.submit(new Callable() {
+				public Object call() {
+					for (int i = begin; i < end; i++)
+						((Thing)things.get(i)).store(storager);
+					return null;
 				}
-				//TODO: decide if blank values are allowed (like store path '')?
-				//if (value.length() == 0)
-				//	throw new Exception(" no value in \'"+line+"\'");
-				Thing thing = (Thing)byId.get(id);
-				if (thing == null)
-					byId.put(id,thing = new Thing());
-				Thing vthing = null; 
-				if (value.length() > 0 && value.charAt(0) == '#') {
-					String idString = value.substring(1);
-					if (idPattern.matcher(idString).matches()) {
-						Integer vid = new Integer(idString);
-						vthing = (Thing)byId.get(vid);
-						if (vthing == null)
-							byId.put(vid,vthing = new Thing()); 
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++)
+			((Future)futures.get(i)).get();
+	}
+	
+	//TODO: merge with plain AL reader/query?
+	private void read(BufferedReader reader, String path, boolean log) throws Exception {
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		Names names = new Names(storager.getNames());
+		HashSet has = new HashSet();
+		HashSet owners = new HashSet();
+		ArrayList lines = new ArrayList(block_lines);
+		int line_no = 0;
+		try {
+			for (boolean more = true; more;) {
+				String line = reader.readLine();
+				if (line != null)
+					lines.add(line);
+				else
+					more = false;
+				if (lines.size() < block_lines && more)
+					continue;
+				String[][] tokens = tokenize(lines, log, executor);
+				for (int i = 0; i < tokens.length; i++) {
+					line_no++;
+					if (tokens[i] != null) try {
+						link(tokens[i], names, has, owners);
+					} catch (Exception e) {
+						body.error("Streamer fails read line "+line_no+" "+lines.get(i)+" in "+path, e);
 					}
 				}
-				if (vthing != null)
-					thing.addThing(property,vthing);
-				else 
-				if (storager.isTime(property))
-					thing.set(property,Time.day(value.toString()));
-				else
-					thing.setString(property,value.toString());
-				thing.store(storager);
+				lines.clear();
 			}
-  		}
+			store(new ArrayList(owners), executor);
 		} catch (Exception e){
-			body.error("Streamer fails read line "+line_no+" "+line, e);
+			body.error("Streamer fails read "+path+" at line "+line_no, e);
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+			reader.close();
 		}
-		reader.close();
-		new Merger(body,storager).merge(byId.values());
-    	return true;
 	}
 	
 	public Streamer(Body body) {
 		this.body = body;
 		this.storager = body.storager;
 	}
-		
 	
+	private static Body body() {
+		return new Farm(new String[]{},false,false,false,false,false,false,1);
+	}
+	
+	//generate store of given number of triples with peers, topics and news, write it and time loading with given threads
+	private static void benchmark(Environment env, String path, int triples, int[] threads) throws Exception {
+		Body body = body();
+		Storager storager = body.storager;
+		Thing peer = storager.getThing(Schema.peer);
+		Thing site = new Thing();
+		site.setString(AL.name,"site");
+		site.store(storager);
+		Random random = new Random(1);
+		Thing[] topics = new Thing[100];
+		for (int i = 0; i < topics.length; i++) {
+			topics[i] = new Thing();
+			topics[i].setString(AL.name,"topic "+i);
+			topics[i].addThing(AL.is,site);
+			topics[i].store(storager);
+		}
+		Thing[] peers = new Thing[Math.max(1, triples / 1000)];
+		for (int i = 0; i < peers.length; i++) {
+			peers[i] = new Thing();
+			peers[i].setString(AL.name,"name"+i);
+			peers[i].setString(Peer.surname,"surname"+i);
+			peers[i].setString(AL.email,"user"+i+"@example.com");
+			peers[i].addThing(AL.is,peer);
+			for (int t = 0; t < 5; t++)
+				peers[i].addThing(AL.topics,topics[random.nextInt(topics.length)]);
+			peers[i].store(storager);
+		}
+		int count = 0;
+		for (int i = 0; count < triples; i++) {
+			Thing news = new Thing();
+			news.setString(AL.text,"Text of news "+i+" about topic "+random.nextInt(topics.length));
+			news.setString(Peer.social_relevance,String.valueOf(random.nextInt(100)));
+			news.set(AL.times,Time.today(-random.nextInt(30)));
+			news.addThing(AL.is,topics[random.nextInt(topics.length)]);
+			news.store(storager);
+			peers[random.nextInt(peers.length)].addThing(AL.news,news);
+			count += 5;
+		}
+		long start = System.currentTimeMillis();
+		new Streamer(body).write(path);
+		env.debug("Streamer benchmark triples "+count+" write "+(System.currentTimeMillis() - start)+" ms, "+body.getFile(path).length()+" bytes");
+		for (int i = 0; i < threads.length; i++) {
+			body = null;
+			storager = null;
+			System.gc();
+			body = body();
+			Streamer streamer = new Streamer(body);
+			streamer.threads = threads[i];
+			start = System.currentTimeMillis();
+			streamer.read(path);
+			long things = body.storager.getThings().size();
+			env.debug("Streamer benchmark threads "+threads[i]+" read "+(System.currentTimeMillis() - start)+" ms, things "+things);
+		}
+		String[] exts = new String[]{"log","bak"};
+		for (int i = 0; i < exts.length; i++)
+			body.getFile(Filer.ext(path, exts[i])).delete();
+		body.getFile(path).delete();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args == null || args.length < 1){
+			System.out.println("Options: benchmark [triples <count>] [threads <count>] [path <file>]");
+			return;
+		}
+		if ("benchmark".equalsIgnoreCase(args[0])) {
+			Mainer env = new Mainer();
+			int threads = Integer.parseInt(Str.arg(args, "threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+			benchmark(env, Str.arg(args, "path", "streamer_benchmark.txt"), 
+				Integer.parseInt(Str.arg(args, "triples", "1000000")),
+				threads > 1 ? new int[]{1,threads} : new int[]{1});
+			System.exit(0);//conversation threads of the farm
+		}
+	}
 }
@@ -37,6 +37,7 @@ import net.webstructor.data.Counter;
 import net.webstructor.data.Linker;
 import net.webstructor.data.Graph;
 import net.webstructor.data.SocialFeeder;
+import net.webstructor.data.TextScorer;
 import net.webstructor.peer.Peer;
 
 /*
@@ -175,12 +176,15 @@ class PeerNewsRelevancer extends Reasoner {
 		Collection news = context.getThings(AL.news);
 		//for each of the news
 		Counter relevances = new Counter();
-		if (!AL.empty(news))
-		for (Iterator it = new ArrayList(news).iterator(); it.hasNext();){
-			Thing item = (Thing)it.next();
-			String text = item.getString(AL.text);
-			if (!AL.empty(text))
-				countRelevances(item, text, words, relevances, false);
+		if (!AL.empty(news)){
+			news = new ArrayList(news);
+			TextScorer.Result[] scores = scoreTexts(news, AL.text);
+			int i = 0;
+			for (Iterator it = news.iterator(); it.hasNext(); i++){
+				Thing item = (Thing)it.next();
+				if (scores[i].words != null)
+					countRelevances(item, scores[i], words, relevances, false);
+			}
 		}
 		relevances.normalize();
 		return relevances;
@@ -199,10 +203,13 @@ class PeerNewsRelevancer extends Reasoner {
 		//for each of the news, count to thing-specific map
 		if (!AL.empty(news)){
 			HashMap thingCounters = new HashMap(); 
-			for (Iterator it = new ArrayList(news).iterator(); it.hasNext();){
+			news = new ArrayList(news);
+			TextScorer.Result[] scores = scoreTexts(news, AL.text);
+			int i = 0;
+			for (Iterator it = news.iterator(); it.hasNext(); i++){
 				Thing item = (Thing)it.next();
-				String text = item.getString(AL.text);
-				if (AL.empty(text))
+				TextScorer.Result text = scores[i];
+				if (text.words == null)
 					continue;
 				Collection ises = (item.getThings(AL.is));
 				if (!AL.empty(ises)){
@@ -257,9 +264,26 @@ class PeerNewsRelevancer extends Reasoner {
 		return peersRelevances;
 	}
 
+	//count words of all texts at once, as there may be thousands of news
+	TextScorer.Result[] scoreTexts(Collection things, String property){
+		String[] texts = new String[things.size()];
+		int i = 0;
+		for (Iterator it = things.iterator(); it.hasNext();)
+			texts[i++] = ((Thing)it.next()).getString(property);
+		return new TextScorer(thinker.body.languages,TextScorer.WORDS).score(texts);
+	}
+	
 	void countRelevances(Object item, String text, Counter words, Counter relevances, boolean multiplied){
 		Counter textWords = new Counter();
 		SocialFeeder.countWords(thinker.body.languages,text,textWords);
+		countRelevances(item, textWords, words, relevances, multiplied);
+	}
+	
+	void countRelevances(Object item, TextScorer.Result text, Counter words, Counter relevances, boolean multiplied){
+		countRelevances(item, text.count(new Counter()), words, relevances, multiplied);
+	}
+	
+	void countRelevances(Object item, Counter textWords, Counter words, Counter relevances, boolean multiplied){
 		if (norm != null)
 			textWords.normalizeBy(norm,1);
 		Object[] cross = multiplied ? words.crossMultiplied(textWords) : words.crossOverlap(textWords);
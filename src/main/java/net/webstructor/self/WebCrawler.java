@@ -34,6 +34,7 @@ import net.webstructor.agent.Body;
 import net.webstructor.al.AL;
 import net.webstructor.al.Iter;
 import net.webstructor.al.Parser;
+import net.webstructor.al.Seq;
 import net.webstructor.comm.Crawler;
 import net.webstructor.core.Thing;
 import net.webstructor.data.SocialFeeder;
@@ -87,11 +88,16 @@ public class WebCrawler implements Crawler {
 			result = match(siter,new Iter(Parser.parse(path)),null,siter.timeDate,null,topics);//with no positions
 		else
 		//TODO: distinguish skipped || failed in readIfUpdated ?
-		if (!AL.empty(text = body.filecacher.readIfUpdated(path,links,siter.imager.getMap(path),siter.linker.getMap(path),siter.titler.getMap(path),siter.forced,siter.realTime))) {
+		if (!AL.empty(text = body.filecacher.readIfUpdated(path,siter.pathTried,links,siter.imager.getMap(path),siter.linker.getMap(path),siter.titler.getMap(path),siter.forced,siter.realTime))) {
 			ArrayList positions = new ArrayList();
-			Iter iter = new Iter(Parser.parse(text,null,false,true,true,false,Siter.punctuation,positions));//build with original text positions preserved for image matching
-			result = match(siter,iter,positions,siter.timeDate,path,topics);
-			siter.index(path,siter.timeDate,iter,links);
+			Seq tokens = Parser.parse(text,null,false,true,true,false,Siter.punctuation,positions);//build with original text positions preserved for image matching
+			//match only blocks of text not seen earlier
+			ArrayList novelPositions = new ArrayList();
+			Iter novel = siter.novel(path,tokens,positions,topics,novelPositions);
+			if (novel != null)
+				result = match(siter,novel,novelPositions,siter.timeDate,path,topics);
+			siter.matched(path);
+			siter.index(path,siter.timeDate,new Iter(tokens),links);
 			//TODO: add source name as page title by default?
 		} else {
 			skipped = true;//if not read 
@@ -109,7 +115,7 @@ public class WebCrawler implements Crawler {
 		int matches = 0;
 		if (iter != null && iter.size() > 0) {
 			if (!AL.empty(topics)) {
-				for (Iterator it = topics.iterator();it.hasNext();)
+				for (Iterator it = matcher.candidates(topics,iter).iterator();it.hasNext();)
 					matches += matcher.match(iter,positions,(Thing)it.next(),time,path, siter.thingTexts, siter.thingPaths, siter.imager, siter.linker, siter.titler);
 			}
 		}
@@ -30,23 +30,31 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.webstructor.al.AL;
 
+/**
+ * Two-level map of key -> subkey -> object, safe for concurrent use.
+ * Reads do not lock, as both levels are concurrent maps iterated in weakly consistent way.
+ * Writes adding or removing subkeys lock the map of the key only, 
+ * so that its map is not dropped empty while other thread is putting to it.
+ */
 public class MapMap {
 	
 	//static final boolean debug = false;
 	
-	private HashMap maps = new HashMap();
+	private ConcurrentHashMap maps = new ConcurrentHashMap();
 
-	private HashMap getMap(Object key,boolean lazyAdd) {
-		HashMap map;
-		synchronized (maps) {
-			map = (HashMap) maps.get(key);
-			if (map == null && lazyAdd) {
-				map = new HashMap();
-				maps.put(key, map);
-			}
+	private Map getMap(Object key,boolean lazyAdd) {
+		if (key == null)
+			return null;
+		Map map = (Map) maps.get(key);
+		if (map == null && lazyAdd) {
+			map = new ConcurrentHashMap();
+			Map present = (Map) maps.putIfAbsent(key, map);
+			if (present != null)
+				map = present;
 		}
 		return map;
 	}
@@ -56,44 +64,28 @@ public class MapMap {
 	}
 	
 	public void clear() {
-		synchronized (maps) {
-			maps.clear();
-		}
+		maps.clear();
 	}
 	
 	public String[] getKeyStrings() {
-		synchronized (maps) {
-			return (String[])maps.keySet().toArray(new String[]{});
-		}
+		return (String[])maps.keySet().toArray(new String[]{});
 	}
 	
 	public Object[] getKeyObjects() {
-		synchronized (maps) {
-			return maps.keySet().toArray();
-		}
+		return maps.keySet().toArray();
 	}
 	
 	public String[] getSubKeyStrings(String key) {
-		HashMap map = getMap(key,false);
-		if (map != null) {
-			Collection values;
-			synchronized (map) {
-				values = map.keySet();
-			}
-			return (String[])values.toArray(new String[]{});
-		}
+		Map map = getMap(key,false);
+		if (map != null)
+			return (String[])map.keySet().toArray(new String[]{});
 		return null;
 	}
 	
 	public Object[] getSubKeyObjects(Object key) {
-		HashMap map = getMap(key,false);
-		if (map != null) {
-			Collection values;
-			synchronized (map) {
-				values = map.keySet();
-			}
-			return values.toArray(new Object[]{});
-		}
+		Map map = getMap(key,false);
+		if (map != null)
+			return map.keySet().toArray(new Object[]{});
 		return null;
 	}
 	
@@ -103,22 +95,16 @@ public class MapMap {
 	 * @return cloned set
 	 */
 	public java.util.Set getSubKeySet(Object key) {
-		HashMap map = getMap(key,false);
-		if (map != null) {
-			synchronized (map) {
-				return new HashSet(map.keySet());
-			}
-		}
+		Map map = getMap(key,false);
+		if (map != null)
+			return new HashSet(map.keySet());
 		return null;
 	}
 	
 	public Object getObject(Object key1,Object key2,boolean lazyAdd) {
-		HashMap map = getMap(key1,lazyAdd);
-		if (map != null) 
-			synchronized (map) {
-				Object o = map.get(key2);
-				return o;
-			}		
+		Map map = getMap(key1,lazyAdd);
+		if (map != null && key2 != null) 
+			return map.get(key2);
 		return null;
 	}
 
@@ -140,22 +126,18 @@ public class MapMap {
 	//get collection of subkey values for all subkeys included or excluded by rule
 	public Collection getObjects(Object key1,Object[] options,boolean rule) {
 		ArrayList list = new ArrayList();
-		HashMap map = getMap(key1,false);
+		Map map = getMap(key1,false);
 		if (map != null) { 
-			Collection key2s;
-			synchronized (map) {
-				key2s = map.keySet();
-			}
 			if (AL.empty(options)) { //if no options/exceptions
 				if (!rule) // if negative rule, include all 
-					for (Iterator it = key2s.iterator(); it.hasNext();)
-						list.add(map.get(it.next()));
+					list.addAll(map.values());
 			} else { // there are options/exceptions to consider
-				for (Iterator it = key2s.iterator(); it.hasNext();) {
-					Object key2 = it.next();
+				for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+					Map.Entry entry = (Map.Entry)it.next();
+					Object key2 = entry.getKey();
 					if (( rule &&  Array.contains(options, key2)) || //include all matches
 						(!rule && !Array.contains(options, key2))  ) //include all non-matches
-						list.add(map.get(key2));
+						list.add(entry.getValue());
 				}						
 			}
 		}
@@ -163,42 +145,45 @@ public class MapMap {
 	}
 
 	public void putObject(Object key1,Object key2,Object obj) {
-		if (key1 == null || key2 == null || obj == null) //TODO:Exception
-			System.out.println("Error: putObject null");
-		HashMap map = getMap(key1,true);
-		synchronized (map) {
-			//TODO: assert previous value is the same as new value and throw exception otherwise
-			map.put(key2, obj);
-		}		
+		if (key1 == null || key2 == null || obj == null)//concurrent maps can not hold nulls, so fail instead of losing the entry
+			throw new IllegalArgumentException("putObject null "+key1+" "+key2+" "+obj);
+		for (;;) {
+			Map map = getMap(key1,true);
+			synchronized (map) {
+				if (maps.get(key1) != map)//dropped empty meanwhile
+					continue;
+				//TODO: assert previous value is the same as new value and throw exception otherwise
+				map.put(key2, obj);
+				return;
+			}
+		}
 	}
 
 	public boolean delKey(Object key1,Object key2) {
-		HashMap map = getMap(key1,false);
+		Map map = getMap(key1,false);
 		if (map != null) 
 			synchronized (map) {
 				map.remove(key2);
 				if (map.size() == 0)
-					maps.remove(key1);
+					maps.remove(key1, map);
 				return true;
 			}		
 		return false;
 	}
 
 	public Collection getObjects(Object key1,Class cls) {
-		HashMap map = getMap(key1,false);
+		Map map = getMap(key1,false);
 		if (map != null) {
 			HashSet objects = new HashSet();
-			synchronized (map) {
-				Collection objectSets = map.values();
-				for (Object objectSet : objectSets) {
-					if (objectSet instanceof Set) {
-						for (Object o : (Set)objectSet)
-							if (cls == null || cls.isInstance(o))
-								objects.add(o);
-					}
+			Collection objectSets = map.values();
+			for (Object objectSet : objectSets) {
+				if (objectSet instanceof Set) {
+					for (Object o : (Set)objectSet)
+						if (cls == null || cls.isInstance(o))
+							objects.add(o);
 				}
-				return objects;
 			}
+			return objects;
 		}
 		return null;
 	}
@@ -208,42 +193,40 @@ public class MapMap {
 	public Collection getObjects(Class cls,Set debugTrap) {
 		if (debugTrap == null) {
 			HashSet objects = new HashSet();
-			synchronized (maps) {
-				Iterator it = maps.values().iterator();
-				while (it.hasNext()) {
-					HashMap map = (HashMap)it.next();
-					Iterator i = map.values().iterator();
-					while (i.hasNext()) {
-						Object obj = i.next();
-						//TODO:makes no sense as obj is a Set?
-						if (cls == null || cls.isInstance(obj))
-							objects.add(obj);
-					}
+			Iterator it = maps.values().iterator();
+			while (it.hasNext()) {
+				Map map = (Map)it.next();
+				Iterator i = map.values().iterator();
+				while (i.hasNext()) {
+					Object obj = i.next();
+					//TODO:makes no sense as obj is a Set?
+					if (cls == null || cls.isInstance(obj))
+						objects.add(obj);
 				}
-			} //synchronized (maps)
+			}
 			return objects;
 		}
 		else { //debug
 			HashSet objects = new HashSet();
-			synchronized (maps) {
-				Iterator it = maps.keySet().iterator();
-				while (it.hasNext()) {
-					Object key1 = it.next();
-					HashMap map = (HashMap)maps.get(key1);
-					Iterator i = map.keySet().iterator();
-					while (i.hasNext()) {
-						Object key2 = i.next();
-						Object obj = map.get(key2);
-						HashSet targets = new HashSet((Set)obj);
-						for (Iterator t = targets.iterator(); t.hasNext();){
-							Object target = t.next();
-							if (debugTrap.contains(target)) 
-								println("Checking: "+key1+":"+key2+":"+target);
-						}
-						//TODO:makes no sense as obj is a Set?
-						if (obj != null && (cls == null || cls.isInstance(obj)))
-							objects.add(obj);
+			Iterator it = maps.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry entry = (Map.Entry)it.next();
+				Object key1 = entry.getKey();
+				Map map = (Map)entry.getValue();
+				Iterator i = map.entrySet().iterator();
+				while (i.hasNext()) {
+					Map.Entry subentry = (Map.Entry)i.next();
+					Object key2 = subentry.getKey();
+					Object obj = subentry.getValue();
+					HashSet targets = new HashSet((Set)obj);
+					for (Iterator t = targets.iterator(); t.hasNext();){
+						Object target = t.next();
+						if (debugTrap.contains(target)) 
+							println("Checking: "+key1+":"+key2+":"+target);
 					}
+					//TODO:makes no sense as obj is a Set?
+					if (obj != null && (cls == null || cls.isInstance(obj)))
+						objects.add(obj);
 				}
 			}
 			return objects;
@@ -257,47 +240,45 @@ public class MapMap {
 			except = null; 
 		}
 		int count = 0;
-		synchronized (maps) {
-			Iterator it = maps.values().iterator();
-			while (it.hasNext()) {
-				HashMap map = (HashMap)it.next();
-				Iterator i = map.keySet().iterator();
-				while (i.hasNext()) {
-					Object obj = i.next();
-					//TODO:equals
-					if (target == null || target == obj) {
-						HashSet set = (HashSet)map.get(obj);
-						count += set.size();
-						if (except != null && set.contains(except))
+		Iterator it = maps.values().iterator();
+		while (it.hasNext()) {
+			Map map = (Map)it.next();
+			Iterator i = map.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry entry = (Map.Entry)i.next();
+				Object obj = entry.getKey();
+				//TODO:equals
+				if (target == null || target == obj) {
+					Set set = (Set)entry.getValue();
+					count += set.size();
+					if (except != null && set.contains(except))
+						count--;
+					if (excset != null) for (Iterator exit = set.iterator(); exit.hasNext();)
+						if (excset.contains(exit.next()))
 							count--;
-						if (excset != null) for (Iterator exit = set.iterator(); exit.hasNext();)
-							if (excset.contains(exit.next()))
-								count--;
-					}
 				}
 			}
-		} //synchronized (maps)
+		}
 		return count;
 	}
 	
 	public Map getKey2Counts(Class cls) {
 		HashMap counts = new HashMap();
-		synchronized (maps) {
-			Iterator it = maps.values().iterator();
-			while (it.hasNext()) {
-				HashMap map = (HashMap)it.next();
-				Iterator i = map.keySet().iterator();
-				while (i.hasNext()) {
-					Object obj = i.next();
-					if (cls == null || cls.isInstance(obj)) {
-						HashSet set = (HashSet)map.get(obj);
-						if (set == null)
-							System.out.println("Error: "+obj+" set null");//TODO:Exception
-						int addon = set == null ? 0 : set.size();
-						Integer count = (Integer)counts.get(obj);
-						count = new Integer((count == null ? 0 : count.intValue()) + addon);
-						counts.put(obj,count);
-					}
+		Iterator it = maps.values().iterator();
+		while (it.hasNext()) {
+			Map map = (Map)it.next();
+			Iterator i = map.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry entry = (Map.Entry)i.next();
+				Object obj = entry.getKey();
+				if (cls == null || cls.isInstance(obj)) {
+					Set set = (Set)entry.getValue();
+					if (set == null)
+						System.out.println("Error: "+obj+" set null");//TODO:Exception
+					int addon = set == null ? 0 : set.size();
+					Integer count = (Integer)counts.get(obj);
+					count = new Integer((count == null ? 0 : count.intValue()) + addon);
+					counts.put(obj,count);
 				}
 			}
 		}
@@ -326,24 +307,24 @@ public class MapMap {
 	//transposes PROPERTY-VALUE-OBJECT index into VALUE-OBJECT-PROPERTY
 	public MapMap getShifted() {
 		MapMap shifted = new MapMap();
-		synchronized (maps) {
-			for (Iterator ip = maps.keySet().iterator(); ip.hasNext();) {
-				String propertyName = (String)ip.next();
-				HashMap map = (HashMap)maps.get(propertyName);
-				for (Iterator iv = map.keySet().iterator(); iv.hasNext();) {
-					Object valueObject = iv.next();
-					HashSet set = (HashSet)map.get(valueObject);
-					for (Iterator it = set.iterator(); it.hasNext();) {
-						//TODO: move out this lind of logic out of here to Storager level?
-						Object owner = it.next();
-						HashSet newset = (HashSet) shifted.getObject(valueObject, owner, true);
-						if (newset == null)
-							shifted.putObject(valueObject, owner, newset = new HashSet());
-						newset.add(propertyName);
-					}
+		for (Iterator ip = maps.entrySet().iterator(); ip.hasNext();) {
+			Map.Entry entry = (Map.Entry)ip.next();
+			String propertyName = (String)entry.getKey();
+			Map map = (Map)entry.getValue();
+			for (Iterator iv = map.entrySet().iterator(); iv.hasNext();) {
+				Map.Entry subentry = (Map.Entry)iv.next();
+				Object valueObject = subentry.getKey();
+				Set set = (Set)subentry.getValue();
+				for (Iterator it = set.iterator(); it.hasNext();) {
+					//TODO: move out this lind of logic out of here to Storager level?
+					Object owner = it.next();
+					Set newset = (Set) shifted.getObject(valueObject, owner, true);
+					if (newset == null)
+						shifted.putObject(valueObject, owner, newset = new HashSet());
+					newset.add(propertyName);
 				}
-			}		
-		}//synchronized (maps)
+			}
+		}		
 		return shifted;
 	}
 	